@@ -1,8 +1,10 @@
 package Project.Client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -23,12 +25,16 @@ import Project.Client.Views.ChatPanel;
 import Project.Common.ConnectionPayload;
 import Project.Common.Constants;
 import Project.Common.FlipPayload;
+import Project.Common.FrameCodec;
+import Project.Common.HistoryPayload;
 import Project.Common.LoggerUtil;
+import Project.Common.MessagePayload;
 import Project.Common.Payload;
 import Project.Common.PayloadType;
 import Project.Common.PrivateMessagePayload;
 import Project.Common.RoomResultsPayload;
 import Project.Common.TextFX;
+import Project.Common.WireFormat;
 import Project.Common.TextFX.Color;
 import Project.Common.RollPayload;
 import Project.Server.Room;
@@ -53,8 +59,9 @@ public enum Client {
         LoggerUtil.INSTANCE.setConfig(config);
     }
     private Socket server = null;
-    private ObjectOutputStream out = null;
-    private ObjectInputStream in = null;
+    private DataOutputStream out = null; // framed (see FrameCodec)
+    private final WireFormat wireFormat = WireFormat.BINARY_FRAMES;
+    private DataInputStream in = null;
     final Pattern ipAddressPattern = Pattern
             .compile("/connect\\s+(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}:\\d{3,5})");
     final Pattern localhostPattern = Pattern.compile("/connect\\s+(localhost:\\d{3,5})");
@@ -73,6 +80,10 @@ public enum Client {
     private final String SINGLE_SPACE = " ";
     private final String FLIP = "flip";
     private final String ROLL = "roll";
+    // rooms asked for per ROOM_LIST page (the server may cap it lower)
+    public static final int ROOM_PAGE_SIZE = 50;
+    // messages asked for per HISTORY page (the server may cap it lower)
+    public static final int HISTORY_PAGE_SIZE = 50;
 
 
     // callback that updates the UI
@@ -111,9 +122,10 @@ public enum Client {
         try {
             server = new Socket(address, port);
             // channel to send to server
-            out = new ObjectOutputStream(server.getOutputStream());
+            out = new DataOutputStream(new BufferedOutputStream(server.getOutputStream()));
+            sendHandshake();
             // channel to listen to server
-            in = new ObjectInputStream(server.getInputStream());
+            in = new DataInputStream(new BufferedInputStream(server.getInputStream()));
             LoggerUtil.INSTANCE.info("Client connected");
             // Use CompletableFuture to run listenToServer() in a separate thread
             CompletableFuture.runAsync(this::listenToServer);
@@ -140,9 +152,10 @@ public enum Client {
         try {
             server = new Socket(address, port);
             // channel to send to server
-            out = new ObjectOutputStream(server.getOutputStream());
+            out = new DataOutputStream(new BufferedOutputStream(server.getOutputStream()));
+            sendHandshake();
             // channel to listen to server
-            in = new ObjectInputStream(server.getInputStream());
+            in = new DataInputStream(new BufferedInputStream(server.getInputStream()));
             LoggerUtil.INSTANCE.info("Client connected");
             // Use CompletableFuture to run listenToServer() in a separate thread
             CompletableFuture.runAsync(this::listenToServer);
@@ -325,8 +338,7 @@ public enum Client {
     }
 
     private void sendPrivateMessage(Long targetId, String message) throws IOException {
-        out.writeObject(new PrivateMessagePayload(targetId, message));
-        out.flush();
+        send(new PrivateMessagePayload(targetId, message));
     }
 
     /**
@@ -336,9 +348,38 @@ public enum Client {
      * @throws IOException
      */
     public void sendListRooms(String roomQuery) throws IOException {
-        Payload p = new Payload();
-        p.setPayloadType(PayloadType.ROOM_LIST);
+        sendListRooms(roomQuery, null);
+    }
+
+    /**
+     * Asks for one page of a room search
+     * 
+     * @param roomQuery optional partial match search String
+     * @param cursor    null for the first page, otherwise the nextCursor the
+     *                  previous page came with
+     * @throws IOException
+     */
+    public void sendListRooms(String roomQuery, String cursor) throws IOException {
+        RoomResultsPayload p = new RoomResultsPayload();
         p.setMessage(roomQuery);
+        p.setCursor(cursor);
+        p.setPageSize(ROOM_PAGE_SIZE);
+        send(p);
+    }
+
+    /**
+     * Asks for the page of a room's messages before the given one; the
+     * answer comes through IMessageEvents.onReceiveHistoryPage()
+     * 
+     * @param room           the room we're in
+     * @param beforeSequence the oldest message we have (0 for the newest page)
+     * @throws IOException
+     */
+    public void sendHistoryRequest(String room, long beforeSequence) throws IOException {
+        HistoryPayload p = new HistoryPayload();
+        p.setRoom(room);
+        p.setBeforeSequence(beforeSequence);
+        p.setLimit(HISTORY_PAGE_SIZE);
         send(p);
     }
 
@@ -399,8 +440,7 @@ public enum Client {
         LoggerUtil.INSTANCE.info("Payload created: " + payload.toString());
     
         // Send the Payload object
-        out.writeObject(payload);
-        out.flush();
+        send(payload);
     }
 
     /**
@@ -418,6 +458,18 @@ public enum Client {
         send(cp);
     }
 
+    /**
+     * Announces the wire format before any frames are sent
+     * 
+     * @throws IOException
+     */
+    private void sendHandshake() throws IOException {
+        if (wireFormat.hasHandshake()) {
+            out.writeByte(WireFormat.HANDSHAKE_BINARY);
+            out.flush();
+        }
+    }
+
     /**
      * Generic send that passes any Payload over the socket (to ServerThread)
      * 
@@ -426,8 +478,7 @@ public enum Client {
      */
     private void send(Payload p) throws IOException {
         try {
-            out.writeObject(p);
-            out.flush();
+            FrameCodec.write(out, p, wireFormat);
         } catch (IOException e) {
             LoggerUtil.INSTANCE.severe("Socket send exception", e);
             throw e;
@@ -452,7 +503,7 @@ public enum Client {
     private void listenToServer() {
         try {
             while (isRunning && isConnected()) {
-                Payload fromServer = (Payload) in.readObject(); // blocking read
+                Payload fromServer = FrameCodec.read(in, wireFormat); // blocking read
                 if (fromServer != null) {
                     // System.out.println(fromServer);
                     processPayload(fromServer);
@@ -578,11 +629,17 @@ public enum Client {
                     processRoomAction(cp.getClientId(), cp.getClientName(), cp.getMessage(), cp.isConnect());
                     break;
                 case PayloadType.ROOM_LIST:
-                    RoomResultsPayload rrp = (RoomResultsPayload) payload;
-                    processRoomsList(rrp.getRooms(), rrp.getMessage());
+                    processRoomsList((RoomResultsPayload) payload);
                     break;
                 case PayloadType.MESSAGE: // displays a received message
-                    processMessage(payload.getClientId(), payload.getMessage());
+                    if (payload instanceof MessagePayload) {
+                        processRoomMessage((MessagePayload) payload);
+                    } else {
+                        processMessage(payload.getClientId(), payload.getMessage());
+                    }
+                    break;
+                case PayloadType.HISTORY: // earlier messages of a room we joined, or a page we asked for
+                    processHistory((HistoryPayload) payload);
                     break;
                 case PayloadType.MUTE_UNMUTE_NOTIFICATION:
                     processMessage(payload.getClientId(), payload.getMessage());
@@ -635,11 +692,13 @@ public enum Client {
         processMessage(ClientData.DEFAULT_CLIENT_ID, message);
     }
 
-    private void processRoomsList(List<String> rooms, String message) {
-        // invoke onReceiveRoomList callback
+    private void processRoomsList(RoomResultsPayload page) {
+        List<String> rooms = page.getRooms();
+        // invoke onReceiveRoomPage callback
         events.forEach(event -> {
             if (event instanceof IRoomEvents) {
-                ((IRoomEvents) event).onReceiveRoomList(rooms, message);
+                ((IRoomEvents) event).onReceiveRoomPage(page.getQuery(), rooms, page.getCursor(),
+                        page.getTotalCount(), page.isTotalCapped());
             }
         });
 
@@ -652,6 +711,10 @@ public enum Client {
         System.out.println(TextFX.colorize("Room Results:", Color.PURPLE));
         System.out.println(
                 String.join("\n", rooms));
+        if (page.getCursor() != null && page.getTotalCount() >= 0) {
+            System.out.println(TextFX.colorize(String.format("Showing %s of %s%s, narrow the query to see others",
+                    rooms.size(), page.getTotalCount(), page.isTotalCapped() ? "+" : ""), Color.PURPLE));
+        }
 
     }
 
@@ -695,6 +758,43 @@ public enum Client {
         });
     }
 
+    private void processRoomMessage(MessagePayload payload) {
+        System.out.println(TextFX.colorize(payload.getMessage(), Color.BLUE));
+        // invoke onRoomMessage callback
+        events.forEach(event -> {
+            if (event instanceof IMessageEvents) {
+                ((IMessageEvents) event).onRoomMessage(payload.getClientId(), payload.getMessage(),
+                        payload.getSequence());
+            }
+        });
+    }
+
+    private void processHistory(HistoryPayload history) {
+        List<HistoryPayload.Entry> entries = history.getEntries() == null ? List.of() : history.getEntries();
+        boolean isPage = history.getLimit() > 0; // answers a request, even if empty
+        if (entries.isEmpty() && !isPage) {
+            return;
+        }
+        if (!entries.isEmpty()) {
+            System.out.println(TextFX.colorize(String.format("Earlier in %s:", history.getRoom()), Color.PURPLE));
+        }
+        for (HistoryPayload.Entry entry : entries) {
+            System.out.println(TextFX.colorize(String.format("%s: %s",
+                    entry.getClientName() == null ? "Room" : entry.getClientName(), entry.getMessage()), Color.BLUE));
+        }
+        // invoke onReceiveHistory / onReceiveHistoryPage callback
+        events.forEach(event -> {
+            if (event instanceof IMessageEvents) {
+                if (isPage) {
+                    ((IMessageEvents) event).onReceiveHistoryPage(history.getRoom(), entries,
+                            history.getBeforeSequence());
+                } else {
+                    ((IMessageEvents) event).onReceiveHistory(history.getRoom(), entries);
+                }
+            }
+        });
+    }
+
     private void processClientSync(long clientId, String clientName) {
 
         if (!knownClients.containsKey(clientId)) {
@@ -184,6 +184,29 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
         }
     }
 
+    @Override
+    public void onRoomMessage(long clientId, String message, long sequence) {
+        if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+            String clientName = Client.INSTANCE.getClientNameFromId(clientId);
+            chatPanel.addText(String.format("%s[%d]: %s", clientName, clientId, message), sequence);
+            chatPanel.getUserListPanel().highlightLastMessageSender(clientId);
+        }
+    }
+
+    @Override
+    public void onReceiveHistory(String room, List<HistoryPayload.Entry> entries) {
+        if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+            chatPanel.addHistory(entries);
+        }
+    }
+
+    @Override
+    public void onReceiveHistoryPage(String room, List<HistoryPayload.Entry> entries, long beforeSequence) {
+        if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+            chatPanel.addHistoryPage(room, entries, beforeSequence);
+        }
+    }
+
     @Override
     public void onUserMuteStatusChanged(long clientId, boolean isMuted) {
         if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
@@ -225,6 +248,12 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
         }
     }
 
+    @Override
+    public void onReceiveRoomPage(String query, List<String> rooms, String nextCursor, long totalCount,
+            boolean isTotalCapped) {
+        roomsPanel.addRoomPage(query, rooms, nextCursor, totalCount, isTotalCapped);
+    }
+
     @Override
     public void onRoomAction(long clientId, String clientName, String roomName, boolean isJoin) {
         LoggerUtil.INSTANCE.info("Current card: " + currentCard.name());
@@ -235,6 +264,9 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
                     isJoin ? "joined" : "left",
                     roomName == null ? "" : roomName);
             chatPanel.addText(message);
+            if (isMe && isJoin) {
+                chatPanel.setRoom(roomName); // before its history arrives
+            }
             if (isJoin) {
                 roomLabel.setText("Room: " + roomName);
                 chatPanel.addUserListItem(clientId, String.format("%s (%s)", clientName, clientId));
@@ -0,0 +1,475 @@
+package Project.Client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import Project.Client.Interfaces.IClientEvents;
+import Project.Client.Interfaces.IConnectionEvents;
+import Project.Client.Interfaces.IMessageEvents;
+import Project.Client.Interfaces.IRoomEvents;
+import Project.Common.ConnectionPayload;
+import Project.Common.FlipPayload;
+import Project.Common.FrameCodec;
+import Project.Common.HistoryPayload;
+import Project.Common.LoggerUtil;
+import Project.Common.MessagePayload;
+import Project.Common.Payload;
+import Project.Common.PayloadType;
+import Project.Common.PrivateMessagePayload;
+import Project.Common.RollPayload;
+import Project.Common.RoomResultsPayload;
+import Project.Common.WireFormat;
+
+/**
+ * A client connection without any UI, console or global state, so any number
+ * of them can run in one JVM (see LoadGenerator).
+ * <p>
+ * Speaks the same binary framed protocol as {@link Client} and reports what
+ * it receives through the same IClientEvents callbacks, but doesn't parse
+ * text commands: each action has its own send method. Received payloads are
+ * read on one virtual thread per connection; sends may come from any thread.
+ * </p>
+ */
+public class HeadlessClient implements AutoCloseable {
+    private final String clientName;
+    private final WireFormat wireFormat = WireFormat.BINARY_FRAMES;
+    private Socket server;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private volatile boolean isRunning = false;
+    private volatile long clientId = ClientData.DEFAULT_CLIENT_ID;
+    private volatile String roomName = null;
+    private final ConcurrentHashMap<Long, String> knownClients = new ConcurrentHashMap<>();
+    private final List<IClientEvents> events = new CopyOnWriteArrayList<>();
+    private final ReentrantLock sendLock = new ReentrantLock();
+    // signalled whenever clientId or roomName changes (see the await methods)
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private final Condition stateChanged = stateLock.newCondition();
+
+    public HeadlessClient(String clientName) {
+        this.clientName = clientName;
+    }
+
+    public void addCallback(IClientEvents e) {
+        events.add(e);
+    }
+
+    /**
+     * Opens the socket, announces the wire format and client name, and starts
+     * reading. The server assigns the id asynchronously; see
+     * {@link #awaitClientId(long, TimeUnit)}.
+     *
+     * @param address
+     * @param port
+     * @throws IOException
+     */
+    public void connect(String address, int port) throws IOException {
+        server = new Socket(address, port);
+        server.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(server.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(server.getInputStream()));
+        isRunning = true;
+        if (wireFormat.hasHandshake()) {
+            out.writeByte(WireFormat.HANDSHAKE_BINARY);
+        }
+        ConnectionPayload cp = new ConnectionPayload();
+        cp.setClientName(clientName);
+        send(cp);
+        Thread.ofVirtual().name("headless-" + clientName).start(this::listenToServer);
+    }
+
+    public boolean isConnected() {
+        return isRunning && server != null && !server.isClosed();
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    /**
+     * @return the server-given id, or ClientData.DEFAULT_CLIENT_ID until it
+     *         arrives
+     */
+    public long getClientId() {
+        return clientId;
+    }
+
+    /**
+     * @return the room this client is in, or null before the first join
+     */
+    public String getRoomName() {
+        return roomName;
+    }
+
+    /**
+     * @return read-only live view of the other clients in the current room (id
+     *         to name)
+     */
+    public Map<Long, String> getKnownClients() {
+        return Collections.unmodifiableMap(knownClients);
+    }
+
+    /**
+     * Waits for the server to assign this client's id
+     *
+     * @param timeout
+     * @param unit
+     * @return true if the id arrived in time
+     * @throws InterruptedException
+     */
+    public boolean awaitClientId(long timeout, TimeUnit unit) throws InterruptedException {
+        return awaitState(() -> clientId != ClientData.DEFAULT_CLIENT_ID, timeout, unit);
+    }
+
+    /**
+     * Waits until the server has put this client in the given room
+     *
+     * @param room
+     * @param timeout
+     * @param unit
+     * @return true if the join arrived in time
+     * @throws InterruptedException
+     */
+    public boolean awaitRoom(String room, long timeout, TimeUnit unit) throws InterruptedException {
+        return awaitState(() -> room.equalsIgnoreCase(roomName), timeout, unit);
+    }
+
+    private boolean awaitState(BooleanSupplier condition, long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        stateLock.lock();
+        try {
+            while (!condition.getAsBoolean()) {
+                if (remaining <= 0 || !isRunning) {
+                    return false;
+                }
+                remaining = stateChanged.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private void signalStateChanged() {
+        stateLock.lock();
+        try {
+            stateChanged.signalAll();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    // send methods to pass data to the ServerThread
+
+    public void sendMessage(String message) throws IOException {
+        Payload payload = new Payload();
+        payload.setPayloadType(PayloadType.MESSAGE);
+        payload.setClientId(clientId);
+        payload.setMessage(message);
+        send(payload);
+    }
+
+    public void sendPrivateMessage(long targetId, String message) throws IOException {
+        send(new PrivateMessagePayload(targetId, message));
+    }
+
+    public void sendRoll(int numberOfRolls, int diceSides) throws IOException {
+        send(new RollPayload(numberOfRolls, diceSides));
+    }
+
+    public void sendFlip() throws IOException {
+        send(new FlipPayload());
+    }
+
+    public void sendMute(long targetClientId, boolean isMute) throws IOException {
+        Payload payload = new Payload();
+        payload.setPayloadType(isMute ? PayloadType.MUTE : PayloadType.UNMUTE);
+        payload.setClientId(targetClientId);
+        send(payload);
+    }
+
+    public void sendCreateRoom(String room) throws IOException {
+        sendRoomPayload(PayloadType.ROOM_CREATE, room);
+    }
+
+    public void sendJoinRoom(String room) throws IOException {
+        sendRoomPayload(PayloadType.ROOM_JOIN, room);
+    }
+
+    public void sendListRooms(String roomQuery) throws IOException {
+        sendListRooms(roomQuery, null);
+    }
+
+    /**
+     * Asks for one page of a room search
+     *
+     * @param roomQuery
+     * @param cursor    null for the first page, otherwise the previous page's
+     *                  nextCursor
+     * @throws IOException
+     */
+    public void sendListRooms(String roomQuery, String cursor) throws IOException {
+        RoomResultsPayload p = new RoomResultsPayload();
+        p.setMessage(roomQuery);
+        p.setCursor(cursor);
+        p.setPageSize(Client.ROOM_PAGE_SIZE);
+        send(p);
+    }
+
+    private void sendRoomPayload(PayloadType type, String value) throws IOException {
+        Payload p = new Payload();
+        p.setPayloadType(type);
+        p.setMessage(value);
+        send(p);
+    }
+
+    /**
+     * Generic send that passes any Payload over the socket (to ServerThread)
+     *
+     * @param p
+     * @throws IOException
+     */
+    private void send(Payload p) throws IOException {
+        sendLock.lock();
+        try {
+            FrameCodec.write(out, p, wireFormat);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+    // end send methods
+
+    /**
+     * Tells the server we're leaving (best effort), then closes the socket
+     */
+    @Override
+    public void close() {
+        if (!isRunning) {
+            return;
+        }
+        try {
+            Payload p = new Payload();
+            p.setPayloadType(PayloadType.DISCONNECT);
+            send(p);
+        } catch (IOException e) {
+            // already gone
+        }
+        closeServerConnection();
+    }
+
+    private void closeServerConnection() {
+        isRunning = false;
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.fine("Error closing socket for %s", clientName);
+        }
+        signalStateChanged(); // wake any waiters so they see !isRunning
+    }
+
+    private void listenToServer() {
+        try {
+            while (isRunning) {
+                Payload fromServer = FrameCodec.read(in, wireFormat); // blocking read
+                if (fromServer == null) {
+                    break;
+                }
+                processPayload(fromServer);
+            }
+        } catch (ClassCastException | ClassNotFoundException e) {
+            LoggerUtil.INSTANCE.severe("Error reading payload for " + clientName, e);
+        } catch (IOException e) {
+            if (isRunning) {
+                LoggerUtil.INSTANCE.fine(() -> "Connection dropped for " + clientName);
+            }
+        } finally {
+            closeServerConnection();
+        }
+    }
+
+    /**
+     * Handles received payloads the same way Client does, minus the console
+     * output
+     *
+     * @param payload
+     */
+    private void processPayload(Payload payload) {
+        try {
+            switch (payload.getPayloadType()) {
+                case CLIENT_ID: // get id assigned
+                    ConnectionPayload cp = (ConnectionPayload) payload;
+                    processClientData(cp.getClientId());
+                    break;
+                case SYNC_CLIENT: // silent add
+                    cp = (ConnectionPayload) payload;
+                    processClientSync(cp.getClientId(), cp.getClientName());
+                    break;
+                case DISCONNECT:
+                    cp = (ConnectionPayload) payload;
+                    processDisconnect(cp.getClientId(), cp.getClientName());
+                    // a disconnect is also leaving the room
+                    processRoomAction(cp.getClientId(), cp.getClientName(), cp.getMessage(), cp.isConnect());
+                    break;
+                case ROOM_JOIN:
+                    cp = (ConnectionPayload) payload;
+                    processRoomAction(cp.getClientId(), cp.getClientName(), cp.getMessage(), cp.isConnect());
+                    break;
+                case ROOM_LIST:
+                    processRoomsList((RoomResultsPayload) payload);
+                    break;
+                case MESSAGE:
+                    if (payload instanceof MessagePayload) {
+                        processRoomMessage((MessagePayload) payload);
+                    } else {
+                        processMessage(payload.getClientId(), payload.getMessage());
+                    }
+                    break;
+                case MUTE_UNMUTE_NOTIFICATION:
+                    processMessage(payload.getClientId(), payload.getMessage());
+                    break;
+                case HISTORY:
+                    processHistory((HistoryPayload) payload);
+                    break;
+                case MUTE:
+                    processMuteUnmute(payload.getClientId(), true);
+                    break;
+                case UNMUTE:
+                    processMuteUnmute(payload.getClientId(), false);
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            LoggerUtil.INSTANCE.severe("Could not process Payload: " + payload, e);
+        }
+    }
+
+    // payload processors
+
+    private void processClientData(long id) {
+        if (clientId != ClientData.DEFAULT_CLIENT_ID) {
+            return;
+        }
+        clientId = id;
+        signalStateChanged();
+        events.forEach(event -> {
+            if (event instanceof IConnectionEvents) {
+                ((IConnectionEvents) event).onReceiveClientId(id);
+            }
+        });
+    }
+
+    private void processClientSync(long id, String name) {
+        if (knownClients.putIfAbsent(id, name) == null) {
+            events.forEach(event -> {
+                if (event instanceof IConnectionEvents) {
+                    ((IConnectionEvents) event).onSyncClient(id, name);
+                }
+            });
+        }
+    }
+
+    private void processDisconnect(long id, String name) {
+        events.forEach(event -> {
+            if (event instanceof IConnectionEvents) {
+                ((IConnectionEvents) event).onClientDisconnect(id, name);
+            }
+        });
+        if (id == clientId) {
+            closeServerConnection();
+        }
+    }
+
+    private void processRoomsList(RoomResultsPayload page) {
+        events.forEach(event -> {
+            if (event instanceof IRoomEvents) {
+                ((IRoomEvents) event).onReceiveRoomPage(page.getQuery(), page.getRooms(), page.getCursor(),
+                        page.getTotalCount(), page.isTotalCapped());
+            }
+        });
+    }
+
+    private void processMessage(long id, String message) {
+        events.forEach(event -> {
+            if (event instanceof IMessageEvents) {
+                ((IMessageEvents) event).onMessageReceive(id, message);
+            }
+        });
+    }
+
+    private void processRoomMessage(MessagePayload payload) {
+        events.forEach(event -> {
+            if (event instanceof IMessageEvents) {
+                ((IMessageEvents) event).onRoomMessage(payload.getClientId(), payload.getMessage(),
+                        payload.getSequence());
+            }
+        });
+    }
+
+    private void processHistory(HistoryPayload history) {
+        List<HistoryPayload.Entry> entries = history.getEntries() == null ? List.of() : history.getEntries();
+        boolean isPage = history.getLimit() > 0; // answers a request, even if empty
+        if (entries.isEmpty() && !isPage) {
+            return;
+        }
+        events.forEach(event -> {
+            if (event instanceof IMessageEvents) {
+                if (isPage) {
+                    ((IMessageEvents) event).onReceiveHistoryPage(history.getRoom(), entries,
+                            history.getBeforeSequence());
+                } else {
+                    ((IMessageEvents) event).onReceiveHistory(history.getRoom(), entries);
+                }
+            }
+        });
+    }
+
+    private void processMuteUnmute(long id, boolean isMuted) {
+        events.forEach(event -> {
+            if (event instanceof IConnectionEvents) {
+                ((IConnectionEvents) event).onUserMuteStatusChanged(id, isMuted);
+            }
+        });
+    }
+
+    private void processRoomAction(long id, String name, String room, boolean isJoin) {
+        if (id == clientId) {
+            if (isJoin) {
+                roomName = room;
+                signalStateChanged();
+            } else {
+                knownClients.clear();
+                events.forEach(event -> {
+                    if (event instanceof IConnectionEvents) {
+                        ((IConnectionEvents) event).onResetUserList();
+                    }
+                });
+            }
+        } else if (isJoin) {
+            knownClients.put(id, name);
+        } else {
+            knownClients.remove(id);
+        }
+        events.forEach(event -> {
+            if (event instanceof IRoomEvents) {
+                ((IRoomEvents) event).onRoomAction(id, name, room, isJoin);
+            }
+        });
+    }
+    // end payload processors
+}
@@ -1,5 +1,9 @@
 package Project.Client.Interfaces;
 
+import java.util.List;
+
+import Project.Common.HistoryPayload;
+
 /**
  * Interface for handling message events.
  */
@@ -11,4 +15,44 @@ public interface IMessageEvents extends IClientEvents {
      * @param message The message.
      */
     void onMessageReceive(long id, String message);
+
+    /**
+     * Triggered when a message broadcast in the current room is received.
+     * Listeners that don't need its number get it as a received message.
+     *
+     * @param id       The client ID.
+     * @param message  The message.
+     * @param sequence Its number within the room, for paging back from.
+     */
+    default void onRoomMessage(long id, String message, long sequence) {
+        onMessageReceive(id, message);
+    }
+
+    /**
+     * Triggered with a room's earlier messages, sent when joining it.
+     * Listeners that don't show history differently get each as a received
+     * message.
+     *
+     * @param room    The room they were sent in.
+     * @param entries The messages, oldest first.
+     */
+    default void onReceiveHistory(String room, List<HistoryPayload.Entry> entries) {
+        for (HistoryPayload.Entry entry : entries) {
+            onMessageReceive(entry.getClientId(), entry.getMessage());
+        }
+    }
+
+    /**
+     * Triggered with a page of older messages asked for with
+     * Client.sendHistoryRequest(). Listeners that don't page get them like
+     * the messages sent on join.
+     *
+     * @param room           The room they were sent in.
+     * @param entries        The messages, oldest first; may be empty.
+     * @param beforeSequence Where the next older page ends, 0 if there's
+     *                       nothing older.
+     */
+    default void onReceiveHistoryPage(String room, List<HistoryPayload.Entry> entries, long beforeSequence) {
+        onReceiveHistory(room, entries);
+    }
 }
@@ -15,6 +15,24 @@ public interface IRoomEvents extends IClientEvents {
      */
     void onReceiveRoomList(List<String> rooms, String message);
 
+    /**
+     * Received one page of a room search. Listeners that don't page get it as
+     * a whole list.
+     *
+     * @param query         The query the rooms match.
+     * @param rooms         This page's rooms.
+     * @param nextCursor    Pass to Client.sendListRooms(query, cursor) for the
+     *                      next page; null if this is the last one.
+     * @param totalCount    Rooms matching in total; only counted on the first
+     *                      page, -1 on later ones.
+     * @param isTotalCapped True if the server stopped counting and more than
+     *                      totalCount rooms match.
+     */
+    default void onReceiveRoomPage(String query, List<String> rooms, String nextCursor, long totalCount,
+            boolean isTotalCapped) {
+        onReceiveRoomList(rooms, null);
+    }
+
     /**
      * Receives the room name when the client is added to the room.
      *
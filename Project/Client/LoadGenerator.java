@@ -0,0 +1,507 @@
+package Project.Client;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import Project.Client.Interfaces.IMessageEvents;
+import Project.Common.Histogram;
+import Project.Common.HistoryPayload;
+import Project.Common.LoggerUtil;
+import Project.Server.Server;
+
+/**
+ * Load test driver: opens many simulated users (HeadlessClients) in one JVM,
+ * spreads them over rooms and has each send at a fixed rate with a weighted
+ * mix of commands, then reports throughput and end-to-end latency.
+ * <p>
+ * Chat and private messages carry the time they were scheduled to be sent;
+ * every recipient records now minus that time. Using the scheduled rather
+ * than the actual send time means a sender held up by a slow server is
+ * charged for the wait too. Only works because sender and receivers share
+ * one clock, i.e. one JVM. Rolls and flips come back as server-generated text
+ * and are counted but not timed.
+ * </p>
+ * <p>
+ * With {@code local=<mode>} the Server is started in this JVM first (its
+ * logging then goes to loadgen.log). Note that /mute makes the server
+ * append to its mute store, mutes.log in its working directory unless
+ * server.mutes.file says otherwise.
+ * </p>
+ *
+ * <pre>
+ * java Project.Client.LoadGenerator [key=value ...]
+ *   users=200 rooms=10 rate=1 size=64 duration=30 ramp=50
+ *   mix=message:90,roll:3,flip:3,pm:3,mute:1
+ *   host=localhost port=3000 local=none|thread_per_client|virtual_thread|nio
+ *   log=WARNING
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final String MARKER = "lg|"; // no markup characters, so the server relays it as-is
+    private static final String ROOM_PREFIX = "load-";
+
+    /**
+     * What a simulated user does on each tick
+     */
+    private enum Command {
+        MESSAGE, ROLL, FLIP, PM, MUTE
+    }
+
+    /**
+     * Settings parsed from key=value arguments
+     */
+    private static class Config {
+        int users = 200;
+        int rooms = 10; // 0 keeps everyone in the lobby
+        double rate = 1; // commands per second per user
+        int size = 64; // chat message length in chars
+        int durationSeconds = 30;
+        int ramp = 50; // connections in flight while ramping up
+        String host = "localhost";
+        int port = 3000;
+        String local = "none";
+        Level logLevel = Level.WARNING;
+        final EnumMap<Command, Integer> mix = new EnumMap<>(Command.class);
+
+        Config() {
+            parseMix("message:90,roll:3,flip:3,pm:3,mute:1");
+        }
+
+        static Config parse(String[] args) {
+            Config config = new Config();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) {
+                    throw new IllegalArgumentException("Expected key=value, got " + arg);
+                }
+                String key = arg.substring(0, eq).toLowerCase(Locale.ROOT);
+                String value = arg.substring(eq + 1);
+                switch (key) {
+                    case "users":
+                        config.users = Integer.parseInt(value);
+                        break;
+                    case "rooms":
+                        config.rooms = Integer.parseInt(value);
+                        break;
+                    case "rate":
+                        config.rate = Double.parseDouble(value);
+                        break;
+                    case "size":
+                        config.size = Integer.parseInt(value);
+                        break;
+                    case "duration":
+                        config.durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "ramp":
+                        config.ramp = Integer.parseInt(value);
+                        break;
+                    case "mix":
+                        config.parseMix(value);
+                        break;
+                    case "host":
+                        config.host = value;
+                        break;
+                    case "port":
+                        config.port = Integer.parseInt(value);
+                        break;
+                    case "local":
+                        config.local = value;
+                        break;
+                    case "log":
+                        config.logLevel = Level.parse(value.toUpperCase(Locale.ROOT));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown setting " + key);
+                }
+            }
+            if (config.users <= 0 || config.rate <= 0 || config.ramp <= 0 || config.rooms < 0) {
+                throw new IllegalArgumentException("users, rate and ramp must be positive, rooms not negative");
+            }
+            return config;
+        }
+
+        void parseMix(String value) {
+            mix.clear();
+            for (String part : value.split(",")) {
+                String[] kv = part.split(":");
+                mix.put(Command.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(kv[1].trim()));
+            }
+            if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+                throw new IllegalArgumentException("mix needs at least one positive weight");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("users=%s rooms=%s rate=%s/s size=%s duration=%ss mix=%s target=%s:%s local=%s",
+                    users, rooms, rate, size, durationSeconds, mix, host, port, local);
+        }
+    }
+
+    /**
+     * One simulated user: a HeadlessClient plus its send loop
+     */
+    private class SimulatedUser implements IMessageEvents {
+        private final HeadlessClient client;
+        private final String room;
+        private long mutedId = ClientData.DEFAULT_CLIENT_ID;
+
+        SimulatedUser(int index) {
+            this.client = new HeadlessClient("load-user-" + index);
+            this.room = config.rooms == 0 ? null : ROOM_PREFIX + (index % config.rooms);
+            client.addCallback(this);
+        }
+
+        /**
+         * Connects and moves into this user's room; creating it when asked to
+         * (or when joining finds it missing)
+         *
+         * @return true when the user is connected and in its room
+         */
+        boolean start(boolean create) throws IOException, InterruptedException {
+            client.connect(config.host, config.port);
+            if (!client.awaitClientId(10, TimeUnit.SECONDS)) {
+                return false;
+            }
+            if (room == null) {
+                return true;
+            }
+            if (create) {
+                client.sendCreateRoom(room);
+                if (client.awaitRoom(room, 2, TimeUnit.SECONDS)) {
+                    return true;
+                }
+                // most likely left over from an earlier run against the same server
+            }
+            client.sendJoinRoom(room);
+            return client.awaitRoom(room, 10, TimeUnit.SECONDS);
+        }
+
+        void sendLoop(long start, long intervalNanos) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long next = start + random.nextLong(intervalNanos); // spread users over the interval
+            try {
+                while (isRunning && client.isConnected()) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    if (!isRunning) {
+                        break;
+                    }
+                    perform(pickCommand(random), next, random);
+                    next += intervalNanos;
+                }
+            } catch (IOException e) {
+                errors.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void perform(Command command, long scheduledNanos, ThreadLocalRandom random) throws IOException {
+            long target = command == Command.PM || command == Command.MUTE ? randomRoommate(random)
+                    : ClientData.DEFAULT_CLIENT_ID;
+            if (target == ClientData.DEFAULT_CLIENT_ID && (command == Command.PM
+                    || (command == Command.MUTE && mutedId == ClientData.DEFAULT_CLIENT_ID))) {
+                command = Command.MESSAGE; // alone in the room
+            }
+            switch (command) {
+                case MESSAGE:
+                    client.sendMessage(body(scheduledNanos));
+                    break;
+                case PM:
+                    client.sendPrivateMessage(target, body(scheduledNanos));
+                    break;
+                case ROLL:
+                    client.sendRoll(1 + random.nextInt(3), 20);
+                    break;
+                case FLIP:
+                    client.sendFlip();
+                    break;
+                case MUTE:
+                    // alternate mute/unmute so muting doesn't pile up and silence the room
+                    if (mutedId == ClientData.DEFAULT_CLIENT_ID) {
+                        client.sendMute(target, true);
+                        mutedId = target;
+                    } else {
+                        client.sendMute(mutedId, false);
+                        mutedId = ClientData.DEFAULT_CLIENT_ID;
+                    }
+                    break;
+            }
+            sent.get(command).increment();
+        }
+
+        private long randomRoommate(ThreadLocalRandom random) {
+            Map<Long, String> known = client.getKnownClients();
+            int size = known.size();
+            if (size == 0) {
+                return ClientData.DEFAULT_CLIENT_ID;
+            }
+            Iterator<Long> ids = known.keySet().iterator();
+            long id = ClientData.DEFAULT_CLIENT_ID;
+            for (int skip = random.nextInt(size); skip >= 0 && ids.hasNext(); skip--) {
+                id = ids.next();
+            }
+            return id;
+        }
+
+        @Override
+        public void onMessageReceive(long id, String message) {
+            int at = message == null ? -1 : message.indexOf(MARKER);
+            if (at < 0) {
+                return;
+            }
+            int from = at + MARKER.length();
+            int end = message.indexOf('|', from);
+            if (end < 0) {
+                return;
+            }
+            long scheduled;
+            try {
+                scheduled = Long.parseLong(message, from, end, 10);
+            } catch (NumberFormatException e) {
+                return;
+            }
+            latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled));
+            delivered.increment();
+        }
+
+        @Override
+        public void onReceiveHistory(String room, List<HistoryPayload.Entry> entries) {
+            // replayed on join, from earlier in this run or an earlier one; not a delivery to time
+        }
+
+        @Override
+        public void onReceiveHistoryPage(String room, List<HistoryPayload.Entry> entries, long beforeSequence) {
+            // never asked for, but the same goes for pages
+        }
+    }
+
+    private final Config config;
+    private final List<SimulatedUser> users = new ArrayList<>();
+    private final EnumMap<Command, LongAdder> sent = new EnumMap<>(Command.class);
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Histogram latency = new Histogram(); // microseconds
+    private final int[] cumulativeWeights;
+    private final String padding;
+    private volatile boolean isRunning = true;
+
+    private LoadGenerator(Config config) {
+        this.config = config;
+        for (Command command : Command.values()) {
+            sent.put(command, new LongAdder());
+        }
+        cumulativeWeights = new int[Command.values().length];
+        int sum = 0;
+        for (Command command : Command.values()) {
+            sum += config.mix.getOrDefault(command, 0);
+            cumulativeWeights[command.ordinal()] = sum;
+        }
+        padding = "x".repeat(Math.max(0, config.size));
+    }
+
+    private Command pickCommand(ThreadLocalRandom random) {
+        int roll = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (Command command : Command.values()) {
+            if (roll < cumulativeWeights[command.ordinal()]) {
+                return command;
+            }
+        }
+        return Command.MESSAGE;
+    }
+
+    private String body(long scheduledNanos) {
+        String header = MARKER + scheduledNanos + "|";
+        return header + padding.substring(0, Math.max(0, Math.min(padding.length(), config.size - header.length())));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config;
+        try {
+            config = Config.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("usage: java Project.Client.LoadGenerator [users=N] [rooms=N] [rate=per-user/s] "
+                    + "[size=chars] [duration=s] [ramp=N] [mix=message:90,roll:3,flip:3,pm:3,mute:1] "
+                    + "[host=H] [port=P] [local=none|thread_per_client|virtual_thread|nio] [log=LEVEL]");
+            System.exit(2);
+            return;
+        }
+
+        // configured before Server is touched so a local server logs here too, and quietly
+        LoggerUtil.LoggerConfig logConfig = new LoggerUtil.LoggerConfig();
+        logConfig.setLogLocation("loadgen.log");
+        logConfig.setFileSizeLimit(16 * 1024 * 1024);
+        logConfig.setFileCount(1);
+        logConfig.setFileLogLevel(config.logLevel);
+        logConfig.setConsoleLogLevel(Level.OFF);
+        logConfig.setAsync(true);
+        LoggerUtil.INSTANCE.setConfig(logConfig);
+
+        if (!"none".equalsIgnoreCase(config.local)) {
+            Thread.ofPlatform().name("local-server").daemon(true)
+                    .start(() -> Server.main(new String[] { String.valueOf(config.port), config.local }));
+        }
+        new LoadGenerator(config).run();
+        System.exit(0); // a local server never returns on its own
+    }
+
+    private void run() throws InterruptedException {
+        System.out.println(config);
+        if (!rampUp()) {
+            return;
+        }
+
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / config.rate);
+        long start = System.nanoTime();
+        List<Thread> senders = new ArrayList<>(users.size());
+        for (SimulatedUser user : users) {
+            senders.add(Thread.ofVirtual().start(() -> user.sendLoop(start, intervalNanos)));
+        }
+
+        long lastSent = 0;
+        long lastDelivered = 0;
+        for (int second = 1; second <= config.durationSeconds; second++) {
+            Thread.sleep(1000);
+            long sentNow = totalSent();
+            long deliveredNow = delivered.sum();
+            System.out.println(String.format("t=%3ss  sent %8s/s  delivered %9s/s  p99 %8.2fms  errors %s", second,
+                    sentNow - lastSent, deliveredNow - lastDelivered, latency.getValueAtPercentile(99) / 1000.0,
+                    errors.sum()));
+            lastSent = sentNow;
+            lastDelivered = deliveredNow;
+        }
+        long elapsed = System.nanoTime() - start;
+        isRunning = false;
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        Thread.sleep(1000); // let in-flight messages arrive
+        report(elapsed);
+        for (SimulatedUser user : users) {
+            user.client.close();
+        }
+    }
+
+    /**
+     * Connects every user: each room's first member creates it (one at a
+     * time, so joiners never race the creation), then everyone else joins in
+     * parallel, at most config.ramp at once
+     *
+     * @return false if the server couldn't be reached at all
+     */
+    private boolean rampUp() throws InterruptedException {
+        long rampStart = System.nanoTime();
+        for (int i = 0; i < config.users; i++) {
+            users.add(new SimulatedUser(i));
+        }
+        if (!awaitServer()) {
+            System.out.println(String.format("Couldn't connect to %s:%s", config.host, config.port));
+            return false;
+        }
+        int creators = Math.min(config.rooms, users.size());
+        LongAdder failed = new LongAdder();
+        for (int i = 0; i < creators; i++) {
+            startUser(users.get(i), true, failed);
+        }
+        Semaphore inFlight = new Semaphore(config.ramp);
+        CountDownLatch done = new CountDownLatch(users.size() - creators);
+        for (int i = creators; i < users.size(); i++) {
+            SimulatedUser user = users.get(i);
+            inFlight.acquire();
+            Thread.ofVirtual().start(() -> {
+                try {
+                    startUser(user, false, failed);
+                } finally {
+                    inFlight.release();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        users.removeIf(user -> !user.client.isConnected() || (user.room != null
+                && !user.room.equalsIgnoreCase(user.client.getRoomName())));
+        System.out.println(String.format("ramp-up: %s/%s users ready in %.1fs (%s failed)", users.size(),
+                config.users, (System.nanoTime() - rampStart) / 1e9, failed.sum()));
+        return !users.isEmpty();
+    }
+
+    private void startUser(SimulatedUser user, boolean create, LongAdder failed) {
+        try {
+            if (!user.start(create)) {
+                failed.increment();
+            }
+        } catch (IOException e) {
+            failed.increment();
+            LoggerUtil.INSTANCE.warning("Failed to start " + user.client.getClientName(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.increment();
+        }
+    }
+
+    /**
+     * Waits (up to 10s) for the server to accept connections; mainly for a
+     * local server that's still starting. Uses the first user, which then
+     * stays connected.
+     */
+    private boolean awaitServer() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try {
+                users.get(0).client.connect(config.host, config.port);
+                users.get(0).client.close();
+                users.set(0, new SimulatedUser(0));
+                return true;
+            } catch (ConnectException e) {
+                if (System.nanoTime() > deadline) {
+                    return false;
+                }
+                Thread.sleep(100);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private long totalSent() {
+        long total = 0;
+        for (LongAdder count : sent.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder commands = new StringBuilder();
+        for (Map.Entry<Command, LongAdder> entry : sent.entrySet()) {
+            commands.append(String.format("%s=%s ", entry.getKey().name().toLowerCase(Locale.ROOT),
+                    entry.getValue().sum()));
+        }
+        System.out.println("---");
+        System.out.println(String.format("sent       %s (%.0f/s)  %s", totalSent(), totalSent() / seconds,
+                commands.toString().trim()));
+        System.out.println(String.format("delivered  %s timed messages (%.0f/s), %s errors", delivered.sum(),
+                delivered.sum() / seconds, errors.sum()));
+        System.out.println(String.format(
+                "latency ms p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f  (%s samples)",
+                latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(90) / 1000.0,
+                latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0, latency.getMax() / 1000.0, latency.getCount()));
+    }
+}
@@ -17,11 +17,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JComponent;
 import javax.swing.JEditorPane;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -35,17 +37,37 @@ import javax.swing.border.EmptyBorder;
 import Project.Client.CardView;
 import Project.Client.Client;
 import Project.Client.Interfaces.ICardControls;
+import Project.Common.HistoryPayload;
 import Project.Common.LoggerUtil;
 
 /**
  * ChatPanel represents the main chat interface where messages can be sent and
  * received.
+ * <p>
+ * Only the newest MAX_ROWS messages are kept while new ones come in. Rows
+ * for messages of the current room remember their number in it, so when the
+ * chat is scrolled to the top the page before the oldest one shown is asked
+ * for and inserted above. Paging back keeps MAX_ROWS too, by dropping the
+ * newest rows, out of view at the bottom; the next message of the room then
+ * starts the chat over from it rather than leave a gap.
+ * </p>
  */
 // yh68 7/22/24
 public class ChatPanel extends JPanel {
     private JPanel chatArea = null;
+    private JScrollPane chatScroll;
     private UserListPanel userListPanel;
     private final float CHAT_SPLIT_PERCENT = 0.7f;
+    private static final int MAX_ROWS = 300;
+    private static final String ROW_ROOM = "room"; // client properties of rows for room messages
+    private static final String ROW_SEQUENCE = "sequence";
+
+    // paging back through the current room; only used on the event dispatch thread
+    private String room = null;
+    private long pageBeforeSequence = 0; // where the next older page ends, 0 = newest
+    private boolean hasOlder = true;
+    private boolean hasNewer = false; // newest rows were dropped for older pages
+    private boolean isLoadingOlder = false;
 
     private JTextField textValue;
     private JButton button;
@@ -69,6 +91,13 @@ public class ChatPanel extends JPanel {
         scroll.setBorder(BorderFactory.createEmptyBorder());
     
         chatArea = chatContent;
+        chatScroll = scroll;
+        // at the top (or while there's too little to scroll), fetch the page before what's shown
+        scroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting() && e.getValue() == e.getAdjustable().getMinimum()) {
+                loadOlder();
+            }
+        });
     
         userListPanel = new UserListPanel();
     
@@ -198,6 +227,22 @@ public class ChatPanel extends JPanel {
         SwingUtilities.invokeLater(() -> userListPanel.clearUserList());
     }
 
+    /**
+     * Sets the room messages are paged back through once the client joined
+     * it.
+     * 
+     * @param room The room's name.
+     */
+    public void setRoom(String room) {
+        SwingUtilities.invokeLater(() -> {
+            this.room = room;
+            pageBeforeSequence = 0;
+            hasOlder = true;
+            hasNewer = false;
+            isLoadingOlder = false;
+        });
+    }
+
     /**
      * Adds a message to the chat area.
      * 
@@ -205,20 +250,21 @@ public class ChatPanel extends JPanel {
      */
     // yh68 7/22/24
     public void addText(String text) {
+        addText(text, 0);
+    }
+
+    /**
+     * Adds a message of the current room to the chat area.
+     * 
+     * @param text     The text of the message.
+     * @param sequence Its number in the room, 0 if it has none.
+     */
+    public void addText(String text, long sequence) {
         SwingUtilities.invokeLater(() -> {
-            JEditorPane textContainer = new JEditorPane("text/html", text); // Change to "text/html"
-            textContainer.setEditable(false);
-            textContainer.setBorder(BorderFactory.createEmptyBorder());
-            textContainer.setOpaque(false);
-            textContainer.setBackground(new Color(0, 0, 0, 0));
-
-            // GridBagConstraints settings for each message
-            GridBagConstraints gbc = new GridBagConstraints();
-            gbc.gridx = 0; // Column index 0
-            gbc.gridy = GridBagConstraints.RELATIVE; // Automatically move to the next row
-            gbc.weightx = 1; // Let the component grow horizontally to fill the space
-            gbc.fill = GridBagConstraints.HORIZONTAL; // Fill horizontally
-            gbc.insets = new Insets(0, 0, 5, 0); // Add spacing between messages
+            if (sequence > 0 && hasNewer) {
+                startOver();
+            }
+            JEditorPane textContainer = createRow(text, sequence);
 
             long clientId = extractClientIdFromMessage(text);
             if (clientId != -1) {
@@ -227,7 +273,11 @@ public class ChatPanel extends JPanel {
             } else {
                 LoggerUtil.INSTANCE.warning("Client ID extraction failed for message: " + text);
             }
-            chatArea.add(textContainer, gbc);
+            chatArea.add(textContainer, rowConstraints());
+            if (sequence > 0 && (pageBeforeSequence == 0 || sequence < pageBeforeSequence)) {
+                pageBeforeSequence = sequence;
+            }
+            dropOldestRows();
             chatArea.revalidate();
             chatArea.repaint();
 
@@ -242,6 +292,163 @@ public class ChatPanel extends JPanel {
         });
     }
 
+    /**
+     * Adds a room's earlier messages, oldest first, as sent on joining it.
+     * 
+     * @param entries The messages.
+     */
+    public void addHistory(List<HistoryPayload.Entry> entries) {
+        for (HistoryPayload.Entry entry : entries) {
+            addText(formatEntry(entry), entry.getSequence());
+        }
+    }
+
+    /**
+     * Inserts a page of older messages asked for by scrolling to the top,
+     * keeping the view on what was shown.
+     * 
+     * @param pageRoom       The room they were sent in.
+     * @param entries        The messages, oldest first.
+     * @param beforeSequence Where the next older page ends, 0 if there's
+     *                       nothing older.
+     */
+    public void addHistoryPage(String pageRoom, List<HistoryPayload.Entry> entries, long beforeSequence) {
+        SwingUtilities.invokeLater(() -> {
+            if (room == null || !room.equalsIgnoreCase(pageRoom)) {
+                return; // left the room since asking
+            }
+            isLoadingOlder = false;
+            hasOlder = beforeSequence > 0;
+            JScrollBar vertical = chatScroll.getVerticalScrollBar();
+            // the row that was on top stays where it was on screen
+            Component anchor = chatArea.getComponentCount() > 1 ? chatArea.getComponent(1) : null;
+            int anchorY = anchor == null ? 0 : anchor.getY();
+            int value = vertical.getValue();
+            int at = 1; // after the glue
+            for (HistoryPayload.Entry entry : entries) {
+                // a newest page asked for before any message arrived may overlap what came in since
+                if (pageBeforeSequence == 0 || entry.getSequence() < pageBeforeSequence) {
+                    chatArea.add(createRow(formatEntry(entry), entry.getSequence()), rowConstraints(), at++);
+                }
+            }
+            if (beforeSequence > 0) {
+                pageBeforeSequence = beforeSequence;
+            } else if (at > 1) {
+                pageBeforeSequence = entries.get(0).getSequence();
+            }
+            if (at == 1) {
+                // nothing to show (all muted, say), so the view won't move to ask again
+                SwingUtilities.invokeLater(this::loadOlder);
+                return;
+            }
+            dropNewestRows();
+            chatArea.revalidate();
+            chatArea.repaint();
+            if (anchor != null && anchor.getParent() == chatArea) {
+                SwingUtilities.invokeLater(() -> vertical.setValue(value + anchor.getY() - anchorY));
+            }
+        });
+    }
+
+    private void loadOlder() {
+        if (room == null || !hasOlder || isLoadingOlder) {
+            return;
+        }
+        isLoadingOlder = true;
+        try {
+            Client.INSTANCE.sendHistoryRequest(room, pageBeforeSequence);
+        } catch (IOException e) {
+            isLoadingOlder = false;
+            LoggerUtil.INSTANCE.severe("Error requesting older messages", e);
+        }
+    }
+
+    /**
+     * Drops the oldest rows past MAX_ROWS; paging back starts again from the
+     * oldest current-room row left
+     */
+    private void dropOldestRows() {
+        boolean droppedRoomRow = false;
+        long lastDropped = 0;
+        while (chatArea.getComponentCount() - 1 > MAX_ROWS) {
+            JComponent row = (JComponent) chatArea.getComponent(1); // 0 is the glue
+            chatArea.remove(1);
+            if (isRoomRow(row)) {
+                droppedRoomRow = true;
+                lastDropped = (Long) row.getClientProperty(ROW_SEQUENCE);
+            }
+        }
+        if (!droppedRoomRow) {
+            return;
+        }
+        pageBeforeSequence = lastDropped + 1;
+        for (Component comp : chatArea.getComponents()) {
+            if (comp instanceof JComponent && isRoomRow((JComponent) comp)) {
+                pageBeforeSequence = (Long) ((JComponent) comp).getClientProperty(ROW_SEQUENCE);
+                break;
+            }
+        }
+        hasOlder = true;
+    }
+
+    /**
+     * Drops the newest rows past MAX_ROWS, for room made while paging back
+     */
+    private void dropNewestRows() {
+        while (chatArea.getComponentCount() - 1 > MAX_ROWS) {
+            chatArea.remove(chatArea.getComponentCount() - 1);
+            hasNewer = true;
+        }
+    }
+
+    /**
+     * Clears the chat once rows between what's shown and a new message were
+     * dropped; paging back starts again from the new message
+     */
+    private void startOver() {
+        while (chatArea.getComponentCount() > 1) {
+            chatArea.remove(1); // 0 is the glue
+        }
+        pageBeforeSequence = 0;
+        hasOlder = true;
+        hasNewer = false;
+    }
+
+    private boolean isRoomRow(JComponent row) {
+        return room != null && row.getClientProperty(ROW_SEQUENCE) != null
+                && room.equalsIgnoreCase((String) row.getClientProperty(ROW_ROOM));
+    }
+
+    private JEditorPane createRow(String text, long sequence) {
+        JEditorPane textContainer = new JEditorPane("text/html", text); // Change to "text/html"
+        textContainer.setEditable(false);
+        textContainer.setBorder(BorderFactory.createEmptyBorder());
+        textContainer.setOpaque(false);
+        textContainer.setBackground(new Color(0, 0, 0, 0));
+        if (sequence > 0 && room != null) {
+            textContainer.putClientProperty(ROW_ROOM, room);
+            textContainer.putClientProperty(ROW_SEQUENCE, sequence);
+        }
+        return textContainer;
+    }
+
+    private static GridBagConstraints rowConstraints() {
+        // GridBagConstraints settings for each message
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.gridx = 0; // Column index 0
+        gbc.gridy = GridBagConstraints.RELATIVE; // Automatically move to the next row
+        gbc.weightx = 1; // Let the component grow horizontally to fill the space
+        gbc.fill = GridBagConstraints.HORIZONTAL; // Fill horizontally
+        gbc.insets = new Insets(0, 0, 5, 0); // Add spacing between messages
+        return gbc;
+    }
+
+    private static String formatEntry(HistoryPayload.Entry entry) {
+        // senders may have left since, so show the name they had then
+        String clientName = entry.getClientName() == null ? "Room" : entry.getClientName();
+        return String.format("%s[%d]: %s", clientName, entry.getClientId(), entry.getMessage());
+    }
+
     public UserListPanel getUserListPanel() {
         return userListPanel;
     }
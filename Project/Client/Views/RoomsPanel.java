@@ -15,6 +15,7 @@ import javax.swing.BoxLayout;
 import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.ScrollPaneConstants;
@@ -29,11 +30,23 @@ import Project.Common.LoggerUtil;
 
 /**
  * RoomsPanel class represents the UI for managing chat rooms.
+ * <p>
+ * Search results arrive a page at a time; the next page is only requested
+ * once the user scrolls near the end of what's loaded.
+ * </p>
  */
 public class RoomsPanel extends JPanel {
+    private static final int ROW_HEIGHT = 40;
     private final JPanel container;
+    private final JScrollPane scroll;
     private final List<RoomListItem> rooms = new ArrayList<>();
     private final JLabel message;
+    // paging state, only touched on the EDT
+    private String currentQuery = null;
+    private String nextCursor = null;
+    private long totalCount = -1;
+    private boolean isTotalCapped = false;
+    private boolean isLoadingPage = false;
 
     /**
      * Constructor to create the RoomsPanel UI.
@@ -48,9 +61,11 @@ public class RoomsPanel extends JPanel {
                 new LineBorder(Color.RED, 0),
                 new EmptyBorder(10, 10, 0, 10))); // Add padding and colored border
 
-        JScrollPane scroll = new JScrollPane(container, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED,
+        scroll = new JScrollPane(container, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED,
                 ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
         scroll.setBorder(BorderFactory.createEmptyBorder());
+        scroll.getVerticalScrollBar().setUnitIncrement(ROW_HEIGHT / 2);
+        scroll.getVerticalScrollBar().addAdjustmentListener(event -> loadNextPageIfNeeded());
 
         JButton back = new JButton("Go Back");
         back.addActionListener(event -> controls.previous());
@@ -72,14 +87,14 @@ public class RoomsPanel extends JPanel {
         searchButton.addActionListener(event -> {
             SwingUtilities.invokeLater(() -> {
                 try {
+                    // an empty query lists every room, a page at a time
                     String query = searchValue.getText().trim();
-                    if (!query.isEmpty()) {
-                        removeAllRooms();
-                        Client.INSTANCE.sendListRooms(query);
-                        message.setText("Sent query");
-                    } else {
-                        message.setText("Can't search with an empty query");
-                    }
+                    removeAllRooms();
+                    currentQuery = query;
+                    nextCursor = null;
+                    isLoadingPage = true;
+                    Client.INSTANCE.sendListRooms(query);
+                    message.setText("Sent query");
                 } catch (IOException e) {
                     LoggerUtil.INSTANCE.warning("Error sending request: " + e.getMessage(), e);
                     message.setText("Error sending request: " + e.getMessage());
@@ -177,18 +192,84 @@ public class RoomsPanel extends JPanel {
     public void addRoom(String room) {
         if (room != null) {
             LoggerUtil.INSTANCE.info("Adding: " + room);
-            RoomListItem roomListItem = new RoomListItem(room, this::handleSelection);
-            Dimension size = new Dimension(this.getSize().width, 40);
-            roomListItem.setPreferredSize(size);
-            roomListItem.setMaximumSize(size);
-            roomListItem.setMinimumSize(size);
-            container.add(roomListItem);
-            rooms.add(roomListItem);
+            addRoomItem(room);
             revalidate();
             repaint();
         }
     }
 
+    private void addRoomItem(String room) {
+        RoomListItem roomListItem = new RoomListItem(room, this::handleSelection);
+        Dimension size = new Dimension(this.getSize().width, ROW_HEIGHT);
+        roomListItem.setPreferredSize(size);
+        roomListItem.setMaximumSize(size);
+        roomListItem.setMinimumSize(size);
+        container.add(roomListItem);
+        rooms.add(roomListItem);
+    }
+
+    /**
+     * Shows a page of search results: a first page (the one with a total)
+     * replaces the list, later pages are appended if they're for the current
+     * query. Safe to call from any thread.
+     * 
+     * @param query      The query the rooms match.
+     * @param page       The page's rooms.
+     * @param nextCursor Where the next page starts, or null if this is the last.
+     * @param total      Rooms matching in total, or -1 on pages after the first.
+     * @param isCapped   True if more than total match.
+     */
+    public void addRoomPage(String query, List<String> page, String nextCursor, long total, boolean isCapped) {
+        SwingUtilities.invokeLater(() -> {
+            if (total >= 0) {
+                removeAllRooms();
+                currentQuery = query;
+                totalCount = total;
+                isTotalCapped = isCapped;
+            } else if (currentQuery == null || !currentQuery.equalsIgnoreCase(query)) {
+                return; // a page for a search that's since been replaced
+            }
+            if (page != null) {
+                for (String room : page) {
+                    if (room != null) {
+                        addRoomItem(room);
+                    }
+                }
+            }
+            this.nextCursor = nextCursor;
+            isLoadingPage = false;
+            message.setText(rooms.isEmpty() ? "No rooms found"
+                    : String.format("Showing %s of %s%s rooms", rooms.size(), totalCount, isTotalCapped ? "+" : ""));
+            revalidate();
+            repaint();
+            // the page may not fill the view, in which case there's nothing to scroll
+            SwingUtilities.invokeLater(this::loadNextPageIfNeeded);
+        });
+    }
+
+    /**
+     * Requests the next page once the view is within a page's height of the
+     * end of the loaded rooms
+     */
+    private void loadNextPageIfNeeded() {
+        if (isLoadingPage || nextCursor == null) {
+            return;
+        }
+        JScrollBar bar = scroll.getVerticalScrollBar();
+        int remaining = bar.getMaximum() - (bar.getValue() + bar.getVisibleAmount());
+        if (remaining > bar.getVisibleAmount()) {
+            return;
+        }
+        try {
+            isLoadingPage = true;
+            Client.INSTANCE.sendListRooms(currentQuery, nextCursor);
+        } catch (IOException e) {
+            isLoadingPage = false;
+            LoggerUtil.INSTANCE.warning("Error requesting more rooms: " + e.getMessage(), e);
+            message.setText("Error requesting more rooms: " + e.getMessage());
+        }
+    }
+
     /**
      * Removes a room from the rooms list.
      * 
@@ -213,7 +294,7 @@ public class RoomsPanel extends JPanel {
     public void removeAllRooms() {
         LoggerUtil.INSTANCE.info("Clearing rooms");
         for (RoomListItem roomListItem : rooms) {
-            LoggerUtil.INSTANCE.info("Removing " + roomListItem.getRoomName());
+            LoggerUtil.INSTANCE.fine(() -> "Removing " + roomListItem.getRoomName());
             container.remove(roomListItem);
         }
         rooms.clear();
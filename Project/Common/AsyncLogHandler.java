@@ -0,0 +1,180 @@
+package Project.Common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Handler that hands records to a single background writer instead of
+ * formatting and writing them on the logging thread.
+ * <p>
+ * Records go into a bounded ring buffer (ArrayBlockingQueue). The writer
+ * drains it in batches, publishes each record to the real handlers and then
+ * flushes them once per batch, so a burst of N records costs one flush rather
+ * than N. When the buffer is full the {@link LoggerUtil.OverflowPolicy}
+ * decides between dropping the record (counted, and reported by the writer
+ * once there's room) or making the caller wait.
+ * </p>
+ */
+class AsyncLogHandler extends Handler {
+    /**
+     * A handler whose flush() is deferred to the end of the batch
+     */
+    interface BatchFlushable {
+        void flushBatch();
+    }
+
+    private final ArrayBlockingQueue<LogRecord> buffer;
+    private final Handler[] targets;
+    private final LoggerUtil.OverflowPolicy policy;
+    private final int batchSize;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private volatile long written = 0; // queued records the writer has finished with
+    private long droppedReported = 0; // writer thread only
+    private final Thread writer;
+    private volatile boolean isRunning = true;
+
+    /**
+     * @param targets   handlers that do the actual formatting and writing
+     * @param capacity  records the buffer holds
+     * @param policy    behavior when the buffer is full
+     * @param batchSize most records written between flushes
+     */
+    AsyncLogHandler(Handler[] targets, int capacity, LoggerUtil.OverflowPolicy policy, int batchSize) {
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.targets = targets;
+        this.policy = policy;
+        this.batchSize = Math.max(1, batchSize);
+        // nothing worth queueing if no target would write it
+        Level lowest = Level.OFF;
+        for (Handler target : targets) {
+            if (target.getLevel().intValue() < lowest.intValue()) {
+                lowest = target.getLevel();
+            }
+        }
+        setLevel(lowest);
+        writer = Thread.ofPlatform().name("log-writer").daemon(true).start(this::writeLoop);
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        if (policy == LoggerUtil.OverflowPolicy.BLOCK) {
+            try {
+                buffer.put(record);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.incrementAndGet();
+                return;
+            }
+        } else if (!buffer.offer(record)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        queued.incrementAndGet();
+    }
+
+    /**
+     * @return records discarded because the buffer was full
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    private void writeLoop() {
+        List<LogRecord> batch = new ArrayList<>(batchSize);
+        while (isRunning || !buffer.isEmpty()) {
+            LogRecord first;
+            try {
+                first = buffer.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // close() wants us to finish what's queued and stop
+                isRunning = false;
+                continue;
+            }
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            buffer.drainTo(batch, batchSize - 1);
+            int drained = batch.size();
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                reportError("Async log writer failed", e, 0);
+            } finally {
+                written += drained;
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<LogRecord> batch) {
+        long droppedNow = dropped.get();
+        if (droppedNow > droppedReported) {
+            LogRecord warning = new LogRecord(Level.WARNING,
+                    String.format("Dropped %s log records (log buffer full)", droppedNow - droppedReported));
+            warning.setSourceClassName(AsyncLogHandler.class.getName());
+            batch.add(0, warning);
+            droppedReported = droppedNow;
+        }
+        for (LogRecord record : batch) {
+            for (Handler target : targets) {
+                target.publish(record);
+            }
+        }
+        flushTargets();
+    }
+
+    private void flushTargets() {
+        for (Handler target : targets) {
+            if (target instanceof BatchFlushable) {
+                ((BatchFlushable) target).flushBatch();
+            } else {
+                target.flush();
+            }
+        }
+    }
+
+    /**
+     * Waits until everything queued so far has been written
+     */
+    @Override
+    public void flush() {
+        long target = queued.get();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (written < target && writer.isAlive() && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes whatever is still queued, then closes the targets
+     */
+    @Override
+    public void close() {
+        isRunning = false;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler target : targets) {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package Project.Common;
+
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hand-written compact encoding for Payloads, used by
+ * {@link WireFormat#BINARY_FRAMES}.
+ * <p>
+ * Body layout: PayloadType ordinal (1 byte), payload class tag (1 byte), the
+ * base Payload fields, then the subclass fields. Longs are zig-zag varints so
+ * the common -1/small ids take one byte, and Strings are a varint length
+ * (0 = null, otherwise length + 1) followed by UTF-8 bytes.
+ * </p>
+ * <p>
+ * The class tag is needed because a PayloadType doesn't always map to one class
+ * (e.g. ROOM_JOIN is a plain Payload from the client but a ConnectionPayload
+ * from the server).
+ * </p>
+ */
+public abstract class BinaryPayloadCodec {
+    private static final PayloadType[] TYPES = PayloadType.values();
+
+    // payload class tags
+    private static final byte TAG_PAYLOAD = 0;
+    private static final byte TAG_CONNECTION = 1;
+    private static final byte TAG_ROLL = 2;
+    private static final byte TAG_FLIP = 3;
+    private static final byte TAG_PRIVATE_MESSAGE = 4;
+    private static final byte TAG_ROOM_RESULTS = 5;
+    private static final byte TAG_HISTORY = 6;
+    private static final byte TAG_MESSAGE = 7;
+
+    // base field flags
+    private static final int FLAG_PRIVATE = 1;
+
+    /**
+     * Encodes a Payload into a frame with the header left blank for FrameCodec
+     * to fill in
+     *
+     * @param payload
+     * @return header + body
+     */
+    static byte[] encodeFrame(Payload payload) {
+        Writer w = new Writer(FrameCodec.HEADER_SIZE + 64);
+        w.position = FrameCodec.HEADER_SIZE;
+        encode(payload, w);
+        return w.toByteArray();
+    }
+
+    /**
+     * Encodes a Payload body with no frame header
+     *
+     * @param payload
+     * @return body bytes
+     */
+    public static byte[] encode(Payload payload) {
+        Writer w = new Writer(64);
+        encode(payload, w);
+        return w.toByteArray();
+    }
+
+    private static void encode(Payload payload, Writer w) {
+        w.writeByte(payload.getPayloadType().ordinal());
+        w.writeByte(tagOf(payload));
+        w.writeVarLong(payload.getClientId());
+        w.writeString(payload.getMessage());
+        w.writeString(payload.getUsername());
+        w.writeByte(payload.isPrivate() ? FLAG_PRIVATE : 0);
+        w.writeVarLong(payload.getTargetClientId());
+        if (payload instanceof ConnectionPayload) {
+            ConnectionPayload cp = (ConnectionPayload) payload;
+            w.writeString(cp.getClientName());
+            w.writeByte(cp.isConnect() ? 1 : 0);
+        } else if (payload instanceof RollPayload) {
+            RollPayload rp = (RollPayload) payload;
+            w.writeVarLong(rp.getNumberOfRolls());
+            w.writeVarLong(rp.getDiceSides());
+        } else if (payload instanceof FlipPayload) {
+            w.writeByte(((FlipPayload) payload).isHeads() ? 1 : 0);
+        } else if (payload instanceof PrivateMessagePayload) {
+            w.writeVarLong(((PrivateMessagePayload) payload).getTargetId());
+        } else if (payload instanceof RoomResultsPayload) {
+            List<String> rooms = ((RoomResultsPayload) payload).getRooms();
+            w.writeVarLong(rooms == null ? 0 : rooms.size() + 1);
+            if (rooms != null) {
+                for (String room : rooms) {
+                    w.writeString(room);
+                }
+            }
+            RoomResultsPayload rrp = (RoomResultsPayload) payload;
+            w.writeString(rrp.getQuery());
+            w.writeString(rrp.getCursor());
+            w.writeVarLong(rrp.getPageSize());
+            w.writeVarLong(rrp.getTotalCount());
+            w.writeByte(rrp.isTotalCapped() ? 1 : 0);
+        } else if (payload instanceof HistoryPayload) {
+            HistoryPayload hp = (HistoryPayload) payload;
+            w.writeString(hp.getRoom());
+            w.writeVarLong(hp.getBeforeSequence());
+            w.writeVarLong(hp.getLimit());
+            List<HistoryPayload.Entry> entries = hp.getEntries();
+            w.writeVarLong(entries == null ? 0 : entries.size() + 1);
+            if (entries != null) {
+                for (HistoryPayload.Entry entry : entries) {
+                    w.writeVarLong(entry.getSequence());
+                    w.writeVarLong(entry.getTimestamp());
+                    w.writeVarLong(entry.getClientId());
+                    w.writeString(entry.getClientName());
+                    w.writeString(entry.getMessage());
+                }
+            }
+        } else if (payload instanceof MessagePayload) {
+            w.writeVarLong(((MessagePayload) payload).getSequence());
+        }
+    }
+
+    private static byte tagOf(Payload payload) {
+        if (payload instanceof ConnectionPayload) {
+            return TAG_CONNECTION;
+        } else if (payload instanceof RollPayload) {
+            return TAG_ROLL;
+        } else if (payload instanceof FlipPayload) {
+            return TAG_FLIP;
+        } else if (payload instanceof PrivateMessagePayload) {
+            return TAG_PRIVATE_MESSAGE;
+        } else if (payload instanceof RoomResultsPayload) {
+            return TAG_ROOM_RESULTS;
+        } else if (payload instanceof HistoryPayload) {
+            return TAG_HISTORY;
+        } else if (payload instanceof MessagePayload) {
+            return TAG_MESSAGE;
+        }
+        return TAG_PAYLOAD;
+    }
+
+    /**
+     * Decodes a body produced by encode()
+     *
+     * @param body
+     * @param offset
+     * @param length
+     * @return the decoded Payload
+     * @throws StreamCorruptedException if the body is malformed
+     */
+    public static Payload decode(byte[] body, int offset, int length) throws StreamCorruptedException {
+        Reader r = new Reader(body, offset, length);
+        try {
+            int ordinal = r.readByte();
+            if (ordinal >= TYPES.length) {
+                throw new StreamCorruptedException("Unknown PayloadType ordinal " + ordinal);
+            }
+            PayloadType type = TYPES[ordinal];
+            byte tag = (byte) r.readByte();
+            long clientId = r.readVarLong();
+            String message = r.readString();
+            String username = r.readString();
+            int flags = r.readByte();
+            long targetClientId = r.readVarLong();
+
+            Payload payload;
+            switch (tag) {
+                case TAG_PAYLOAD:
+                    payload = new Payload();
+                    break;
+                case TAG_CONNECTION:
+                    ConnectionPayload cp = new ConnectionPayload();
+                    cp.setClientName(r.readString());
+                    cp.setConnect(r.readByte() == 1);
+                    payload = cp;
+                    break;
+                case TAG_ROLL:
+                    payload = new RollPayload((int) r.readVarLong(), (int) r.readVarLong());
+                    break;
+                case TAG_FLIP:
+                    FlipPayload fp = new FlipPayload();
+                    fp.setHeads(r.readByte() == 1);
+                    payload = fp;
+                    break;
+                case TAG_PRIVATE_MESSAGE:
+                    payload = new PrivateMessagePayload(r.readVarLong(), message);
+                    break;
+                case TAG_ROOM_RESULTS:
+                    RoomResultsPayload rrp = new RoomResultsPayload();
+                    int count = r.readCount(1); // each room takes at least its length byte
+                    if (count == 0) {
+                        rrp.setRooms(null);
+                    } else {
+                        List<String> rooms = new ArrayList<>(Math.min(count - 1, 1024));
+                        for (int i = 0; i < count - 1; i++) {
+                            rooms.add(r.readString());
+                        }
+                        rrp.setRooms(rooms);
+                    }
+                    rrp.setQuery(r.readString());
+                    rrp.setCursor(r.readString());
+                    rrp.setPageSize((int) r.readVarLong());
+                    rrp.setTotalCount(r.readVarLong());
+                    rrp.setTotalCapped(r.readByte() == 1);
+                    payload = rrp;
+                    break;
+                case TAG_HISTORY:
+                    HistoryPayload hp = new HistoryPayload();
+                    hp.setRoom(r.readString());
+                    hp.setBeforeSequence(r.readVarLong());
+                    hp.setLimit((int) r.readVarLong());
+                    int entryCount = r.readCount(5); // three varlongs and two string lengths, a byte each at least
+                    if (entryCount == 0) {
+                        hp.setEntries(null);
+                    } else {
+                        List<HistoryPayload.Entry> entries = new ArrayList<>(Math.min(entryCount - 1, 1024));
+                        for (int i = 0; i < entryCount - 1; i++) {
+                            entries.add(new HistoryPayload.Entry(r.readVarLong(), r.readVarLong(), r.readVarLong(),
+                                    r.readString(), r.readString()));
+                        }
+                        hp.setEntries(entries);
+                    }
+                    payload = hp;
+                    break;
+                case TAG_MESSAGE:
+                    payload = new MessagePayload(clientId, message, r.readVarLong());
+                    break;
+                default:
+                    throw new StreamCorruptedException("Unknown payload tag " + tag);
+            }
+            payload.setPayloadType(type);
+            payload.setClientId(clientId);
+            payload.setMessage(message);
+            payload.setUsername(username);
+            payload.setPrivate((flags & FLAG_PRIVATE) != 0);
+            payload.setTargetClientId(targetClientId);
+            return payload;
+        } catch (IndexOutOfBoundsException e) {
+            throw new StreamCorruptedException("Truncated payload body");
+        }
+    }
+
+    /**
+     * Growable byte array writer (avoids the synchronized ByteArrayOutputStream)
+     */
+    private static class Writer {
+        private byte[] buf;
+        private int position;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        private void ensure(int extra) {
+            if (position + extra > buf.length) {
+                byte[] bigger = new byte[Math.max(buf.length * 2, position + extra)];
+                System.arraycopy(buf, 0, bigger, 0, position);
+                buf = bigger;
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[position++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[position++] = (byte) zigzag;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, buf, position, utf8.length);
+            position += utf8.length;
+        }
+
+        byte[] toByteArray() {
+            if (position == buf.length) {
+                return buf;
+            }
+            byte[] exact = new byte[position];
+            System.arraycopy(buf, 0, exact, 0, position);
+            return exact;
+        }
+    }
+
+    private static class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int position;
+
+        Reader(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        int readByte() {
+            if (position >= end) {
+                throw new IndexOutOfBoundsException();
+            }
+            return buf[position++] & 0xFF;
+        }
+
+        long readVarLong() throws StreamCorruptedException {
+            long zigzag = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                zigzag |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+
+        /**
+         * Reads a list size written as size + 1 (0 = null), rejecting one that
+         * the rest of the body couldn't hold
+         *
+         * @param minBytesEach fewest bytes one element takes
+         * @return size + 1, or 0 for null
+         */
+        int readCount(int minBytesEach) throws StreamCorruptedException {
+            long count = readVarLong();
+            if (count < 0 || count - 1 > (long) (end - position) / minBytesEach) {
+                throw new StreamCorruptedException("Invalid element count " + (count - 1));
+            }
+            return (int) count;
+        }
+
+        String readString() throws StreamCorruptedException {
+            long length = readVarLong();
+            if (length == 0) {
+                return null;
+            }
+            int size = (int) (length - 1);
+            if (size < 0 || position + size > end) {
+                throw new StreamCorruptedException("Invalid string length " + size);
+            }
+            String value = new String(buf, position, size, StandardCharsets.UTF_8);
+            position += size;
+            return value;
+        }
+    }
+}
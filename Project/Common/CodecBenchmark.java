@@ -0,0 +1,103 @@
+package Project.Common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Compares bytes on the wire and encode/decode cost of the three WireFormats
+ * for typical Payloads.
+ * <p>
+ * Every operation encodes a freshly built Payload (new Strings included), like
+ * the server does. OBJECT_STREAM is measured in steady state, i.e. on a
+ * long-lived stream that already sent the class descriptors, which is its best
+ * case.
+ * </p>
+ *
+ * <pre>
+ * java Project.Common.CodecBenchmark
+ * </pre>
+ */
+public class CodecBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        List<Supplier<Payload>> samples = new ArrayList<>();
+        samples.add(() -> {
+            Payload message = new Payload();
+            message.setPayloadType(PayloadType.MESSAGE);
+            message.setClientId(42);
+            message.setMessage(new String("hey <b>everyone</b>, anyone up for a game?"));
+            return message;
+        });
+        samples.add(() -> {
+            ConnectionPayload roomJoin = new ConnectionPayload();
+            roomJoin.setPayloadType(PayloadType.ROOM_JOIN);
+            roomJoin.setClientId(42);
+            roomJoin.setClientName(new String("yahya"));
+            roomJoin.setMessage(new String("lobby"));
+            roomJoin.setConnect(true);
+            return roomJoin;
+        });
+        samples.add(() -> new RollPayload(2, 20));
+        samples.add(() -> {
+            RoomResultsPayload rooms = new RoomResultsPayload();
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < 25; i++) {
+                names.add("room-" + i);
+            }
+            rooms.setRooms(names);
+            return rooms;
+        });
+
+        for (Supplier<Payload> sample : samples) {
+            Payload p = sample.get();
+            System.out.println(p.getClass().getSimpleName() + "/" + p.getPayloadType());
+            System.out.println(String.format("  bytes: object stream %s, serialized frame %s, binary frame %s",
+                    steadyStateStreamBytes(sample),
+                    FrameCodec.encode(p, WireFormat.SERIALIZED_FRAMES).length,
+                    FrameCodec.encode(p, WireFormat.BINARY_FRAMES).length));
+
+            MicroBench.measure("  build payload (baseline)", () -> MicroBench.consume(sample.get()));
+            // long-lived stream, reset now and then so the handle table doesn't grow unbounded
+            ByteArrayOutputStream streamBytes = new ByteArrayOutputStream();
+            ObjectOutputStream stream = new ObjectOutputStream(streamBytes);
+            int[] count = { 0 };
+            MicroBench.measure("  encode object stream", () -> {
+                stream.writeObject(sample.get());
+                if (++count[0] % 1000 == 0) {
+                    stream.reset();
+                    streamBytes.reset();
+                }
+            });
+            MicroBench.measure("  encode serialized frame",
+                    () -> MicroBench.consume(FrameCodec.encode(sample.get(), WireFormat.SERIALIZED_FRAMES)));
+            MicroBench.measure("  encode binary frame",
+                    () -> MicroBench.consume(FrameCodec.encode(sample.get(), WireFormat.BINARY_FRAMES)));
+
+            byte[] serialized = FrameCodec.encode(p, WireFormat.SERIALIZED_FRAMES);
+            byte[] binary = FrameCodec.encode(p, WireFormat.BINARY_FRAMES);
+            MicroBench.measure("  decode serialized frame", () -> MicroBench.consume(FrameCodec.decode(serialized,
+                    FrameCodec.HEADER_SIZE, serialized.length - FrameCodec.HEADER_SIZE, WireFormat.SERIALIZED_FRAMES)));
+            MicroBench.measure("  decode binary frame", () -> MicroBench.consume(FrameCodec.decode(binary,
+                    FrameCodec.HEADER_SIZE, binary.length - FrameCodec.HEADER_SIZE, WireFormat.BINARY_FRAMES)));
+        }
+    }
+
+    /**
+     * Bytes a long-lived ObjectOutputStream writes for a new payload once the
+     * class descriptors were already sent
+     */
+    private static int steadyStateStreamBytes(Supplier<Payload> sample) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(sample.get());
+        oos.flush();
+        int before = bytes.size();
+        oos.writeObject(sample.get());
+        oos.flush();
+        return bytes.size() - before;
+    }
+}
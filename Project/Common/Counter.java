@@ -0,0 +1,32 @@
+package Project.Common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up. Contended increments don't share a cache line
+ * (LongAdder), so hot paths can bump it freely.
+ */
+public class Counter extends Metric {
+    private final LongAdder count = new LongAdder();
+
+    public Counter(String name, String help, String labelName, String labelValue) {
+        super(name, help, labelName, labelValue);
+    }
+
+    @Override
+    public Type getType() {
+        return Type.COUNTER;
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
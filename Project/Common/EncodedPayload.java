@@ -0,0 +1,159 @@
+package Project.Common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A Payload that is encoded at most once per WireFormat and then shared by
+ * every recipient, so a broadcast to N clients costs one encode per format
+ * instead of N.
+ * <p>
+ * The cached byte arrays are never modified after encoding; writers must treat
+ * them as read-only.
+ * </p>
+ * <p>
+ * For {@link WireFormat#OBJECT_STREAM} the bytes are a TC_RESET marker followed
+ * by the object, written as if by a freshly reset stream. A legacy connection
+ * can splice them into its stream as long as it resets its own
+ * ObjectOutputStream right after (see BaseServerThread), which keeps both
+ * ends' handle tables in step.
+ * </p>
+ * <p>
+ * Legacy clients may predate the payload's class; a broadcast can carry a
+ * plainer payload for them (see {@link #forBroadcast(Payload, Payload)}),
+ * which is what OBJECT_STREAM connections get instead.
+ * </p>
+ */
+public class EncodedPayload {
+    private static final int STREAM_HEADER_SIZE = 4; // STREAM_MAGIC + STREAM_VERSION
+
+    private final Payload payload;
+    private final Payload legacyPayload; // what OBJECT_STREAM connections get
+    private final boolean isShared;
+    private final boolean flushImmediately;
+    private final AtomicReferenceArray<byte[]> encoded = new AtomicReferenceArray<>(WireFormat.values().length);
+
+    /**
+     * Wraps a payload for a single recipient
+     * 
+     * @param payload
+     */
+    public EncodedPayload(Payload payload) {
+        this(payload, false);
+    }
+
+    /**
+     * @param payload
+     * @param isShared true if the same instance goes to many recipients
+     */
+    public EncodedPayload(Payload payload, boolean isShared) {
+        this(payload, payload, isShared, false);
+    }
+
+    private EncodedPayload(Payload payload, Payload legacyPayload, boolean isShared, boolean flushImmediately) {
+        this.payload = payload;
+        this.legacyPayload = legacyPayload;
+        this.isShared = isShared;
+        this.flushImmediately = flushImmediately;
+    }
+
+    /**
+     * Wraps a payload that will be sent to many recipients
+     * 
+     * @param payload
+     * @return the shared wrapper
+     */
+    public static EncodedPayload forBroadcast(Payload payload) {
+        return new EncodedPayload(payload, true);
+    }
+
+    /**
+     * Wraps a payload that will be sent to many recipients, with the one
+     * legacy OBJECT_STREAM connections get instead
+     * 
+     * @param payload
+     * @param legacyPayload only uses classes clients from before the wire
+     *                      formats have
+     * @return the shared wrapper
+     */
+    public static EncodedPayload forBroadcast(Payload payload, Payload legacyPayload) {
+        return new EncodedPayload(payload, legacyPayload, true, false);
+    }
+
+    /**
+     * Wraps a latency-sensitive payload for a single recipient (e.g. CLIENT_ID);
+     * the writer flushes right after it instead of waiting to batch more
+     * 
+     * @param payload
+     * @return the wrapper
+     */
+    public static EncodedPayload forImmediateFlush(Payload payload) {
+        return new EncodedPayload(payload, payload, false, true);
+    }
+
+    public Payload getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return what's written to legacy OBJECT_STREAM connections; the payload
+     *         itself unless the broadcast gave a plainer one
+     */
+    public Payload getLegacyPayload() {
+        return legacyPayload;
+    }
+
+    /**
+     * Legacy streams only splice the pre-encoded bytes for shared payloads;
+     * single-recipient payloads are cheaper to write with writeObject.
+     * 
+     * @return true if this payload goes to many recipients
+     */
+    public boolean isShared() {
+        return isShared;
+    }
+
+    /**
+     * @return true if the writer shouldn't hold this payload back to coalesce it
+     *         with later ones
+     */
+    public boolean shouldFlushImmediately() {
+        return flushImmediately;
+    }
+
+    /**
+     * Returns the wire bytes for the given format, encoding on first use
+     *
+     * @param format
+     * @return shared, read-only bytes (a full frame for framed formats)
+     * @throws IOException
+     */
+    public byte[] bytes(WireFormat format) throws IOException {
+        byte[] bytes = encoded.get(format.ordinal());
+        if (bytes == null) {
+            // a racing thread may encode too; both results are identical so either can win
+            bytes = format == WireFormat.OBJECT_STREAM ? encodeStreamChunk() : FrameCodec.encode(payload, format);
+            encoded.compareAndSet(format.ordinal(), null, bytes);
+        }
+        return bytes;
+    }
+
+    private byte[] encodeStreamChunk() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.reset(); // emits TC_RESET so the receiver drops its handles before reading
+            oos.writeObject(legacyPayload);
+        }
+        byte[] all = bytes.toByteArray();
+        byte[] chunk = new byte[all.length - STREAM_HEADER_SIZE];
+        System.arraycopy(all, STREAM_HEADER_SIZE, chunk, 0, chunk.length);
+        return chunk;
+    }
+
+    @Override
+    public String toString() {
+        return payload.toString();
+    }
+}
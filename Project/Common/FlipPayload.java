@@ -3,6 +3,8 @@ package Project.Common;
 import java.util.Random;
 
 public class FlipPayload extends Payload {
+    // pinned to what it was before setHeads() was added, so older OBJECT_STREAM clients can still /flip
+    private static final long serialVersionUID = 7781109115608837058L;
     private boolean isHeads;
 
     public FlipPayload() {
@@ -14,6 +16,11 @@ public class FlipPayload extends Payload {
         return isHeads;
     }
 
+    // used by BinaryPayloadCodec to restore the sender's result
+    void setHeads(boolean isHeads) {
+        this.isHeads = isHeads;
+    }
+
     @Override
     public String toString() {
         return super.toString() + " flipped a coin and got: " + (isHeads ? "heads" : "tails");
@@ -0,0 +1,127 @@
+package Project.Common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Length-prefixed framing for Payloads.
+ * <p>
+ * Each frame is a 4-byte big-endian length followed by a body encoded per the
+ * connection's {@link WireFormat}: either a standalone serialized Payload or a
+ * {@link BinaryPayloadCodec} body. Unlike a long-lived ObjectOutputStream, a
+ * reader can tell when a whole Payload has arrived without blocking, which is
+ * what the non-blocking server engine needs.
+ * </p>
+ * <p>
+ * Legacy clients that open a raw ObjectOutputStream are detected by the first
+ * byte of the serialization stream magic ({@link #STREAM_MAGIC_HIGH}). A frame
+ * length is capped well below that value so the two can never be confused.
+ * </p>
+ */
+public abstract class FrameCodec {
+    public static final int HEADER_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 1024 * 1024; // 1MB
+    public static final int STREAM_MAGIC_HIGH = 0xAC; // first byte of ObjectStreamConstants.STREAM_MAGIC
+
+    /**
+     * Encodes a Payload into a complete frame (header + body)
+     *
+     * @param payload
+     * @param format  SERIALIZED_FRAMES or BINARY_FRAMES
+     * @return frame bytes ready to be written to a socket
+     * @throws IOException
+     */
+    public static byte[] encode(Payload payload, WireFormat format) throws IOException {
+        byte[] frame;
+        if (format == WireFormat.BINARY_FRAMES) {
+            frame = BinaryPayloadCodec.encodeFrame(payload);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            // reserve space for the length header, filled in once the body size is known
+            bytes.write(new byte[HEADER_SIZE]);
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(payload);
+            }
+            frame = bytes.toByteArray();
+        }
+        int length = frame.length - HEADER_SIZE;
+        if (length > MAX_FRAME_SIZE) {
+            throw new IOException(String.format("Frame of %s bytes exceeds limit of %s", length, MAX_FRAME_SIZE));
+        }
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    /**
+     * Decodes a frame body (without the header)
+     *
+     * @param body   buffer holding the body
+     * @param offset start of the body
+     * @param length size of the body
+     * @param format SERIALIZED_FRAMES or BINARY_FRAMES
+     * @return the decoded Payload
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static Payload decode(byte[] body, int offset, int length, WireFormat format)
+            throws IOException, ClassNotFoundException {
+        if (format == WireFormat.BINARY_FRAMES) {
+            return BinaryPayloadCodec.decode(body, offset, length);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(body, offset, length))) {
+            return (Payload) ois.readObject();
+        }
+    }
+
+    /**
+     * Validates a length header read off the wire
+     *
+     * @param length
+     * @return the same length
+     * @throws StreamCorruptedException if the length is out of range
+     */
+    public static int checkLength(int length) throws StreamCorruptedException {
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("Invalid frame length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Blocking write of a single frame
+     *
+     * @param out
+     * @param payload
+     * @param format
+     * @throws IOException
+     */
+    public static void write(DataOutputStream out, Payload payload, WireFormat format) throws IOException {
+        out.write(encode(payload, format));
+        out.flush();
+    }
+
+    /**
+     * Blocking read of a single frame
+     *
+     * @param in
+     * @param format
+     * @return the decoded Payload
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static Payload read(DataInputStream in, WireFormat format) throws IOException, ClassNotFoundException {
+        int length = checkLength(in.readInt());
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(body, 0, length, format);
+    }
+}
@@ -0,0 +1,25 @@
+package Project.Common;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value that goes up and down, read from its owner when the gauge is read
+ * (e.g. a room's current member count) rather than pushed on every change.
+ */
+public class Gauge extends Metric {
+    private final LongSupplier value;
+
+    public Gauge(String name, String help, String labelName, String labelValue, LongSupplier value) {
+        super(name, help, labelName, labelValue);
+        this.value = value;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.GAUGE;
+    }
+
+    public long get() {
+        return value.getAsLong();
+    }
+}
@@ -0,0 +1,131 @@
+package Project.Common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear (HDR-style) histogram of non-negative longs: exact below 16,
+ * then 16 linear sub-buckets per power of two, so a reported percentile is
+ * within ~6% of the true value over the whole long range in a fixed 8KB.
+ * <p>
+ * Recording is lock-free (one atomic increment per bucket plus two
+ * LongAdder/LongAccumulator updates) and safe from any number of threads.
+ * Reads aren't a consistent snapshot: a value recorded mid-read may show up
+ * in the count but not yet its bucket, which is fine for monitoring.
+ * </p>
+ * <p>
+ * Values have whatever unit the caller records in (nanoseconds for the
+ * server's timings); the unit belongs in the metric name.
+ * </p>
+ */
+public class Histogram extends Metric {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public static final int BUCKET_COUNT = 64 * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram(String name, String help, String labelName, String labelValue) {
+        super(name, help, labelName, labelValue);
+    }
+
+    /**
+     * An unregistered histogram, for tools that only need the percentiles
+     */
+    public Histogram() {
+        this(null, null, null, null);
+    }
+
+    @Override
+    public Type getType() {
+        return Type.HISTOGRAM;
+    }
+
+    /**
+     * @param value negative values are recorded as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(index(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the time since startNanos (a System.nanoTime() reading)
+     *
+     * @param startNanos
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @param index 0 to BUCKET_COUNT - 1
+     * @return the largest value that lands in the bucket
+     */
+    public static long getBucketUpperBound(int index) {
+        return index == BUCKET_COUNT - 1 ? Long.MAX_VALUE : lowerBound(index + 1) - 1;
+    }
+
+    /**
+     * @param index 0 to BUCKET_COUNT - 1
+     * @return how many recorded values landed in the bucket
+     */
+    public long getBucketCount(int index) {
+        return counts.get(index);
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile 0-100
+     * @return upper bound of the bucket holding that percentile, capped at the
+     *         max recorded value
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(getBucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+}
@@ -0,0 +1,131 @@
+package Project.Common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of a room's earlier messages, oldest first, in both directions.
+ * <p>
+ * Client to server: a request for the page of the room's messages just
+ * before beforeSequence (0 for the newest), of at most limit messages
+ * (capped by the server), with no entries.
+ * </p>
+ * <p>
+ * Server to client: the page, with the same room and limit, and
+ * beforeSequence set to where the next older page ends (0 if there's
+ * nothing older). The newest messages are also sent this way, unasked and
+ * with limit 0, when a client joins the room so it sees what was said before
+ * it arrived.
+ * </p>
+ * <p>
+ * Entries carry the sender's name as well as their client id since the
+ * sender may have left (or reconnected under another id) since.
+ * </p>
+ */
+public class HistoryPayload extends Payload {
+    private static final long serialVersionUID = -7068641924560069678L;
+    private String room;
+    private long beforeSequence = 0;
+    private int limit = 0; // 0 = sent on join
+    private List<Entry> entries = new ArrayList<>();
+
+    /**
+     * One message as it was broadcast
+     */
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = -3663227472774452748L;
+        private final long sequence;
+        private final long timestamp;
+        private final long clientId;
+        private final String clientName;
+        private final String message;
+
+        /**
+         * @param sequence   the message's number within its room, from 1
+         * @param timestamp  when it was sent, epoch millis
+         * @param clientId   sender's client id, or -1 for the room itself
+         * @param clientName sender's name, null for the room itself
+         * @param message    formatted message text
+         */
+        public Entry(long sequence, long timestamp, long clientId, String clientName, String message) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.clientId = clientId;
+            this.clientName = clientName;
+            this.message = message;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getClientId() {
+            return clientId;
+        }
+
+        public String getClientName() {
+            return clientName;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    public HistoryPayload() {
+        setPayloadType(PayloadType.HISTORY);
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public void setRoom(String room) {
+        this.room = room;
+    }
+
+    /**
+     * @return request: the page ends before this sequence (0 = newest);
+     *         response: where the next older page ends (0 = nothing older)
+     */
+    public long getBeforeSequence() {
+        return beforeSequence;
+    }
+
+    public void setBeforeSequence(long beforeSequence) {
+        this.beforeSequence = beforeSequence;
+    }
+
+    /**
+     * @return most messages asked for; 0 on the batch sent on join
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return the messages, oldest first
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s Room [%s] Before [%s] Limit [%s] Entries [%s]", super.toString(), room,
+                beforeSequence, limit, entries == null ? 0 : entries.size());
+    }
+}
@@ -1,11 +1,14 @@
 package Project.Common;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Supplier;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -21,6 +24,24 @@ public enum LoggerUtil {
     private Logger logger;
     private LoggerConfig config;
     private boolean isConfigured = false;
+    private AsyncLogHandler asyncHandler; // set when config.isAsync()
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+    private static final String LOGGER_UTIL_PACKAGE = LoggerUtil.class.getPackage().getName();
+
+    /**
+     * What async logging does with a record when its buffer is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the record and count it; logging never waits
+         */
+        DROP,
+        /**
+         * Wait for the writer to make room; nothing is lost but a slow disk
+         * slows the caller down
+         */
+        BLOCK
+    }
 
     LoggerUtil() {
     }
@@ -35,13 +56,87 @@ public enum LoggerUtil {
         setupLogger();
     }
 
+    /**
+     * Gets the number of records async logging discarded because its buffer
+     * was full.
+     * 
+     * @return dropped record count, 0 when logging synchronously
+     */
+    public long getDroppedRecords() {
+        return asyncHandler == null ? 0 : asyncHandler.getDropped();
+    }
+
+    /**
+     * Waits until everything logged so far has been written (async mode).
+     */
+    public void flush() {
+        if (asyncHandler != null) {
+            asyncHandler.flush();
+        }
+    }
+
+    /**
+     * Resolves the class that called into LoggerUtil from the current stack.
+     * StackWalker only materializes frames until the first match, unlike
+     * Thread.getStackTrace() which captures the whole stack.
+     * 
+     * @return the name of the calling class, or null if none was found
+     */
+    static String findCallingClassName() {
+        return STACK_WALKER.walk(frames -> frames
+                .map(StackWalker.StackFrame::getClassName)
+                // Skip all classes in the logging framework and the package of LoggerUtil
+                .filter(className -> !className.startsWith("java.util.logging") &&
+                        !className.startsWith(LOGGER_UTIL_PACKAGE) &&
+                        !className.equals(Thread.class.getName()))
+                .findFirst()
+                .orElse(null));
+    }
+
+    /**
+     * FileHandler that leaves flushing to AsyncLogHandler's batches instead of
+     * flushing after every record.
+     */
+    private static class BatchFileHandler extends FileHandler implements AsyncLogHandler.BatchFlushable {
+        BatchFileHandler(String pattern, int limit, int count, boolean append) throws IOException {
+            super(pattern, limit, count, append);
+        }
+
+        @Override
+        public void flush() {
+            // deferred to flushBatch()
+        }
+
+        @Override
+        public void flushBatch() {
+            super.flush();
+        }
+    }
+
+    /**
+     * ConsoleHandler that leaves flushing to AsyncLogHandler's batches instead
+     * of flushing after every record.
+     */
+    private static class BatchConsoleHandler extends ConsoleHandler implements AsyncLogHandler.BatchFlushable {
+        @Override
+        public void flush() {
+            // deferred to flushBatch()
+        }
+
+        @Override
+        public void flushBatch() {
+            super.flush();
+        }
+    }
+
     /**
      * CustomFormatter class for formatting the log messages.
      * This class formats the log messages to include the date, log level, source,
      * and message.
      */
-    private static class CustomFormatter extends Formatter {
-        private static final String PATTERN = "MM/dd/yyyy HH:mm:ss";
+    static class CustomFormatter extends Formatter {
+        private static final DateTimeFormatter PATTERN = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss")
+                .withZone(ZoneId.systemDefault());
         private static final String RESET = "\u001B[0m";
         private static final String BLACK = "\u001B[30m";
         private static final String RED = "\u001B[31m";
@@ -52,58 +147,67 @@ public enum LoggerUtil {
         private static final String CYAN = "\u001B[36m";
         private static final String WHITE = "\u001B[37m";
 
+        /**
+         * The timestamp only changes once a second, so the last one formatted
+         * is reused (shared by every formatter, safe to race on since each
+         * instance is immutable)
+         */
+        private static final class Timestamp {
+            final long second;
+            final String text;
+
+            Timestamp(long second) {
+                this.second = second;
+                this.text = PATTERN.format(Instant.ofEpochSecond(second));
+            }
+        }
+
+        private static volatile Timestamp lastTimestamp = new Timestamp(0);
+
         @Override
         public String format(LogRecord record) {
-            SimpleDateFormat dateFormat = new SimpleDateFormat(PATTERN);
-            String date = dateFormat.format(new Date(record.getMillis()));
-            String callingClass = getCallingClassName();
-            String source = callingClass != null ? callingClass
-                    : record.getSourceClassName() != null ? record.getSourceClassName() : "unknown";
+            String date = timestamp(record.getMillis());
+            // resolved on the logging thread by LoggerUtil.log() (see findCallingClassName())
+            String source = record.getSourceClassName() != null ? record.getSourceClassName() : "unknown";
             String message = formatMessage(record);
             String level = getColoredLevel(record.getLevel());
             String throwable = "";
             if (record.getThrown() != null) {
                 throwable = "\n" +getStackTrace(record.getThrown());
             }
-            return String.format("%s [%s] (%s):\n\u001B[34m>\u001B[0m %s%s\n", date, source, level, message, throwable);
+            StringBuilder sb = new StringBuilder(64 + message.length() + throwable.length());
+            sb.append(date).append(" [").append(source).append("] (").append(level).append("):\n\u001B[34m>\u001B[0m ")
+                    .append(message).append(throwable).append('\n');
+            return sb.toString();
         }
 
-        /**
-         * Determines the name of the class that called the logging method.
-         * 
-         * @return the name of the calling class
-         */
-        private static String getCallingClassName() {
-            String loggerUtilPackage = LoggerUtil.class.getPackage().getName();
-            StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-            for (StackTraceElement element : stackTrace) {
-                String className = element.getClassName();
-                // Skip all classes in the logging framework and the package of LoggerUtil
-                if (!className.startsWith("java.util.logging") &&
-                        !className.startsWith(loggerUtilPackage) &&
-                        !className.equals(Thread.class.getName())) {
-                    return className;
-                }
+        private static String timestamp(long millis) {
+            long second = Math.floorDiv(millis, 1000);
+            Timestamp cached = lastTimestamp;
+            if (cached.second != second) {
+                cached = new Timestamp(second);
+                lastTimestamp = cached;
             }
-            return null;
+            return cached.text;
         }
 
         private static String getColoredLevel(Level level) {
+            // constant strings for the standard levels, nothing to build per record
             switch (level.getName()) {
                 case "SEVERE":
-                    return RED + level.getName() + RESET;
+                    return RED + "SEVERE" + RESET;
                 case "WARNING":
-                    return YELLOW + level.getName() + RESET;
+                    return YELLOW + "WARNING" + RESET;
                 case "INFO":
-                    return GREEN + level.getName() + RESET;
+                    return GREEN + "INFO" + RESET;
                 case "CONFIG":
-                    return CYAN + level.getName() + RESET;
+                    return CYAN + "CONFIG" + RESET;
                 case "FINE":
-                    return BLUE + level.getName() + RESET;
+                    return BLUE + "FINE" + RESET;
                 case "FINER":
-                    return PURPLE + level.getName() + RESET;
+                    return PURPLE + "FINER" + RESET;
                 case "FINEST":
-                    return WHITE + level.getName() + RESET;
+                    return WHITE + "FINEST" + RESET;
                 default:
                     return BLACK + level.getName() + RESET;
             }
@@ -138,22 +242,38 @@ public enum LoggerUtil {
             String logPattern = config.getLogLocation().replace(".log", "-%g.log");
             // FileHandler writes log messages to a specified file, with support for
             // rotating log files
-            FileHandler fileHandler = new FileHandler(
-                    logPattern,
-                    config.getFileSizeLimit(),
-                    config.getFileCount(),
-                    true);
+            FileHandler fileHandler = config.isAsync()
+                    ? new BatchFileHandler(logPattern, config.getFileSizeLimit(), config.getFileCount(), true)
+                    : new FileHandler(
+                            logPattern,
+                            config.getFileSizeLimit(),
+                            config.getFileCount(),
+                            true);
             fileHandler.setFormatter(new CustomFormatter());
             fileHandler.setLevel(config.getFileLogLevel());
-            logger.addHandler(fileHandler);
 
             // ConsoleHandler prints log messages to the console
-            ConsoleHandler consoleHandler = new ConsoleHandler();
+            ConsoleHandler consoleHandler = config.isAsync() ? new BatchConsoleHandler() : new ConsoleHandler();
             consoleHandler.setFormatter(new CustomFormatter());
             consoleHandler.setLevel(config.getConsoleLogLevel());
-            logger.addHandler(consoleHandler);
 
-            logger.setLevel(Level.ALL);
+            if (config.isAsync()) {
+                // the caller only queues the record; a background thread formats and writes it
+                asyncHandler = new AsyncLogHandler(new Handler[] { fileHandler, consoleHandler },
+                        config.getAsyncBufferSize(), config.getOverflowPolicy(), config.getAsyncBatchSize());
+                logger.addHandler(asyncHandler);
+                // write out whatever is still buffered when the JVM exits
+                Runtime.getRuntime().addShutdownHook(new Thread(asyncHandler::close, "log-writer-shutdown"));
+            } else {
+                logger.addHandler(fileHandler);
+                logger.addHandler(consoleHandler);
+            }
+
+            // records below every handler's level are dropped before they're built
+            Level lowest = config.getFileLogLevel().intValue() < config.getConsoleLogLevel().intValue()
+                    ? config.getFileLogLevel()
+                    : config.getConsoleLogLevel();
+            logger.setLevel(lowest);
             isConfigured = true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -167,9 +287,7 @@ public enum LoggerUtil {
      * @param message the log message
      */
     public void log(Level level, String message) {
-        if (!isConfigured)
-            setupLogger();
-        logger.log(level, message);
+        log(level, message, (Throwable) null);
     }
 
     /**
@@ -226,6 +344,140 @@ public enum LoggerUtil {
         log(Level.FINEST, message);
     }
 
+    /**
+     * Checks whether a message at the given level would be logged.
+     * Use this to guard log statements whose message is expensive to build.
+     * 
+     * @param level the level to check
+     * @return true if a message at this level reaches at least one handler
+     */
+    public boolean isLoggable(Level level) {
+        if (!isConfigured)
+            setupLogger();
+        return logger.isLoggable(level);
+    }
+
+    /**
+     * Logs a message at the specified level, building it only if that level
+     * is enabled.
+     * 
+     * @param level           the level of the log message
+     * @param messageSupplier produces the log message
+     */
+    public void log(Level level, Supplier<String> messageSupplier) {
+        if (isLoggable(level)) {
+            log(level, messageSupplier.get(), (Throwable) null);
+        }
+    }
+
+    /**
+     * Logs a message at the specified level, formatting it (String.format()
+     * style) only if that level is enabled.
+     * 
+     * @param level  the level of the log message
+     * @param format the format string
+     * @param args   the format arguments
+     */
+    public void log(Level level, String format, Object... args) {
+        if (isLoggable(level)) {
+            log(level, String.format(format, args), (Throwable) null);
+        }
+    }
+
+    /**
+     * Logs an informational message built only if INFO is enabled.
+     * 
+     * @param messageSupplier produces the log message
+     */
+    public void info(Supplier<String> messageSupplier) {
+        log(Level.INFO, messageSupplier);
+    }
+
+    /**
+     * Logs an informational message formatted only if INFO is enabled.
+     * 
+     * @param format the format string
+     * @param args   the format arguments
+     */
+    public void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    /**
+     * Logs a warning message built only if WARNING is enabled.
+     * 
+     * @param messageSupplier produces the log message
+     */
+    public void warning(Supplier<String> messageSupplier) {
+        log(Level.WARNING, messageSupplier);
+    }
+
+    /**
+     * Logs a warning message formatted only if WARNING is enabled.
+     * 
+     * @param format the format string
+     * @param args   the format arguments
+     */
+    public void warning(String format, Object... args) {
+        log(Level.WARNING, format, args);
+    }
+
+    /**
+     * Logs a severe error message built only if SEVERE is enabled.
+     * 
+     * @param messageSupplier produces the log message
+     */
+    public void severe(Supplier<String> messageSupplier) {
+        log(Level.SEVERE, messageSupplier);
+    }
+
+    /**
+     * Logs a severe error message formatted only if SEVERE is enabled.
+     * 
+     * @param format the format string
+     * @param args   the format arguments
+     */
+    public void severe(String format, Object... args) {
+        log(Level.SEVERE, format, args);
+    }
+
+    /**
+     * Logs a fine-grained message built only if FINE is enabled.
+     * 
+     * @param messageSupplier produces the log message
+     */
+    public void fine(Supplier<String> messageSupplier) {
+        log(Level.FINE, messageSupplier);
+    }
+
+    /**
+     * Logs a fine-grained message formatted only if FINE is enabled.
+     * 
+     * @param format the format string
+     * @param args   the format arguments
+     */
+    public void fine(String format, Object... args) {
+        log(Level.FINE, format, args);
+    }
+
+    /**
+     * Logs a finer-grained message built only if FINER is enabled.
+     * 
+     * @param messageSupplier produces the log message
+     */
+    public void finer(Supplier<String> messageSupplier) {
+        log(Level.FINER, messageSupplier);
+    }
+
+    /**
+     * Logs the finest-grained message built only if FINEST is enabled.
+     * 
+     * @param messageSupplier produces the log message
+     */
+    public void finest(Supplier<String> messageSupplier) {
+        log(Level.FINEST, messageSupplier);
+    }
+
     /**
      * Logs an exception at the specified level.
      * 
@@ -236,7 +488,15 @@ public enum LoggerUtil {
     public void log(Level level, String message, Throwable throwable) {
         if (!isConfigured)
             setupLogger();
-        logger.log(level, message, throwable);
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        LogRecord record = new LogRecord(level, message);
+        record.setThrown(throwable);
+        record.setLoggerName(logger.getName());
+        // captured here, on the caller's thread; null skips the lookup (shown as "unknown")
+        record.setSourceClassName(config.isCaptureCaller() ? findCallingClassName() : null);
+        logger.log(record);
     }
 
     /**
@@ -279,6 +539,11 @@ public enum LoggerUtil {
         private String logLocation = "application.log";
         private Level fileLogLevel = Level.ALL; // default log level for file
         private Level consoleLogLevel = Level.ALL; // default log level for console
+        private boolean async = false; // format and write on a background thread
+        private int asyncBufferSize = 8192; // records buffered for the background writer
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP; // when the buffer is full
+        private int asyncBatchSize = 256; // records written per flush
+        private boolean captureCaller = true; // look up the calling class for each record
 
         // Getters and Setters for each property
 
@@ -371,6 +636,99 @@ public enum LoggerUtil {
         public void setConsoleLogLevel(Level consoleLogLevel) {
             this.consoleLogLevel = consoleLogLevel;
         }
+
+        /**
+         * Checks whether records are written by a background thread.
+         * 
+         * @return true if logging is asynchronous
+         */
+        public boolean isAsync() {
+            return async;
+        }
+
+        /**
+         * Sets whether records are written by a background thread, so slow
+         * log I/O never holds up the logging thread.
+         * 
+         * @param async true to log asynchronously
+         */
+        public void setAsync(boolean async) {
+            this.async = async;
+        }
+
+        /**
+         * Gets the number of records buffered for the background writer.
+         * 
+         * @return the buffer size in records
+         */
+        public int getAsyncBufferSize() {
+            return asyncBufferSize;
+        }
+
+        /**
+         * Sets the number of records buffered for the background writer.
+         * 
+         * @param asyncBufferSize the buffer size in records
+         */
+        public void setAsyncBufferSize(int asyncBufferSize) {
+            this.asyncBufferSize = asyncBufferSize;
+        }
+
+        /**
+         * Gets what happens to a record when the async buffer is full.
+         * 
+         * @return the overflow policy
+         */
+        public OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        /**
+         * Sets what happens to a record when the async buffer is full.
+         * 
+         * @param overflowPolicy DROP to discard it, BLOCK to wait for room
+         */
+        public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        /**
+         * Gets the most records the background writer writes between flushes.
+         * 
+         * @return the batch size in records
+         */
+        public int getAsyncBatchSize() {
+            return asyncBatchSize;
+        }
+
+        /**
+         * Sets the most records the background writer writes between flushes.
+         * 
+         * @param asyncBatchSize the batch size in records
+         */
+        public void setAsyncBatchSize(int asyncBatchSize) {
+            this.asyncBatchSize = asyncBatchSize;
+        }
+
+        /**
+         * Checks whether each record is tagged with the class that logged it.
+         * 
+         * @return true if the caller is looked up
+         */
+        public boolean isCaptureCaller() {
+            return captureCaller;
+        }
+
+        /**
+         * Sets whether each record is tagged with the class that logged it.
+         * Turning it off skips a stack walk per record; the source then shows
+         * as "unknown".
+         * 
+         * @param captureCaller true to look up the caller
+         */
+        public void setCaptureCaller(boolean captureCaller) {
+            this.captureCaller = captureCaller;
+        }
     }
 
     /**
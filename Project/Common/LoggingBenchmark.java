@@ -0,0 +1,104 @@
+package Project.Common;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Records/sec through LoggerUtil's formatting path, old vs current, plus an
+ * end-to-end run through LoggerUtil into a log file.
+ * <p>
+ * The "legacy" rows reproduce what CustomFormatter used to do per record:
+ * capture the whole stack with Thread.getStackTrace() to find the caller,
+ * build a new SimpleDateFormat and assemble the line with String.format().
+ * This class is itself in Project.Common, which the caller lookup skips, so
+ * the lookup rows walk the whole stack; that's the worst case for both, a
+ * real caller in Project.Server is found a few frames up.
+ * LoggerUtil can only be configured once per JVM, so the end-to-end mode is
+ * picked by argument:
+ * </p>
+ *
+ * <pre>
+ * java Project.Common.LoggingBenchmark sync
+ * java Project.Common.LoggingBenchmark async
+ * </pre>
+ */
+public class LoggingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        boolean async = args.length == 0 || !"sync".equalsIgnoreCase(args[0]);
+
+        MicroBench.measure("caller lookup, full stack: getStackTrace (legacy)",
+                () -> MicroBench.consume(legacyCallingClassName()));
+        MicroBench.measure("caller lookup, full stack: StackWalker",
+                () -> MicroBench.consume(LoggerUtil.findCallingClassName()));
+
+        MicroBench.measure("timestamp: new SimpleDateFormat (legacy)",
+                () -> MicroBench.consume(new SimpleDateFormat("MM/dd/yyyy HH:mm:ss").format(new Date())));
+
+        MicroBench.measure("format record (legacy)", () -> {
+            LogRecord record = new LogRecord(Level.INFO, "Sending Payload: message");
+            MicroBench.consume(legacyFormat(record));
+        });
+        measureFormatter();
+
+        LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
+        config.setLogLocation("benchmark.log");
+        config.setFileSizeLimit(64 * 1024 * 1024);
+        config.setFileCount(1);
+        config.setFileLogLevel(Level.INFO);
+        config.setConsoleLogLevel(Level.OFF);
+        config.setAsync(async);
+        // block instead of drop so the rate is what actually reaches the file
+        config.setOverflowPolicy(LoggerUtil.OverflowPolicy.BLOCK);
+        LoggerUtil.INSTANCE.setConfig(config);
+        MicroBench.measure(String.format("LoggerUtil.info to file (%s)", async ? "async" : "sync"),
+                () -> LoggerUtil.INSTANCE.info("Sending Payload: message"));
+        LoggerUtil.INSTANCE.flush();
+    }
+
+    /**
+     * The current formatting path only, with and without caller capture (also
+     * run by Project.Server.BenchmarkSuite)
+     */
+    public static void measureFormatter() {
+        LoggerUtil.CustomFormatter formatter = new LoggerUtil.CustomFormatter();
+        MicroBench.measure("format record: CustomFormatter, no caller capture", () -> {
+            LogRecord record = new LogRecord(Level.INFO, "Sending Payload: message");
+            // as LoggerUtil.log() does; left unset, getSourceClassName() infers the caller itself
+            record.setSourceClassName(null);
+            MicroBench.consume(formatter.format(record));
+        });
+        MicroBench.measure("format record: caller lookup + CustomFormatter", () -> {
+            LogRecord record = new LogRecord(Level.INFO, "Sending Payload: message");
+            record.setSourceClassName(LoggerUtil.findCallingClassName());
+            MicroBench.consume(formatter.format(record));
+        });
+    }
+
+    private static String legacyCallingClassName() {
+        String loggerUtilPackage = LoggerUtil.class.getPackage().getName();
+        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+        for (StackTraceElement element : stackTrace) {
+            String className = element.getClassName();
+            if (!className.startsWith("java.util.logging") &&
+                    !className.startsWith(loggerUtilPackage) &&
+                    !className.equals(Thread.class.getName())) {
+                return className;
+            }
+        }
+        return null;
+    }
+
+    private static String legacyFormat(LogRecord record) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
+        String date = dateFormat.format(new Date(record.getMillis()));
+        String callingClass = legacyCallingClassName();
+        String source = callingClass != null ? callingClass
+                : record.getSourceClassName() != null ? record.getSourceClassName() : "unknown";
+        String level = "\u001B[32m" + record.getLevel().getName() + "\u001B[0m";
+        return String.format("%s [%s] (%s):\n\u001B[34m>\u001B[0m %s%s\n", date, source, level, record.getMessage(),
+                "");
+    }
+}
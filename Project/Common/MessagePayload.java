@@ -0,0 +1,34 @@
+package Project.Common;
+
+/**
+ * A message broadcast in a room, with its number in the room's history, so
+ * a client can tell where to page back from (see HistoryPayload). Server
+ * notices and mute notifications stay plain MESSAGE Payloads.
+ */
+public class MessagePayload extends Payload {
+    private static final long serialVersionUID = 1838828867339954733L;
+    private long sequence;
+
+    public MessagePayload(long clientId, String message, long sequence) {
+        setPayloadType(PayloadType.MESSAGE);
+        setClientId(clientId);
+        setMessage(message);
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return the message's number within its room, from 1
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s Sequence [%s]", super.toString(), sequence);
+    }
+}
@@ -0,0 +1,65 @@
+package Project.Common;
+
+/**
+ * Base for the values kept in {@link MetricsRegistry}: a name, a one-line
+ * description and at most one label (e.g. {@code type=MESSAGE}).
+ * <p>
+ * Names follow the Prometheus conventions (snake_case, counters end in
+ * {@code _total}, the unit is part of the name) so they can be exported as-is.
+ * </p>
+ */
+public abstract class Metric {
+    public enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private final String name;
+    private final String help;
+    private final String labelName; // null when unlabeled
+    private final String labelValue;
+
+    protected Metric(String name, String help, String labelName, String labelValue) {
+        this.name = name;
+        this.help = help;
+        this.labelName = labelName;
+        this.labelValue = labelValue;
+    }
+
+    public abstract Type getType();
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * @return the label's name, or null if this metric has no label
+     */
+    public String getLabelName() {
+        return labelName;
+    }
+
+    public String getLabelValue() {
+        return labelValue;
+    }
+
+    /**
+     * @return name plus label, unique within a registry, e.g.
+     *         {@code server_payloads_received_total{type="MESSAGE"}}
+     */
+    public String getKey() {
+        return key(name, labelName, labelValue);
+    }
+
+    static String key(String name, String labelName, String labelValue) {
+        return labelName == null ? name : name + "{" + labelName + "=\"" + labelValue + "\"}";
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
@@ -0,0 +1,82 @@
+package Project.Common;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide set of named metrics, read by whatever exports them.
+ * <p>
+ * The get-or-create methods are meant to be called once, when the owner is
+ * set up, with the result kept in a field; updating a metric never goes
+ * through the registry. Asking again for an existing name returns the same
+ * instance (gauges excepted: a new gauge replaces the old one, since its
+ * supplier belongs to whoever registered it last).
+ * </p>
+ */
+public enum MetricsRegistry {
+    INSTANCE;
+
+    private final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    public Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    public Counter counter(String name, String help, String labelName, String labelValue) {
+        return get(Metric.key(name, labelName, labelValue), Counter.class,
+                () -> new Counter(name, help, labelName, labelValue));
+    }
+
+    public Histogram histogram(String name, String help) {
+        return histogram(name, help, null, null);
+    }
+
+    public Histogram histogram(String name, String help, String labelName, String labelValue) {
+        return get(Metric.key(name, labelName, labelValue), Histogram.class,
+                () -> new Histogram(name, help, labelName, labelValue));
+    }
+
+    public Gauge gauge(String name, String help, LongSupplier value) {
+        return gauge(name, help, null, null, value);
+    }
+
+    public Gauge gauge(String name, String help, String labelName, String labelValue, LongSupplier value) {
+        Gauge gauge = new Gauge(name, help, labelName, labelValue, value);
+        metrics.put(gauge.getKey(), gauge);
+        return gauge;
+    }
+
+    private <T extends Metric> T get(String key, Class<T> type, Supplier<T> factory) {
+        Metric metric = metrics.computeIfAbsent(key, k -> factory.get());
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(
+                    String.format("Metric %s is already registered as a %s", key, metric.getType()));
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * Unregisters the metric, unless its name has since been taken by another
+     * instance (e.g. a gauge for a room that was closed and recreated)
+     *
+     * @param metric
+     * @return true if it was removed
+     */
+    public boolean remove(Metric metric) {
+        return metric != null && metrics.remove(metric.getKey(), metric);
+    }
+
+    /**
+     * @return every registered metric, sorted by name then label value
+     */
+    public List<Metric> getMetrics() {
+        List<Metric> list = new ArrayList<>(metrics.values());
+        list.sort(Comparator.comparing(Metric::getName)
+                .thenComparing(Metric::getLabelValue, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return list;
+    }
+}
@@ -0,0 +1,258 @@
+package Project.Common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal micro-benchmark harness (warmup, then timed batches) for the
+ * *Benchmark classes.
+ * <p>
+ * The project has no build tooling to pull in JMH, so this keeps to the same
+ * idea: run the operation until the JIT settles, then time it over several
+ * iterations and report the median iteration's average time per operation
+ * (a GC pause or a noisy neighbour only spoils one iteration). Results are
+ * consumed through {@link #consume(Object)} so the JIT can't eliminate the
+ * work.
+ * </p>
+ * <p>
+ * Every measurement is also kept in memory so a run can be saved as JSON
+ * ({@link #writeJson(Path)}) and compared against an earlier one
+ * ({@link #readJson(Path)}).
+ * </p>
+ */
+public abstract class MicroBench {
+    private static final int BATCH = 1000;
+    private static final int ITERATIONS = 5;
+    private static volatile Object sink;
+    private static final List<Result> results = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * One measured operation
+     */
+    public static class Result {
+        private final String name;
+        private final long operations;
+        private final double nsPerOp;
+        private final double minNsPerOp;
+        private final double maxNsPerOp;
+
+        Result(String name, long operations, double nsPerOp, double minNsPerOp, double maxNsPerOp) {
+            this.name = name;
+            this.operations = operations;
+            this.nsPerOp = nsPerOp;
+            this.minNsPerOp = minNsPerOp;
+            this.maxNsPerOp = maxNsPerOp;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return operations run across all measured iterations
+         */
+        public long getOperations() {
+            return operations;
+        }
+
+        /**
+         * @return median of the iterations' ns/op
+         */
+        public double getNsPerOp() {
+            return nsPerOp;
+        }
+
+        public double getMinNsPerOp() {
+            return minNsPerOp;
+        }
+
+        public double getMaxNsPerOp() {
+            return maxNsPerOp;
+        }
+
+        public double getOpsPerSec() {
+            return 1e9 / nsPerOp;
+        }
+    }
+
+    /**
+     * An operation to benchmark
+     */
+    @FunctionalInterface
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Keeps a result reachable so the work producing it isn't optimized away
+     *
+     * @param value
+     */
+    public static void consume(Object value) {
+        sink = value;
+    }
+
+    /**
+     * Runs the operation for warmupMillis, then measures it for measureMillis
+     * (split into iterations) and prints the result
+     *
+     * @param name          label to print
+     * @param warmupMillis
+     * @param measureMillis
+     * @param op
+     * @return median nanoseconds per operation
+     */
+    public static double measure(String name, long warmupMillis, long measureMillis, Operation op) {
+        try {
+            runFor(warmupMillis, op);
+            double[] nsPerOp = new double[ITERATIONS];
+            long operations = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long[] measured = runFor(Math.max(1, measureMillis / ITERATIONS), op);
+                operations += measured[0];
+                nsPerOp[i] = (double) measured[1] / measured[0];
+            }
+            Arrays.sort(nsPerOp);
+            Result result = new Result(name.trim(), operations, nsPerOp[ITERATIONS / 2], nsPerOp[0],
+                    nsPerOp[ITERATIONS - 1]);
+            results.add(result);
+            System.out.println(String.format("%-48s %12.1f ns/op %14.0f ops/s", name, result.getNsPerOp(),
+                    result.getOpsPerSec()));
+            return result.getNsPerOp();
+        } catch (Exception e) {
+            throw new IllegalStateException("Benchmark " + name + " failed", e);
+        }
+    }
+
+    /**
+     * Shorthand using 1s warmup and 2s measurement
+     *
+     * @param name
+     * @param op
+     * @return median nanoseconds per operation
+     */
+    public static double measure(String name, Operation op) {
+        return measure(name, 1000, 2000, op);
+    }
+
+    private static long[] runFor(long millis, Operation op) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long deadline = start + millis * 1_000_000L;
+        long now;
+        do {
+            for (int i = 0; i < BATCH; i++) {
+                op.run();
+            }
+            ops += BATCH;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return new long[] { ops, now - start };
+    }
+
+    /**
+     * @return everything measured so far in this JVM, in order
+     */
+    public static List<Result> getResults() {
+        synchronized (results) {
+            return new ArrayList<>(results);
+        }
+    }
+
+    /**
+     * Saves every result so far, one benchmark per line:
+     *
+     * <pre>
+     * {
+     *   "timestamp": "...", "java": "21.0.1", "os": "Linux", "cpus": 4,
+     *   "benchmarks": [
+     *     {"name": "...", "nsPerOp": 12.3, "minNsPerOp": 12.1, "maxNsPerOp": 13.0,
+     *      "opsPerSec": 81300813, "operations": 162600000},
+     *     ...
+     *   ]
+     * }
+     * </pre>
+     *
+     * @param file
+     * @throws IOException
+     */
+    public static void writeJson(Path file) throws IOException {
+        List<Result> snapshot = getResults();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append(String.format("  \"timestamp\": \"%s\", \"java\": \"%s\", \"os\": \"%s\", \"cpus\": %s,\n",
+                Instant.now(), escape(System.getProperty("java.version")), escape(System.getProperty("os.name")),
+                Runtime.getRuntime().availableProcessors()));
+        sb.append("  \"benchmarks\": [\n");
+        for (int i = 0; i < snapshot.size(); i++) {
+            Result r = snapshot.get(i);
+            sb.append(String.format(Locale.ROOT,
+                    "    {\"name\": \"%s\", \"nsPerOp\": %.3f, \"minNsPerOp\": %.3f, \"maxNsPerOp\": %.3f, "
+                            + "\"opsPerSec\": %.0f, \"operations\": %s}%s\n",
+                    escape(r.getName()), r.getNsPerOp(), r.getMinNsPerOp(), r.getMaxNsPerOp(), r.getOpsPerSec(),
+                    r.getOperations(),
+                    i + 1 < snapshot.size() ? "," : ""));
+        }
+        sb.append("  ]\n}\n");
+        Files.writeString(file, sb.toString(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads back a file written by {@link #writeJson(Path)}
+     *
+     * @param file
+     * @return results by benchmark name, in file order
+     * @throws IOException
+     */
+    public static Map<String, Result> readJson(Path file) throws IOException {
+        Map<String, Result> read = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            int nameAt = line.indexOf("{\"name\": \"");
+            if (nameAt < 0) {
+                continue;
+            }
+            int nameStart = nameAt + "{\"name\": \"".length();
+            int nameEnd = nameStart;
+            while (nameEnd < line.length() && line.charAt(nameEnd) != '"') {
+                nameEnd += line.charAt(nameEnd) == '\\' ? 2 : 1;
+            }
+            String name = line.substring(nameStart, nameEnd).replace("\\\"", "\"").replace("\\\\", "\\");
+            double nsPerOp = readNumber(line, "nsPerOp", nameEnd);
+            read.put(name, new Result(name, (long) readNumber(line, "operations", nameEnd), nsPerOp,
+                    readNumber(line, "minNsPerOp", nameEnd, nsPerOp), readNumber(line, "maxNsPerOp", nameEnd, nsPerOp)));
+        }
+        return read;
+    }
+
+    private static double readNumber(String line, String key, int from) {
+        return readNumber(line, key, from, Double.NaN);
+    }
+
+    private static double readNumber(String line, String key, int from, double missing) {
+        String prefix = "\"" + key + "\": ";
+        int start = line.indexOf(prefix, from);
+        if (start < 0) {
+            return missing;
+        }
+        start += prefix.length();
+        int end = start;
+        while (end < line.length() && line.charAt(end) != ',' && line.charAt(end) != '}') {
+            end++;
+        }
+        return Double.parseDouble(line.substring(start, end));
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
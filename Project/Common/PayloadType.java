@@ -15,5 +15,6 @@ public enum PayloadType {
     UNMUTE,
     PRIVATE_MESSAGE,
     MUTE_UNMUTE_NOTIFICATION,
-    USER_STATUS_UPDATE
+    USER_STATUS_UPDATE,
+    HISTORY // client: ask for older messages of a room, server: a page of them (or the recent ones, on join)
 }
@@ -0,0 +1,99 @@
+package Project.Common;
+
+import java.util.List;
+
+/**
+ * Renders metrics in the Prometheus text exposition format (version 0.0.4).
+ * <p>
+ * A Histogram's 1024 internal buckets are too fine to export, so it's
+ * exported with one {@code le} bucket per power of two (upper bounds
+ * 2^n - 1), from 0 up to the one holding the largest recorded value, plus
+ * {@code +Inf}. Those bounds never change, so a bucket's series stays the
+ * same across scrapes.
+ * </p>
+ */
+public abstract class PrometheusFormat {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * @param metrics as returned by MetricsRegistry.getMetrics() (sorted, so a
+     *                name's series are together)
+     * @return the exposition text
+     */
+    public static String format(List<Metric> metrics) {
+        StringBuilder sb = new StringBuilder(metrics.size() * 64);
+        String lastName = null;
+        for (Metric metric : metrics) {
+            if (!metric.getName().equals(lastName)) {
+                lastName = metric.getName();
+                sb.append("# HELP ").append(lastName).append(' ').append(escapeHelp(metric.getHelp())).append('\n');
+                sb.append("# TYPE ").append(lastName).append(' ').append(metric.getType().name().toLowerCase())
+                        .append('\n');
+            }
+            switch (metric.getType()) {
+                case COUNTER:
+                    sample(sb, metric.getName(), metric, null, ((Counter) metric).get());
+                    break;
+                case GAUGE:
+                    sample(sb, metric.getName(), metric, null, ((Gauge) metric).get());
+                    break;
+                case HISTOGRAM:
+                    histogram(sb, (Histogram) metric);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void histogram(StringBuilder sb, Histogram histogram) {
+        // read count first: buckets may then hold a few more, never fewer
+        long count = histogram.getCount();
+        long sum = histogram.getSum();
+        long max = histogram.getMax();
+        String bucketName = histogram.getName() + "_bucket";
+        long cumulative = 0;
+        int index = 0;
+        // Histogram bucket bounds line up with every 2^n - 1
+        for (long bound = 0; index < Histogram.BUCKET_COUNT; bound = bound * 2 + 1) {
+            while (index < Histogram.BUCKET_COUNT && Histogram.getBucketUpperBound(index) <= bound) {
+                cumulative += histogram.getBucketCount(index++);
+            }
+            sample(sb, bucketName, histogram, Long.toString(bound), Math.min(cumulative, count));
+            if (bound >= max) {
+                break;
+            }
+        }
+        sample(sb, bucketName, histogram, "+Inf", count);
+        sample(sb, histogram.getName() + "_sum", histogram, null, sum);
+        sample(sb, histogram.getName() + "_count", histogram, null, count);
+    }
+
+    private static void sample(StringBuilder sb, String name, Metric metric, String le, long value) {
+        sb.append(name);
+        if (metric.getLabelName() != null || le != null) {
+            sb.append('{');
+            if (metric.getLabelName() != null) {
+                sb.append(metric.getLabelName()).append("=\"").append(escapeLabel(metric.getLabelValue()))
+                        .append('"');
+                if (le != null) {
+                    sb.append(',');
+                }
+            }
+            if (le != null) {
+                sb.append("le=\"").append(le).append('"');
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String escapeLabel(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String escapeHelp(String help) {
+        return help == null ? "" : help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+}
@@ -3,8 +3,30 @@ package Project.Common;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * One page of a room search, in both directions.
+ * <p>
+ * Client to server: the query is the message (as with a plain ROOM_LIST
+ * Payload, which the server still accepts as a first page of its default
+ * size), cursor is null for the first page or the previous page's cursor,
+ * and pageSize is how many rooms to send (capped by the server).
+ * </p>
+ * <p>
+ * Server to client: the page's rooms, the query they match, the cursor
+ * for the next page (null on the last one) and, on the first page only, how
+ * many rooms match in total (-1 otherwise).
+ * </p>
+ */
 public class RoomResultsPayload extends Payload {
+    // pinned to the pre-paging value; the added fields are a compatible change, so older
+    // OBJECT_STREAM clients still read the first page as a plain room list
+    private static final long serialVersionUID = 752398617117660204L;
     private List<String> rooms = new ArrayList<String>();
+    private String query;
+    private String cursor;
+    private int pageSize = 0; // 0 = server default
+    private long totalCount = -1;
+    private boolean isTotalCapped = false;
 
     public RoomResultsPayload() {
         setPayloadType(PayloadType.ROOM_LIST);
@@ -17,4 +39,64 @@ public class RoomResultsPayload extends Payload {
     public void setRooms(List<String> rooms) {
         this.rooms = rooms;
     }
+
+    /**
+     * @return the query this page answers (server to client)
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    /**
+     * @return opaque continuation token: where the requested page starts, or
+     *         where the next one does; null for the first/last page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return rooms matching the query in total, or -1 if not counted
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(long totalCount) {
+        this.totalCount = totalCount;
+    }
+
+    /**
+     * @return true if the server stopped counting and more than
+     *         getTotalCount() rooms match
+     */
+    public boolean isTotalCapped() {
+        return isTotalCapped;
+    }
+
+    public void setTotalCapped(boolean isTotalCapped) {
+        this.isTotalCapped = isTotalCapped;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s Rooms [%s] Query [%s] Cursor [%s] Total [%s%s]", super.toString(),
+                rooms == null ? 0 : rooms.size(), query, cursor, totalCount, isTotalCapped ? "+" : "");
+    }
 }
@@ -0,0 +1,86 @@
+package Project.Common;
+
+/**
+ * Decides when a long-lived ObjectOutputStream should be reset.
+ * <p>
+ * An ObjectOutputStream remembers every object it has written so it can send
+ * back-references, and the ObjectInputStream on the other end mirrors that
+ * table. Neither forgets anything until reset() is called, so a connection that
+ * never resets keeps every Payload it ever sent reachable on both ends. Calling
+ * reset() every so often (by object count or by bytes written, whichever comes
+ * first) bounds both tables at the cost of re-sending class descriptors once
+ * per reset.
+ * </p>
+ * <p>
+ * One instance per stream, updated only by the thread writing to it. The
+ * counters are volatile so diagnostics can read them from elsewhere.
+ * </p>
+ */
+public class StreamResetPolicy {
+    private final int maxObjects;
+    private final long maxBytes;
+    private volatile int objectsSinceReset = 0;
+    private volatile long bytesSinceReset = 0;
+    private volatile long resets = 0;
+
+    /**
+     * @param maxObjects reset after this many objects, 0 to ignore the count
+     * @param maxBytes   reset after this many bytes, 0 to ignore the size
+     */
+    public StreamResetPolicy(int maxObjects, long maxBytes) {
+        this.maxObjects = maxObjects;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Records an object written to the stream
+     *
+     * @param bytes size of the object on the wire
+     * @return true if the caller should reset the stream now (then call
+     *         {@link #onReset()})
+     */
+    public boolean onWrite(long bytes) {
+        int objects = objectsSinceReset + 1;
+        long size = bytesSinceReset + bytes;
+        objectsSinceReset = objects;
+        bytesSinceReset = size;
+        return (maxObjects > 0 && objects >= maxObjects) || (maxBytes > 0 && size >= maxBytes);
+    }
+
+    /**
+     * Records that the stream was reset, whether the policy asked for it or not
+     */
+    public void onReset() {
+        objectsSinceReset = 0;
+        bytesSinceReset = 0;
+        resets++;
+    }
+
+    /**
+     * @return objects the stream (and its reader) currently hold handles for
+     */
+    public int getObjectsSinceReset() {
+        return objectsSinceReset;
+    }
+
+    /**
+     * @return bytes written since the last reset, a rough proxy for the memory
+     *         the handle tables keep reachable
+     */
+    public long getBytesSinceReset() {
+        return bytesSinceReset;
+    }
+
+    /**
+     * @return number of resets so far
+     */
+    public long getResets() {
+        return resets;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s objects / %s bytes since last reset, %s resets", objectsSinceReset,
+                bytesSinceReset, resets);
+    }
+}
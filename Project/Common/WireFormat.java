@@ -0,0 +1,41 @@
+package Project.Common;
+
+/**
+ * Encodings a connection can speak, decided by the first byte the client sends.
+ */
+public enum WireFormat {
+    OBJECT_STREAM, // legacy: one long-lived ObjectOutputStream, no framing
+    SERIALIZED_FRAMES, // length-prefixed frames holding a standalone serialized Payload
+    BINARY_FRAMES; // length-prefixed frames holding a BinaryPayloadCodec body
+
+    /**
+     * Sent once by binary clients before their first frame.
+     * Can't be mistaken for the stream magic (0xAC) or the first byte of a frame
+     * length (0x00, since frames are capped well below 16MB).
+     */
+    public static final int HANDSHAKE_BINARY = 0x01;
+
+    /**
+     * Identifies the client's encoding from the first byte it sent
+     *
+     * @param firstByte
+     * @return the matching format
+     */
+    public static WireFormat detect(int firstByte) {
+        switch (firstByte & 0xFF) {
+            case FrameCodec.STREAM_MAGIC_HIGH:
+                return OBJECT_STREAM;
+            case HANDSHAKE_BINARY:
+                return BINARY_FRAMES;
+            default:
+                return SERIALIZED_FRAMES;
+        }
+    }
+
+    /**
+     * @return true if the handshake byte has to be consumed before reading frames
+     */
+    public boolean hasHandshake() {
+        return this == BINARY_FRAMES;
+    }
+}
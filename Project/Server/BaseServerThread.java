@@ -1,21 +1,101 @@
 package Project.Server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.SequenceInputStream;
 import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
+import Project.Common.EncodedPayload;
+import Project.Common.FrameCodec;
 import Project.Common.LoggerUtil;
 import Project.Common.Payload;
+import Project.Common.PayloadType;
+import Project.Common.StreamResetPolicy;
+import Project.Common.WireFormat;
 
 /**
- * Base class the handles the underlying connection between Client and Server-side
+ * Base class the handles the underlying connection between Client and Server-side.
+ * <p>
+ * This is a Runnable rather than a Thread so the read loop can run on either a
+ * platform or a virtual thread (see ConnectionMode), or on no dedicated thread
+ * at all when the NioServerEngine drives it.
+ * </p>
+ * <p>
+ * Outbound payloads are coalesced: the writer keeps writing into one buffer
+ * while more payloads are queued (waiting up to the configured flush delay
+ * for stragglers) and flushes once per batch instead of once per payload.
+ * </p>
  */
-public abstract class BaseServerThread extends Thread {
+public abstract class BaseServerThread implements Runnable {
     
     protected boolean isRunning = false; // control variable to stop this thread
-    protected ObjectOutputStream out; // exposed here for send()
+    protected ObjectOutputStream out; // exposed here for send() (legacy clients)
+    private OutputStream rawOut; // stream under out, for splicing pre-encoded payloads
+    private BatchOutputStream batchOut; // buffers everything written until the batch is flushed
+    private StreamResetPolicy resetPolicy; // legacy clients only, keeps out's handle table bounded
+    protected DataOutputStream framedOut; // exposed here for send() (framed clients)
+    protected WireFormat wireFormat = WireFormat.OBJECT_STREAM; // decided by the client's first byte
     protected Socket client; // communication directly to "my" client
+    protected NioServerEngine.Connection nioConnection; // set when the NioServerEngine drives this client instead of run()
+    private byte[] preRead; // bytes the NioServerEngine consumed before handing a legacy client to this thread
+    private Thread thread; // thread running run(), null when driven by the NioServerEngine
+    private ThreadFactory threadFactory; // also used for the writer thread
+    private final OutboundQueue<EncodedPayload> outbound = new OutboundQueue<>(); // blocking modes only
+    private Thread writer; // drains outbound, null when driven by the NioServerEngine
+    private static final EncodedPayload CLOSE = new EncodedPayload(null); // tells the writer to finish up
+    private final int batchBytes = ServerConfig.INSTANCE.getOutboundBatchBytes();
+    private final long flushDelayNanos = TimeUnit.MICROSECONDS.toNanos(ServerConfig.INSTANCE.getOutboundFlushDelayMicros());
+
+    /**
+     * Buffered stream whose flush() only buffers; ObjectOutputStream flushes
+     * its underlying stream on every flush(), and we want the socket write to
+     * happen once per batch instead
+     */
+    private static class BatchOutputStream extends BufferedOutputStream {
+        private long pending = 0; // bytes written since the last flushBatch()
+
+        BatchOutputStream(OutputStream out, int size) {
+            super(out, size);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            super.write(b);
+            pending++;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            pending += len;
+        }
+
+        @Override
+        public void flush() {
+            // deferred to flushBatch()
+        }
+
+        long getPending() {
+            return pending;
+        }
+
+        synchronized void flushBatch() throws IOException {
+            super.flush();
+            pending = 0;
+        }
+    }
     
     /**
      * A wrapper method so we don't need to keep typing out the long/complex sysout
@@ -25,6 +105,19 @@ public abstract class BaseServerThread extends Thread {
      */
     protected abstract void info(String message);
 
+    /**
+     * Like info(String), but only formats the message (String.format() style)
+     * when INFO is enabled. Use it on per-message paths.
+     * 
+     * @param format
+     * @param args
+     */
+    protected void info(String format, Object... args) {
+        if (LoggerUtil.INSTANCE.isLoggable(Level.INFO)) {
+            info(String.format(format, args));
+        }
+    }
+
     /**
      * Triggered when object is fully initialized
      */
@@ -36,6 +129,41 @@ public abstract class BaseServerThread extends Thread {
      */
     protected abstract void processPayload(Payload payload);
 
+    /**
+     * Starts the read loop on a thread from the given factory
+     * 
+     * @param threadFactory platform or virtual thread factory
+     */
+    protected void start(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        thread = threadFactory.newThread(this);
+        thread.start();
+    }
+
+    /**
+     * Binds this client to a selector-driven connection.
+     * The thread is never started in this mode; the NioServerEngine reads and
+     * writes on its behalf.
+     *
+     * @param connection
+     */
+    protected void attach(NioServerEngine.Connection connection, WireFormat wireFormat) {
+        this.nioConnection = connection;
+        this.wireFormat = wireFormat;
+        this.client = connection.getSocket();
+        isRunning = true;
+    }
+
+    /**
+     * Bytes already read off the socket that must be replayed before reading
+     * from it directly
+     *
+     * @param preRead
+     */
+    protected void setPreRead(byte[] preRead) {
+        this.preRead = preRead;
+    }
+
     /**
      * Sends the payload over the socket
      * 
@@ -43,22 +171,173 @@ public abstract class BaseServerThread extends Thread {
      * @return true if no errors were encountered
      */
     protected boolean send(Payload payload) {
+        return send(new EncodedPayload(payload));
+    }
+
+    /**
+     * Sends a latency-sensitive payload; it's flushed as soon as it's written
+     * rather than waiting for the batch to fill
+     * 
+     * @param payload
+     * @return true if no errors were encountered
+     */
+    protected boolean sendImmediately(Payload payload) {
+        return send(EncodedPayload.forImmediateFlush(payload));
+    }
+
+    /**
+     * Queues an already encoded payload for this client's writer.
+     * Broadcasts share one EncodedPayload across every recipient so the payload
+     * is only encoded once per wire format.
+     * <p>
+     * Never blocks on the socket; a client that falls too far behind (see
+     * OutboundQueue) is closed and reported as a failed send so the Room can
+     * disconnect it.
+     * </p>
+     * 
+     * @param encoded
+     * @return true if no errors were encountered
+     */
+    protected boolean send(EncodedPayload encoded) {
+        if (client.isClosed()) {
+            ServerMetrics.SEND_FAILURES.increment();
+            return false;
+        }
         if(!isRunning){
             return true;
         }
         try {
-            LoggerUtil.INSTANCE.info("Sending Payload: " + payload);
-            out.writeObject(payload);
-            out.flush();
+            LoggerUtil.INSTANCE.info("Sending Payload: %s", encoded);
+            boolean queued = nioConnection != null ? nioConnection.write(encoded.bytes(wireFormat))
+                    : outbound.offer(encoded);
+            if (!queued) {
+                info("Outbound queue stayed over its limit (%s queued), dropping slow client", getOutboundDepth());
+                ServerMetrics.SEND_FAILURES.increment();
+                cleanup();
+                return false;
+            }
+            ServerMetrics.sent(encoded.getPayload().getPayloadType()).increment();
             return true;
         } catch (IOException e) {
             info("Error sending message to client (most likely disconnected)");
             // comment this out to inspect the stack trace
             // e.printStackTrace();
+            ServerMetrics.SEND_FAILURES.increment();
             cleanup();
             return false;
         }
     }
+
+    /**
+     * @return how this client's payloads are encoded
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * @return payloads waiting to be written to this client
+     */
+    public int getOutboundDepth() {
+        return nioConnection != null ? nioConnection.getOutboundDepth() : outbound.depth();
+    }
+
+    /**
+     * @return objects the legacy stream to this client holds handles for (0 for
+     *         framed clients)
+     */
+    public int getStreamObjectsSinceReset() {
+        return resetPolicy == null ? 0 : resetPolicy.getObjectsSinceReset();
+    }
+
+    /**
+     * @return bytes written on the legacy stream to this client since its last
+     *         reset (0 for framed clients)
+     */
+    public long getStreamBytesSinceReset() {
+        return resetPolicy == null ? 0 : resetPolicy.getBytesSinceReset();
+    }
+
+    /**
+     * Drains the outbound queue onto the socket (blocking modes only).
+     * A batch ends when it reaches batchBytes, when a payload asks to be
+     * flushed immediately, or when nothing else is queued within the flush
+     * delay.
+     */
+    private void writeLoop() {
+        try {
+            EncodedPayload next = outbound.take();
+            while (next != CLOSE) {
+                long deadline = System.nanoTime() + flushDelayNanos;
+                do {
+                    write(next);
+                    next = next.shouldFlushImmediately() || batchOut.getPending() >= batchBytes ? null
+                            : outbound.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } while (next != null && next != CLOSE);
+                flushBatch();
+                if (next == null) {
+                    next = outbound.take();
+                }
+            }
+            // disconnect() asked us to close once everything queued was written
+            cleanup();
+        } catch (InterruptedException e) {
+            // cleanup() interrupts us once the connection is done
+        } catch (IOException e) {
+            info("Error sending message to client (most likely disconnected)");
+            cleanup();
+        }
+    }
+
+    private void write(EncodedPayload encoded) throws IOException {
+        if (wireFormat != WireFormat.OBJECT_STREAM) {
+            framedOut.write(encoded.bytes(wireFormat));
+        } else if (encoded.isShared()) {
+            // splice the reset-prefixed chunk into the stream, then reset our side
+            // too so both handle tables start over from the same point
+            out.flush(); // only moves out's block data into batchOut
+            rawOut.write(encoded.bytes(wireFormat));
+            out.reset();
+            resetPolicy.onReset();
+        } else {
+            out.flush();
+            long before = batchOut.getPending();
+            out.writeObject(encoded.getLegacyPayload());
+            out.flush();
+            // otherwise out (and the client's ObjectInputStream) keep every payload reachable
+            if (resetPolicy.onWrite(batchOut.getPending() - before)) {
+                out.reset();
+                resetPolicy.onReset();
+            }
+        }
+    }
+
+    private void flushBatch() throws IOException {
+        if (out != null) {
+            out.flush(); // drain out's block data buffer into batchOut
+        }
+        batchOut.flushBatch();
+    }
+
+    /**
+     * Entry point for every Payload received from the client, regardless of how
+     * it was read
+     *
+     * @param fromClient
+     */
+    protected void receive(Payload fromClient) {
+        info("Received from my client: %s", fromClient);
+        long start = System.nanoTime();
+        PayloadType type = fromClient.getPayloadType();
+        if (type == null) { // processPayload() logs and drops these
+            processPayload(fromClient);
+            return;
+        }
+        ServerMetrics.received(type).increment();
+        processPayload(fromClient);
+        // sends only queue, so this ends when the last recipient's send was queued
+        ServerMetrics.processing(type).recordSince(start);
+    }
     
     /**
      * One of the two ways to get this to exit the listen loop
@@ -66,17 +345,61 @@ public abstract class BaseServerThread extends Thread {
     protected void disconnect() {
         info("Thread being disconnected by server");
         isRunning = false;
-        this.interrupt(); // breaks out of blocking read in the run() method
+        // let anything already queued (e.g. our own DISCONNECT) reach the client before closing
+        if (nioConnection != null) {
+            nioConnection.closeAfterFlush();
+            return;
+        }
+        if (writer != null && !client.isClosed() && outbound.offerFinal(CLOSE)) {
+            return; // the writer closes the socket, which also ends the blocking read in run()
+        }
+        if (thread != null) {
+            thread.interrupt(); // breaks out of blocking read in the run() method
+        }
         cleanup(); // good practice to ensure data is written out immediately
     }
 
     @Override
     public void run() {
         info("Thread starting");
-        try (ObjectOutputStream out = new ObjectOutputStream(client.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(client.getInputStream());) {
-            this.out = out;
+        try {
+            InputStream rawIn = client.getInputStream();
+            if (preRead != null) {
+                rawIn = new SequenceInputStream(new ByteArrayInputStream(preRead), rawIn);
+                preRead = null;
+            }
+            // peek at the first byte to tell legacy ObjectOutputStream clients from framed clients
+            BufferedInputStream bufferedIn = new BufferedInputStream(rawIn);
+            bufferedIn.mark(1);
+            int firstByte = bufferedIn.read();
+            if (firstByte == -1) {
+                throw new EOFException("Client closed before sending any data");
+            }
+            wireFormat = WireFormat.detect(firstByte);
+            if (!wireFormat.hasHandshake()) {
+                bufferedIn.reset(); // the byte belongs to the stream/frame, replay it
+            }
+            boolean isLegacy = wireFormat == WireFormat.OBJECT_STREAM;
+            ObjectInputStream in = null;
+            DataInputStream framedIn = null;
+            // we batch our own writes, so don't let Nagle delay them further
+            client.setTcpNoDelay(true);
+            batchOut = new BatchOutputStream(client.getOutputStream(), Math.max(batchBytes, 8192));
+            if (isLegacy) {
+                rawOut = batchOut;
+                resetPolicy = new StreamResetPolicy(ServerConfig.INSTANCE.getStreamResetObjects(),
+                        ServerConfig.INSTANCE.getStreamResetBytes());
+                out = new ObjectOutputStream(rawOut);
+                batchOut.flushBatch(); // the client's ObjectInputStream is waiting on the stream header
+                in = new ObjectInputStream(bufferedIn);
+            } else {
+                framedOut = new DataOutputStream(batchOut);
+                framedIn = new DataInputStream(bufferedIn);
+            }
+            info("Using wire format %s", wireFormat);
             isRunning = true;
+            writer = threadFactory.newThread(this::writeLoop);
+            writer.start();
             //onInitialized();
             Payload fromClient;
             /**
@@ -86,10 +409,9 @@ public abstract class BaseServerThread extends Thread {
              */
             while (isRunning) {
                 try{
-                    fromClient = (Payload) in.readObject(); // blocking method
+                    fromClient = isLegacy ? (Payload) in.readObject() : FrameCodec.read(framedIn, wireFormat); // blocking method
                     if (fromClient != null) {
-                        info("Received from my client: " + fromClient);
-                        processPayload(fromClient);
+                        receive(fromClient);
                     }
                     else{
                         throw new IOException("Connection interrupted"); // Specific exception for a clean break
@@ -99,7 +421,7 @@ public abstract class BaseServerThread extends Thread {
                     LoggerUtil.INSTANCE.severe("Error reading object as specified type: ", cce);
                 }
                 catch (IOException e) {
-                    if (Thread.currentThread().isInterrupted()) {
+                    if (!isRunning || Thread.currentThread().isInterrupted()) {
                         info("Thread interrupted during read (likely from the disconnect() method)");
                         break;
                     }
@@ -120,6 +442,16 @@ public abstract class BaseServerThread extends Thread {
 
     protected void cleanup() {
         info("ServerThread cleanup() start");
+        if (resetPolicy != null) {
+            info("Outbound stream: %s", resetPolicy);
+        }
+        if (nioConnection != null) {
+            nioConnection.close();
+        }
+        if (writer != null) {
+            writer.interrupt();
+        }
+        outbound.clear();
         try {
             client.close();
         } catch (IOException e) {
@@ -0,0 +1,217 @@
+package Project.Server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+import Project.Common.ConnectionPayload;
+import Project.Common.FrameCodec;
+import Project.Common.HistoryPayload;
+import Project.Common.LoggerUtil;
+import Project.Common.LoggingBenchmark;
+import Project.Common.MicroBench;
+import Project.Common.Payload;
+import Project.Common.PayloadType;
+import Project.Common.WireFormat;
+
+/**
+ * One pass over the server's hot paths, saved as JSON so runs can be compared
+ * between versions:
+ * <ul>
+ * <li>Room.sendMessage() fan-out to 10/100/1000 InMemoryClient members</li>
+ * <li>message formatting: MessageFormatter on plain and marked-up text, and
+ * a MessageFormatCache hit (Room.processMessageFormat() is the cache)</li>
+ * <li>Payload encode + decode round trips in both framed wire formats</li>
+ * <li>Server.listRooms() over 10k and 100k rooms</li>
+ * <li>MessageHistory: recording a message, and the batch a joiner is sent</li>
+ * <li>MessageJournal: queueing a message (all a broadcast pays), and reading
+ * a page of a room's messages forward and back</li>
+ * <li>LoggerUtil record formatting (see LoggingBenchmark)</li>
+ * </ul>
+ * <p>
+ * Everything runs in this one JVM on the MicroBench harness, without JMH's
+ * forks, so only compare runs from the same machine. Given a baseline file,
+ * each benchmark's change is printed and the exit code is 1 if any got more
+ * than the threshold (default 10%) slower with no overlap between the two
+ * runs' iteration ranges. JIT differences between JVMs alone can move a
+ * benchmark by 20% on a small shared box; raise the threshold there.
+ * </p>
+ *
+ * <pre>
+ * java Project.Server.BenchmarkSuite [results.json] [baseline.json] [threshold %]
+ * </pre>
+ */
+public class BenchmarkSuite {
+    private static final int[] FAN_OUT = { 10, 100, 1000 };
+    private static final int[] ROOM_COUNTS = { 10_000, 100_000 };
+    private static final double DEFAULT_THRESHOLD_PERCENT = 10;
+    private static final String PLAIN = "hey everyone, anyone up for a game tonight? bring snacks";
+    private static final String MARKUP = "**hey** _everyone_, #r anyone r# up for a *game* #00ff00 tonight? 00ff00#";
+
+    public static void main(String[] args) throws Exception {
+        Path output = Path.of(args.length > 0 ? args[0] : "benchmark-results.json");
+        Path baseline = args.length > 1 ? Path.of(args[1]) : null;
+        double threshold = (args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT) / 100;
+
+        // keep logging out of the measurement
+        LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
+        config.setLogLocation("benchmark.log");
+        config.setFileLogLevel(Level.OFF);
+        config.setConsoleLogLevel(Level.OFF);
+        LoggerUtil.INSTANCE.setConfig(config);
+
+        fanOut();
+        messageFormat();
+        payloadRoundTrips();
+        listRooms();
+        history();
+        journal();
+        LoggingBenchmark.measureFormatter();
+
+        MicroBench.writeJson(output);
+        System.out.println("Results written to " + output.toAbsolutePath());
+        if (baseline != null && !compare(MicroBench.readJson(baseline), MicroBench.getResults(), threshold)) {
+            System.exit(1);
+        }
+    }
+
+    private static void fanOut() {
+        for (int members : FAN_OUT) {
+            Room room = new Room(Room.LOBBY); // the lobby never auto-closes, so no Server is needed
+            LongAdder delivered = new LongAdder();
+            InMemoryClient sender = null;
+            for (int i = 0; i < members; i++) {
+                InMemoryClient client = new InMemoryClient(i + 1, delivered);
+                client.setClientName("member" + i);
+                room.addClient(client);
+                if (sender == null) {
+                    sender = client;
+                }
+            }
+            InMemoryClient from = sender;
+            MicroBench.measure(String.format("room.sendMessage fan-out %s", members),
+                    () -> room.sendMessage(from, "hello **everyone** in the room"));
+            room.close();
+        }
+    }
+
+    private static void messageFormat() {
+        MicroBench.measure("format plain", () -> MicroBench.consume(MessageFormatter.format(PLAIN)));
+        MicroBench.measure("format markup", () -> MicroBench.consume(MessageFormatter.format(MARKUP)));
+        MicroBench.measure("format markup, cache hit",
+                () -> MicroBench.consume(MessageFormatCache.INSTANCE.format(MARKUP)));
+    }
+
+    private static void payloadRoundTrips() {
+        for (WireFormat format : new WireFormat[] { WireFormat.BINARY_FRAMES, WireFormat.SERIALIZED_FRAMES }) {
+            String label = format.name().toLowerCase();
+            MicroBench.measure(String.format("round trip message, %s", label), () -> {
+                Payload p = new Payload();
+                p.setPayloadType(PayloadType.MESSAGE);
+                p.setClientId(42);
+                p.setMessage(PLAIN);
+                MicroBench.consume(roundTrip(p, format));
+            });
+            MicroBench.measure(String.format("round trip room join, %s", label), () -> {
+                ConnectionPayload cp = new ConnectionPayload();
+                cp.setPayloadType(PayloadType.ROOM_JOIN);
+                cp.setClientId(42);
+                cp.setClientName("yahya");
+                cp.setMessage(Room.LOBBY);
+                cp.setConnect(true);
+                MicroBench.consume(roundTrip(cp, format));
+            });
+        }
+    }
+
+    private static Payload roundTrip(Payload p, WireFormat format) throws Exception {
+        byte[] frame = FrameCodec.encode(p, format);
+        return FrameCodec.decode(frame, FrameCodec.HEADER_SIZE, frame.length - FrameCodec.HEADER_SIZE, format);
+    }
+
+    private static void listRooms() {
+        int created = 0;
+        for (int rooms : ROOM_COUNTS) {
+            for (; created < rooms; created++) {
+                Server.INSTANCE.createRoom("room-" + created);
+            }
+            String label = rooms / 1000 + "k";
+            MicroBench.measure(String.format("listRooms %s, one match", label),
+                    () -> MicroBench.consume(Server.INSTANCE.listRooms("room-4242")));
+            MicroBench.measure(String.format("listRooms %s, partial match", label),
+                    () -> MicroBench.consume(Server.INSTANCE.listRooms("42")));
+            MicroBench.measure(String.format("listRooms %s, no match", label),
+                    () -> MicroBench.consume(Server.INSTANCE.listRooms("nothing")));
+            MicroBench.measure(String.format("listRooms %s, next page", label),
+                    () -> MicroBench.consume(Server.INSTANCE.listRooms("room", "room-5000", 100)));
+        }
+    }
+
+    private static void history() {
+        MessageHistory history = new MessageHistory("history", 100);
+        long[] sent = { 0 };
+        MicroBench.measure("history append", () -> history.append(1, 1, "yahya", PLAIN, ++sent[0]));
+        int replay = ServerConfig.INSTANCE.getHistoryReplayCount();
+        MicroBench.measure(String.format("history recent %s", replay),
+                () -> MicroBench.consume(history.recent(replay, MuteSet.EMPTY)));
+        history.close();
+    }
+
+    private static void journal() throws Exception {
+        Path dir = Files.createTempDirectory("benchmark-journal");
+        ServerConfig.INSTANCE.setJournalDir(dir.toString());
+        MessageJournal.INSTANCE.open();
+        long[] sent = { 0 };
+        // the writer drains the queue meanwhile, as it would under load
+        MicroBench.measure("journal append", () -> MessageJournal.INSTANCE.append("journal", ++sent[0],
+                System.currentTimeMillis(), 1, "yahya", PLAIN));
+        MessageJournal.INSTANCE.flush(1, TimeUnit.MINUTES);
+        long from = MessageJournal.INSTANCE.getLastSequence("journal") / 2;
+        MicroBench.measure("journal read 50",
+                () -> MicroBench.consume(MessageJournal.INSTANCE.read("journal", from, 50)));
+        List<HistoryPayload.Entry> page = new ArrayList<>();
+        MicroBench.measure("journal page before 50", () -> {
+            page.clear();
+            MicroBench.consume(MessageJournal.INSTANCE.readBefore("journal", from, 50, entry -> true, page));
+        });
+        MessageJournal.INSTANCE.close();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * Prints each benchmark's change against the baseline
+     *
+     * @param threshold slowdown (0.1 = 10%) that counts as a regression
+     * @return false if any benchmark regressed past the threshold
+     */
+    private static boolean compare(Map<String, MicroBench.Result> baseline, List<MicroBench.Result> results,
+            double threshold) {
+        boolean ok = true;
+        System.out.println(String.format("%-52s %12s %12s %8s", "vs baseline", "before ns", "after ns", "change"));
+        for (MicroBench.Result result : results) {
+            MicroBench.Result before = baseline.get(result.getName());
+            if (before == null) {
+                System.out.println(String.format("%-52s %12s %12.1f %8s", result.getName(), "-",
+                        result.getNsPerOp(), "new"));
+                continue;
+            }
+            double change = result.getNsPerOp() / before.getNsPerOp() - 1;
+            boolean regressed = change > threshold && result.getMinNsPerOp() > before.getMaxNsPerOp();
+            ok &= !regressed;
+            System.out.println(String.format("%-52s %12.1f %12.1f %+7.1f%%%s", result.getName(),
+                    before.getNsPerOp(), result.getNsPerOp(), change * 100, regressed ? "  REGRESSION" : ""));
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,108 @@
+package Project.Server;
+
+import java.net.Socket;
+import java.util.logging.Level;
+
+import Project.Common.EncodedPayload;
+import Project.Common.LoggerUtil;
+import Project.Common.MicroBench;
+import Project.Common.Payload;
+
+/**
+ * What per-message logging costs a Room broadcast when its level is filtered
+ * out (and, run at INFO, when it isn't).
+ * <p>
+ * Members are in-memory ServerThreads that stand in for
+ * BaseServerThread.send(): they log the same per-recipient "Sending Payload"
+ * line and count the delivery instead of queueing it. The same broadcast is
+ * measured with members that don't log at all, that build the line eagerly
+ * by concatenation (how every call site used to look) and that use the
+ * parameterized overload. The Room's own per-message logging is the real
+ * thing in all three. Below that, a single filtered log call in each style.
+ * </p>
+ * <p>
+ * LoggerUtil is configured once per JVM, so the level is an argument:
+ * </p>
+ *
+ * <pre>
+ * java Project.Server.BroadcastLoggingBenchmark [level] [members]
+ * </pre>
+ */
+public class BroadcastLoggingBenchmark {
+    private static final String MESSAGE = "hello **everyone** in the room";
+
+    private enum Style {
+        NONE, EAGER, PARAMETERIZED
+    }
+
+    private static class LoggingClient extends ServerThread {
+        private final Style style;
+        private long delivered = 0;
+
+        LoggingClient(long id, Style style) {
+            super(new Socket(), s -> {
+            });
+            this.style = style;
+            sendClientId(id); // how the server assigns ids; the payload itself goes nowhere
+        }
+
+        @Override
+        public boolean sendEncoded(EncodedPayload encoded) {
+            switch (style) {
+                case EAGER:
+                    LoggerUtil.INSTANCE.info("Sending Payload: " + encoded);
+                    break;
+                case PARAMETERIZED:
+                    LoggerUtil.INSTANCE.info("Sending Payload: %s", encoded);
+                    break;
+                default:
+                    break;
+            }
+            delivered++;
+            return true;
+        }
+    }
+
+    public static void main(String[] args) {
+        Level level = args.length > 0 ? Level.parse(args[0].toUpperCase()) : Level.WARNING;
+        int members = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
+        config.setLogLocation("benchmark.log");
+        config.setFileLogLevel(level);
+        config.setConsoleLogLevel(Level.OFF);
+        LoggerUtil.INSTANCE.setConfig(config);
+        System.out.println(String.format("level=%s, members=%s", level, members));
+
+        for (Style style : Style.values()) {
+            Room room = new Room(Room.LOBBY); // the lobby never auto-closes, so no Server is needed
+            LoggingClient sender = null;
+            for (int i = 0; i < members; i++) {
+                LoggingClient client = new LoggingClient(i + 1, style);
+                client.setClientName("member" + i);
+                room.addClient(client);
+                if (sender == null) {
+                    sender = client;
+                }
+            }
+            LoggingClient from = sender;
+            MicroBench.measure(String.format("broadcast, per-recipient log %s", style.name().toLowerCase()),
+                    () -> room.sendMessage(from, MESSAGE));
+            MicroBench.consume(from.delivered);
+        }
+
+        Payload payload = new Payload();
+        payload.setMessage(MESSAGE);
+        MicroBench.measure("single log call: concatenation",
+                () -> LoggerUtil.INSTANCE.info("Received from my client: " + payload));
+        MicroBench.measure("single log call: parameterized",
+                () -> LoggerUtil.INSTANCE.info("Received from my client: %s", payload));
+        MicroBench.measure("single log call: supplier",
+                () -> LoggerUtil.INSTANCE.info(() -> "Received from my client: " + payload));
+        MicroBench.measure("single log call: isLoggable guard", () -> {
+            if (LoggerUtil.INSTANCE.isLoggable(Level.INFO)) {
+                LoggerUtil.INSTANCE.info("Received from my client: " + payload);
+            }
+        });
+    }
+}
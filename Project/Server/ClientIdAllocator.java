@@ -0,0 +1,121 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Hands out unique client ids from any number of threads.
+ * <p>
+ * An id is one atomic fetch-and-add, which never retries or blocks however
+ * many connections finish their handshake at once. With a store file, ids
+ * are reserved in blocks: the end of the current block (the high-water mark)
+ * is written to the file before any id in it is handed out, so after a
+ * restart numbering continues past every id the previous run could have
+ * used. Only the thread that crosses into a new block touches the lock and
+ * the disk; ids left unused in a block when the server stops are skipped.
+ * </p>
+ */
+public class ClientIdAllocator {
+    private final AtomicLong next;
+    private final Path store; // null when ids don't need to survive restarts
+    private final int blockSize;
+    // ids below this are covered by the persisted high-water mark
+    private volatile long reservedUpTo;
+    private final ReentrantLock reserveLock = new ReentrantLock();
+
+    /**
+     * Ids start at 1 and are forgotten on restart
+     */
+    public ClientIdAllocator() {
+        next = new AtomicLong(1);
+        store = null;
+        blockSize = 0;
+        reservedUpTo = Long.MAX_VALUE;
+    }
+
+    /**
+     * Ids continue from the high-water mark in the store, if there is one
+     *
+     * @param store     file holding the high-water mark; created if missing
+     * @param blockSize ids reserved per write to the store
+     * @throws IOException if an existing store can't be read
+     */
+    public ClientIdAllocator(Path store, int blockSize) throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.store = store;
+        this.blockSize = blockSize;
+        long start = 1;
+        if (Files.exists(store)) {
+            try {
+                start = Math.max(1, Long.parseLong(Files.readString(store, StandardCharsets.UTF_8).trim()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt client id store " + store, e);
+            }
+        }
+        next = new AtomicLong(start);
+        reservedUpTo = start; // nothing reserved yet; the first next() writes a block
+    }
+
+    /**
+     * @return a client id no other call (in this run, or a previous one using
+     *         the same store) has returned
+     */
+    public long next() {
+        long id = next.getAndIncrement();
+        if (id >= reservedUpTo) {
+            reserveThrough(id);
+        }
+        return id;
+    }
+
+    /**
+     * @return the id the next call to next() would return
+     */
+    public long peek() {
+        return next.get();
+    }
+
+    private void reserveThrough(long id) {
+        reserveLock.lock();
+        try {
+            long mark = reservedUpTo;
+            if (id < mark) {
+                return; // another thread reserved it while we waited
+            }
+            while (mark <= id) {
+                mark += blockSize;
+            }
+            try {
+                persist(mark);
+            } catch (IOException e) {
+                // keep serving; only ids across a restart are at risk
+                LoggerUtil.INSTANCE.severe("Couldn't persist client id high-water mark " + mark, e);
+            }
+            reservedUpTo = mark;
+        } finally {
+            reserveLock.unlock();
+        }
+    }
+
+    private void persist(long mark) throws IOException {
+        Path parent = store.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        // write-then-rename so a crash mid-write leaves the previous mark intact
+        Path temp = store.resolveSibling(store.getFileName() + ".tmp");
+        Files.writeString(temp, Long.toString(mark), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+        Files.move(temp, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,133 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Rough comparison of the memory and accept cost of idle client connections
+ * when each ServerThread read loop runs on a platform thread vs a virtual
+ * thread.
+ * <p>
+ * Opens the requested number of loopback connections, each served by a
+ * ServerThread blocked on its first read, then reports the accept rate and the
+ * resident/heap growth per connection. Run each mode in a fresh JVM:
+ * </p>
+ *
+ * <pre>
+ * java Project.Server.ConnectionBenchmark 10000 thread_per_client
+ * java Project.Server.ConnectionBenchmark 10000 virtual_thread
+ * </pre>
+ *
+ * Note: 10k connections needs roughly 20k file descriptors (ulimit -n).
+ */
+public class ConnectionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        ConnectionMode mode = ConnectionMode.fromArg(args.length > 1 ? args[1] : null);
+        if (mode == ConnectionMode.NIO) {
+            mode = ConnectionMode.THREAD_PER_CLIENT; // NIO doesn't use a thread per connection
+        }
+
+        // keep logging out of the measurement
+        LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
+        config.setLogLocation("benchmark.log");
+        config.setFileLogLevel(Level.SEVERE);
+        config.setConsoleLogLevel(Level.SEVERE);
+        LoggerUtil.INSTANCE.setConfig(config);
+
+        ThreadFactory clientThreads = mode.newThreadFactory();
+        List<ServerThread> serverSide = new ArrayList<>(connections);
+        List<Socket> clientSide = new ArrayList<>(connections);
+
+        settle();
+        long rssBefore = residentBytes();
+        long heapBefore = usedHeap();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        try (ServerSocket serverSocket = new ServerSocket(0, connections, InetAddress.getLoopbackAddress())) {
+            int port = serverSocket.getLocalPort();
+            Thread acceptor = Thread.ofPlatform().name("benchmark-acceptor").start(() -> {
+                try {
+                    for (int i = 0; i < connections; i++) {
+                        ServerThread sClient = new ServerThread(serverSocket.accept(), s -> {
+                        });
+                        sClient.start(clientThreads);
+                        serverSide.add(sClient);
+                    }
+                } catch (IOException e) {
+                    LoggerUtil.INSTANCE.severe("Benchmark accept failed", e);
+                }
+            });
+
+            long start = System.nanoTime();
+            for (int i = 0; i < connections; i++) {
+                clientSide.add(new Socket(InetAddress.getLoopbackAddress(), port));
+            }
+            acceptor.join();
+            long elapsed = System.nanoTime() - start;
+
+            settle();
+            long rssAfter = residentBytes();
+            long heapAfter = usedHeap();
+            int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            System.out.println(String.format("mode=%s connections=%s", mode, serverSide.size()));
+            System.out.println(String.format("accept rate: %.0f connections/sec (%.1f ms total)",
+                    connections / (elapsed / 1e9), elapsed / 1e6));
+            if (rssBefore > 0) {
+                System.out.println(String.format("resident memory: %.1f KB/connection",
+                        (rssAfter - rssBefore) / 1024.0 / connections));
+            }
+            System.out.println(String.format("heap: %.1f KB/connection", (heapAfter - heapBefore) / 1024.0 / connections));
+            System.out.println(String.format("platform threads: %s -> %s", threadsBefore, threadsAfter));
+        } finally {
+            for (Socket socket : clientSide) {
+                socket.close();
+            }
+            for (ServerThread sClient : serverSide) {
+                sClient.disconnect();
+            }
+        }
+    }
+
+    private static void settle() throws InterruptedException {
+        System.gc();
+        Thread.sleep(500);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Resident set size from /proc (Linux only) since platform thread stacks
+     * live outside the heap
+     *
+     * @return bytes, or -1 if unavailable
+     */
+    private static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not on Linux
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,42 @@
+package Project.Server;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * How the Server drives client connections
+ */
+public enum ConnectionMode {
+    THREAD_PER_CLIENT, // original blocking mode, one platform thread per socket
+    VIRTUAL_THREAD, // same blocking read loop, but each client runs on a virtual thread
+    NIO; // selector event loops shared by all connections (see NioServerEngine)
+
+    /**
+     * Factory for the threads running ServerThread read loops in this mode.
+     * NIO only uses it for legacy clients handed off by the engine.
+     * 
+     * @return a thread-safe ThreadFactory
+     */
+    public ThreadFactory newThreadFactory() {
+        if (this == THREAD_PER_CLIENT) {
+            return Thread.ofPlatform().name("client-", 0).factory();
+        }
+        return Thread.ofVirtual().name("client-", 0).factory();
+    }
+
+    /**
+     * Parses a command line value, falling back to THREAD_PER_CLIENT
+     * 
+     * @param value
+     * @return the matching mode
+     */
+    public static ConnectionMode fromArg(String value) {
+        if (value != null) {
+            for (ConnectionMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(value)) {
+                    return mode;
+                }
+            }
+        }
+        return THREAD_PER_CLIENT;
+    }
+}
@@ -0,0 +1,203 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import Project.Common.LoggerUtil;
+import Project.Common.MetricsRegistry;
+import Project.Common.PrometheusFormat;
+
+/**
+ * Read-only HTTP view of a running server, bound to the loopback address
+ * only. Enabled by setting ServerConfig's metrics port
+ * ({@code -Dserver.metrics.port=9100}).
+ * <ul>
+ * <li>{@code /metrics} everything in MetricsRegistry, Prometheus text
+ * format</li>
+ * <li>{@code /rooms} each room with its members (JSON)</li>
+ * <li>{@code /connections} each client in a room: wire format and outbound
+ * queue depth (JSON)</li>
+ * <li>{@code /threads} CPU time per platform thread (JSON); virtual threads
+ * aren't visible to the thread MXBean</li>
+ * </ul>
+ * <p>
+ * Requests are answered on a single daemon thread, so a slow scraper never
+ * competes with client threads for more than one core.
+ * </p>
+ */
+public class DiagnosticsHttpServer implements AutoCloseable {
+    private static final String JSON = "application/json; charset=utf-8";
+    private final HttpServer http;
+    private final ExecutorService executor;
+
+    public DiagnosticsHttpServer(int port) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "diagnostics-http");
+            t.setDaemon(true);
+            return t;
+        });
+        http.setExecutor(executor);
+        route("/metrics", PrometheusFormat.CONTENT_TYPE,
+                () -> PrometheusFormat.format(MetricsRegistry.INSTANCE.getMetrics()));
+        route("/rooms", JSON, DiagnosticsHttpServer::roomsJson);
+        route("/connections", JSON, DiagnosticsHttpServer::connectionsJson);
+        route("/threads", JSON, DiagnosticsHttpServer::threadsJson);
+    }
+
+    public void start() {
+        http.start();
+        LoggerUtil.INSTANCE.info("Diagnostics listening on http://%s:%s/",
+                http.getAddress().getHostString(), getPort());
+    }
+
+    /**
+     * @return the bound port (useful when 0 was asked for)
+     */
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        http.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void route(String path, String contentType, Supplier<String> body) {
+        http.createContext(path, exchange -> {
+            try (exchange) {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    respond(exchange, 405, "text/plain; charset=utf-8", "GET only\n");
+                } else if (!path.equals(exchange.getRequestURI().getPath())) {
+                    respond(exchange, 404, "text/plain; charset=utf-8", "Not found\n");
+                } else {
+                    respond(exchange, 200, contentType, body.get());
+                }
+            } catch (RuntimeException e) {
+                LoggerUtil.INSTANCE.warning("Diagnostics request for " + path + " failed", e);
+            }
+        });
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static List<Room> sortedRooms() {
+        List<Room> rooms = new ArrayList<>(Server.INSTANCE.getRooms());
+        rooms.sort(Comparator.comparing(Room::getName, String.CASE_INSENSITIVE_ORDER));
+        return rooms;
+    }
+
+    private static String roomsJson() {
+        StringBuilder sb = new StringBuilder("{\"rooms\": [\n");
+        List<Room> rooms = sortedRooms();
+        for (int i = 0; i < rooms.size(); i++) {
+            Room room = rooms.get(i);
+            List<ServerThread> members = room.getClients();
+            sb.append(String.format("  {\"name\": \"%s\", \"members\": %s, \"clients\": [", escape(room.getName()),
+                    members.size()));
+            for (int j = 0; j < members.size(); j++) {
+                ServerThread client = members.get(j);
+                sb.append(String.format("%s{\"id\": %s, \"name\": \"%s\"}", j > 0 ? ", " : "",
+                        client.getClientId(), escape(client.getClientName())));
+            }
+            sb.append(i + 1 < rooms.size() ? "]},\n" : "]}\n");
+        }
+        return sb.append("]}\n").toString();
+    }
+
+    private static String connectionsJson() {
+        List<String> entries = new ArrayList<>();
+        long queued = 0;
+        for (Room room : sortedRooms()) {
+            for (ServerThread client : room.getClients()) {
+                int depth = client.getOutboundDepth();
+                queued += depth;
+                entries.add(String.format(
+                        "  {\"id\": %s, \"name\": \"%s\", \"room\": \"%s\", \"wireFormat\": \"%s\", "
+                                + "\"outboundDepth\": %s, \"streamObjectsSinceReset\": %s}",
+                        client.getClientId(), escape(client.getClientName()), escape(room.getName()),
+                        client.getWireFormat(), depth, client.getStreamObjectsSinceReset()));
+            }
+        }
+        return String.format("{\"count\": %s, \"outboundQueued\": %s, \"connections\": [\n%s%s]}\n",
+                entries.size(), queued, String.join(",\n", entries), entries.isEmpty() ? "" : "\n");
+    }
+
+    private static String threadsJson() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = threads.isThreadCpuTimeSupported();
+        if (cpuTime && !threads.isThreadCpuTimeEnabled()) {
+            threads.setThreadCpuTimeEnabled(true);
+        }
+        List<String> entries = new ArrayList<>();
+        ThreadInfo[] infos = threads.getThreadInfo(threads.getAllThreadIds());
+        // read each thread's times once: they keep moving, and a comparator reading them live sees an
+        // inconsistent order (and makes a call per comparison)
+        Map<Long, long[]> times = new HashMap<>();
+        for (ThreadInfo info : infos) {
+            if (info != null) { // null if it ended since getAllThreadIds()
+                long id = info.getThreadId();
+                times.put(id, cpuTime ? new long[] { threads.getThreadCpuTime(id), threads.getThreadUserTime(id) }
+                        : new long[] { -1, -1 });
+            }
+        }
+        Arrays.sort(infos, Comparator.nullsLast(
+                Comparator.comparingLong((ThreadInfo info) -> times.get(info.getThreadId())[0]).reversed()));
+        for (ThreadInfo info : infos) {
+            if (info == null) {
+                continue;
+            }
+            long id = info.getThreadId();
+            long[] time = times.get(id);
+            entries.add(String.format("  {\"id\": %s, \"name\": \"%s\", \"state\": \"%s\", \"cpuNanos\": %s, "
+                    + "\"userNanos\": %s}", id, escape(info.getThreadName()), info.getThreadState(), time[0], time[1]));
+        }
+        return String.format("{\"count\": %s, \"threads\": [\n%s%s]}\n", entries.size(),
+                String.join(",\n", entries), entries.isEmpty() ? "" : "\n");
+    }
+
+    private static String escape(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
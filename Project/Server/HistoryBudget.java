@@ -0,0 +1,148 @@
+package Project.Server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-wide limit on the memory held by rooms' {@link MessageHistory}
+ * buffers, on top of each room's own capacity.
+ * <p>
+ * Like MessageFormatCache it works from an estimate of the bytes held, not
+ * from entry counts. Histories charge what they store and give back what
+ * they drop. Over the limit, a history holding more than its fair share
+ * (what the slots leave of the limit, split evenly between rooms with
+ * history) evicts its own oldest messages; one holding less calls
+ * {@link #trim(MessageHistory)}, which takes one message at a time from
+ * each room above its share in turn until the total is back under the
+ * limit. So a room that's new, or quiet until now, still gets its share
+ * once the budget is full. The limit comes from ServerConfig.
+ * </p>
+ * <p>
+ * Slots can't be trimmed, only given back when their room closes, so
+ * they're reserved separately with {@link #reserveSlots(int, long)} and
+ * only up to half the limit; past that, rooms get fewer slots than their
+ * capacity, or none until others close. Messages always have the other
+ * half to be trimmed within.
+ * </p>
+ */
+public enum HistoryBudget {
+    INSTANCE;
+
+    private final AtomicLong sizeBytes = new AtomicLong();
+    private final AtomicLong slotBytes = new AtomicLong(); // included in sizeBytes
+    // histories holding slots, i.e. ones that can give something up
+    private final Set<MessageHistory> histories = ConcurrentHashMap.newKeySet();
+
+    HistoryBudget() {
+        ServerMetrics.historyBytes(sizeBytes::get);
+    }
+
+    /**
+     * Adds to (or, negative, takes from) the bytes held by messages
+     *
+     * @param deltaBytes
+     * @return true if the total is now over the limit
+     */
+    boolean charge(long deltaBytes) {
+        return sizeBytes.addAndGet(deltaBytes) > ServerConfig.INSTANCE.getHistoryMaxBytes();
+    }
+
+    /**
+     * Reserves memory for a history's slots, as many as fit in what's left of
+     * the half of the limit slots may take
+     *
+     * @param wanted    slots the history would like, its capacity
+     * @param bytesEach estimated cost of one slot
+     * @return slots granted, 0 to wanted; give them back with
+     *         {@link #releaseSlots(long)}
+     */
+    int reserveSlots(int wanted, long bytesEach) {
+        long maxSlotBytes = ServerConfig.INSTANCE.getHistoryMaxBytes() / 2;
+        while (true) {
+            long reserved = slotBytes.get();
+            int granted = (int) Math.min(wanted, Math.max(0, maxSlotBytes - reserved) / bytesEach);
+            if (granted == 0) {
+                return 0;
+            }
+            if (slotBytes.compareAndSet(reserved, reserved + granted * bytesEach)) {
+                sizeBytes.addAndGet(granted * bytesEach);
+                return granted;
+            }
+        }
+    }
+
+    /**
+     * Gives back slot memory reserved with {@link #reserveSlots(int, long)}
+     *
+     * @param bytes
+     */
+    void releaseSlots(long bytes) {
+        slotBytes.addAndGet(-bytes);
+        sizeBytes.addAndGet(-bytes);
+    }
+
+    void register(MessageHistory history) {
+        histories.add(history);
+    }
+
+    void unregister(MessageHistory history) {
+        histories.remove(history);
+    }
+
+    /**
+     * Takes the oldest messages of rooms other than the requester's, one per
+     * room per pass, until the total is under the limit or nobody has
+     * anything left to give
+     *
+     * @param requester the history that's over and at or below its share
+     */
+    void trim(MessageHistory requester) {
+        long maxBytes = ServerConfig.INSTANCE.getHistoryMaxBytes();
+        // rooms above their share first; anyone's if that's not enough
+        for (boolean aboveShareOnly : new boolean[] { true, false }) {
+            boolean freedAny = true;
+            while (freedAny && sizeBytes.get() > maxBytes) {
+                freedAny = false;
+                long fairShare = getFairShare();
+                for (MessageHistory history : histories) {
+                    if (sizeBytes.get() <= maxBytes) {
+                        return;
+                    }
+                    if (history != requester && (!aboveShareOnly || history.getSizeBytes() > fairShare)
+                            && history.trimOldest() > 0) {
+                        freedAny = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return what the slots leave of the limit, split evenly between the
+     *         rooms holding history
+     */
+    long getFairShare() {
+        return (ServerConfig.INSTANCE.getHistoryMaxBytes() - slotBytes.get()) / Math.max(1, histories.size());
+    }
+
+    /**
+     * @return estimated bytes held by all rooms' histories, slots included
+     */
+    public long getSizeBytes() {
+        return sizeBytes.get();
+    }
+
+    /**
+     * @return estimated bytes reserved for slots
+     */
+    public long getSlotBytes() {
+        return slotBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HistoryBudget[bytes=%s, slots=%s, max=%s, rooms=%s]", getSizeBytes(),
+                getSlotBytes(), ServerConfig.INSTANCE.getHistoryMaxBytes(), histories.size());
+    }
+}
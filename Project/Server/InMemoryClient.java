@@ -0,0 +1,51 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.atomic.LongAdder;
+
+import Project.Common.EncodedPayload;
+import Project.Common.WireFormat;
+
+/**
+ * A room member for benchmarks: an unconnected ServerThread whose sends land
+ * in counters instead of a socket.
+ * <p>
+ * Each delivery still asks for the payload's wire bytes, like the real writer
+ * would, so broadcasts pay for encoding (once per payload and format) but not
+ * for I/O.
+ * </p>
+ */
+class InMemoryClient extends ServerThread {
+    private final LongAdder delivered;
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * @param id        client id to assign
+     * @param delivered counts deliveries; may be shared between members
+     */
+    InMemoryClient(long id, LongAdder delivered) {
+        super(new Socket(), s -> {
+        });
+        this.delivered = delivered;
+        sendClientId(id); // how the server assigns ids; the payload itself goes nowhere
+    }
+
+    @Override
+    public boolean sendEncoded(EncodedPayload encoded) {
+        try {
+            bytes.add(encoded.bytes(WireFormat.BINARY_FRAMES).length);
+        } catch (IOException e) {
+            return false;
+        }
+        delivered.increment();
+        return true;
+    }
+
+    /**
+     * @return wire bytes this member would have been sent
+     */
+    long getBytes() {
+        return bytes.sum();
+    }
+}
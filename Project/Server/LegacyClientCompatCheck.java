@@ -0,0 +1,251 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+
+import Project.Common.ConnectionPayload;
+import Project.Common.FlipPayload;
+import Project.Common.LoggerUtil;
+import Project.Common.Payload;
+import Project.Common.PayloadType;
+import Project.Common.PrivateMessagePayload;
+import Project.Common.RollPayload;
+
+/**
+ * Compatibility check that clients from before the framed wire formats
+ * (OBJECT_STREAM, with only the original Project.Common classes) can still
+ * read everything the server sends them.
+ * <p>
+ * Starts a Server in this JVM and connects three legacy clients whose
+ * ObjectInputStreams resolve classes from the given directory (or jar) of
+ * pre-series classes only, so a payload class an old client doesn't have
+ * fails here the way it would there. Their requests are written with this
+ * tree's classes, whose serialVersionUIDs match the originals. They chat,
+ * roll, flip, whisper, search and create rooms, mute and unmute, join a
+ * room with history and disconnect; the run fails (exit code 1) if any
+ * client couldn't read a payload or missed a payload type it should have
+ * been sent.
+ * </p>
+ *
+ * <pre>
+ * git archive &lt;commit before the wire formats&gt; Project | tar -x -C /tmp/base
+ * javac -d /tmp/base/out $(find /tmp/base/Project -name '*.java')
+ * java Project.Server.LegacyClientCompatCheck /tmp/base/out [thread_per_client|virtual_thread|nio]
+ * </pre>
+ */
+public class LegacyClientCompatCheck {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Reads payloads the way a pre-series client does: with its classes only
+     */
+    private static class LegacyClient {
+        private final String name;
+        private final Socket socket;
+        private final ObjectOutputStream out;
+        private final Set<String> received = new TreeSet<>(); // "Class TYPE", guarded by itself
+        private final Set<PayloadType> types = ConcurrentHashMap.newKeySet();
+        private volatile long clientId = -1;
+        private volatile Exception failure;
+        private volatile boolean isClosing = false;
+
+        LegacyClient(String name, int port, ClassLoader legacyClasses) throws IOException {
+            this.name = name;
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            out = new ObjectOutputStream(socket.getOutputStream());
+            InputStream raw = socket.getInputStream();
+            Thread.ofPlatform().daemon().start(() -> read(raw, legacyClasses));
+            ConnectionPayload cp = new ConnectionPayload();
+            cp.setClientName(name);
+            send(cp);
+        }
+
+        private void read(InputStream raw, ClassLoader legacyClasses) {
+            try (ObjectInputStream in = new ObjectInputStream(raw) {
+                @Override
+                protected Class<?> resolveClass(ObjectStreamClass desc) throws ClassNotFoundException {
+                    return Class.forName(desc.getName(), false, legacyClasses);
+                }
+            }) {
+                while (true) {
+                    Object payload = in.readObject();
+                    // the legacy class, so only reflection reaches its methods
+                    String type = String.valueOf(payload.getClass().getMethod("getPayloadType").invoke(payload));
+                    synchronized (received) {
+                        received.add(payload.getClass().getSimpleName() + " " + type);
+                    }
+                    types.add(PayloadType.valueOf(type));
+                    if (type.equals(PayloadType.CLIENT_ID.name())) {
+                        clientId = (Long) payload.getClass().getMethod("getClientId").invoke(payload);
+                    }
+                }
+            } catch (Exception e) {
+                if (!isClosing) {
+                    failure = e;
+                }
+            }
+        }
+
+        void send(Payload payload) throws IOException {
+            out.writeObject(payload);
+            out.flush();
+        }
+
+        void send(PayloadType type, String message) throws IOException {
+            Payload p = new Payload();
+            p.setPayloadType(type);
+            p.setMessage(message);
+            send(p);
+        }
+
+        void send(PayloadType type, long targetId) throws IOException {
+            Payload p = new Payload();
+            p.setPayloadType(type);
+            p.setClientId(targetId);
+            send(p);
+        }
+
+        void disconnect() throws IOException {
+            isClosing = true; // the server closes the connection after this
+            send(PayloadType.DISCONNECT, "");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: LegacyClientCompatCheck <pre-series classes dir or jar> [connection mode]");
+            System.exit(2);
+        }
+        ClassLoader legacyClasses = new URLClassLoader(new URL[] { Path.of(args[0]).toUri().toURL() },
+                ClassLoader.getPlatformClassLoader());
+        Class.forName("Project.Common.Payload", false, legacyClasses); // fail fast on a wrong path
+        String mode = args.length > 1 ? args[1] : "thread_per_client";
+
+        // keep logging out of the output, and mutes out of the working directory
+        LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
+        config.setLogLocation("benchmark.log");
+        config.setFileLogLevel(Level.SEVERE);
+        config.setConsoleLogLevel(Level.OFF);
+        LoggerUtil.INSTANCE.setConfig(config);
+        Path mutes = Files.createTempFile("compat-mutes", ".log");
+        ServerConfig.INSTANCE.setMuteStoreFile(mutes.toString());
+
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Thread.ofPlatform().daemon().start(() -> Server.main(new String[] { String.valueOf(port), mode }));
+
+        LegacyClient alice = connect("alice", port, legacyClasses);
+        LegacyClient bob = connect("bob", port, legacyClasses);
+        List<LegacyClient> clients = new ArrayList<>(List.of(alice, bob));
+        try {
+            converse(clients, port, legacyClasses);
+        } catch (IOException e) {
+            System.out.println("lost a connection: " + e); // a client the server dropped; see below
+        }
+        Set<PayloadType> common = Set.of(PayloadType.CLIENT_ID, PayloadType.ROOM_JOIN, PayloadType.MESSAGE);
+        boolean passed = check(alice, common, Set.of(PayloadType.ROOM_LIST, PayloadType.DISCONNECT))
+                & check(bob, common, Set.of(PayloadType.SYNC_CLIENT, PayloadType.MUTE_UNMUTE_NOTIFICATION));
+        if (clients.size() > 2) {
+            passed &= check(clients.get(2), common, Set.of(PayloadType.SYNC_CLIENT));
+        } else {
+            System.out.println("carol  never connected");
+            passed = false;
+        }
+        Files.deleteIfExists(mutes);
+        System.out.println(passed ? "PASS" : "FAIL");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Has the clients use every feature an old client has, with a third
+     * joining once the lobby has history
+     *
+     * @param clients the first two; gets the third once it's connected
+     */
+    private static void converse(List<LegacyClient> clients, int port, ClassLoader legacyClasses) throws Exception {
+        LegacyClient alice = clients.get(0);
+        LegacyClient bob = clients.get(1);
+        await(() -> alice.clientId >= 0 && bob.clientId >= 0, "client ids");
+        alice.send(PayloadType.MESSAGE, "hello"); // a room broadcast, and history for the next joiner
+        await(() -> bob.types.contains(PayloadType.MESSAGE), "bob's first message");
+        LegacyClient carol = connect("carol", port, legacyClasses); // joins a lobby with history
+        clients.add(carol);
+        await(() -> carol.types.contains(PayloadType.SYNC_CLIENT), "carol joining the lobby");
+        alice.send(new RollPayload(2, 6));
+        alice.send(new FlipPayload());
+        alice.send(new PrivateMessagePayload(bob.clientId, "psst"));
+        alice.send(PayloadType.ROOM_LIST, "");
+        alice.send(PayloadType.MUTE, bob.clientId);
+        alice.send(PayloadType.UNMUTE, bob.clientId);
+        bob.send(PayloadType.ROOM_CREATE, "compat-check");
+        bob.send(PayloadType.ROOM_JOIN, Room.LOBBY);
+        await(() -> carol.types.contains(PayloadType.MESSAGE), "alice's roll reaching carol");
+        carol.disconnect();
+        await(() -> alice.types.contains(PayloadType.DISCONNECT), "carol's disconnect");
+        Thread.sleep(300); // anything still in flight
+    }
+
+    private static LegacyClient connect(String name, int port, ClassLoader legacyClasses) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return new LegacyClient(name, port, legacyClasses);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50); // the server may not be listening yet
+            }
+        }
+    }
+
+    private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                System.out.println("timed out waiting for " + what);
+                return; // the checks below say what's missing
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static boolean check(LegacyClient client, Set<PayloadType> common, Set<PayloadType> own) {
+        synchronized (client.received) {
+            System.out.println(String.format("%-6s read %s", client.name, client.received));
+        }
+        boolean passed = true;
+        if (client.failure != null) {
+            System.out.println(String.format("%-6s couldn't read a payload: %s", client.name, client.failure));
+            passed = false;
+        }
+        for (Set<PayloadType> expected : List.of(common, own)) {
+            for (PayloadType type : expected) {
+                if (!client.types.contains(type)) {
+                    System.out.println(String.format("%-6s never got %s", client.name, type));
+                    passed = false;
+                }
+            }
+        }
+        return passed;
+    }
+}
@@ -0,0 +1,37 @@
+package Project.Server;
+
+import Project.Common.MicroBench;
+
+/**
+ * Compares MessageFormatter with the regex implementation it replaced
+ * (MessageFormatFuzz.legacyFormat) on a few typical chat lines, plus the cost
+ * of a MessageFormatCache hit.
+ *
+ * <pre>
+ * java Project.Server.MessageFormatBenchmark
+ * </pre>
+ */
+public class MessageFormatBenchmark {
+    private static final String[][] MESSAGES = {
+            { "plain", "hey everyone, is anyone up for a game later tonight?" },
+            { "bold+italic", "this is **really** important, *please* read it" },
+            { "mixed", "**bold** *italic* _under_ #r red text r# and #00ff00 green text 00ff00#" },
+            { "unmatched markers", "5 * 3 = 15 and snake_case_name #hashtag **" },
+    };
+
+    public static void main(String[] args) {
+        for (String[] message : MESSAGES) {
+            String text = message[1];
+            if (!MessageFormatFuzz.legacyFormat(text).equals(MessageFormatter.format(text))) {
+                throw new IllegalStateException("Outputs differ for: " + text);
+            }
+            MicroBench.measure("legacy regex    " + message[0],
+                    () -> MicroBench.consume(MessageFormatFuzz.legacyFormat(text)));
+            MicroBench.measure("MessageFormatter " + message[0],
+                    () -> MicroBench.consume(MessageFormatter.format(text)));
+            MicroBench.measure("cache hit        " + message[0],
+                    () -> MicroBench.consume(MessageFormatCache.INSTANCE.format(text)));
+        }
+        System.out.println(MessageFormatCache.INSTANCE);
+    }
+}
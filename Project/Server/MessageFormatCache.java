@@ -0,0 +1,154 @@
+package Project.Server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Server-wide LRU cache from raw message text to MessageFormatter output.
+ * <p>
+ * Bots, canned replies and spam resend the same text over and over; this
+ * skips formatting them again. The cache is bounded by an estimate of the
+ * memory its entries hold (not by entry count), and messages longer than the
+ * configured length bypass it entirely so large unique messages can't be used
+ * to churn or bloat it. Limits come from ServerConfig.
+ * </p>
+ * <p>
+ * Lookups take a short lock; formatting a miss happens outside of it.
+ * </p>
+ */
+public enum MessageFormatCache {
+    INSTANCE;
+
+    // rough per-entry cost beyond the chars: map node, two String headers and their arrays
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long sizeBytes = 0; // guarded by lock
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder bypasses = new LongAdder();
+
+    /**
+     * Formats a message, reusing an earlier result for the same text
+     *
+     * @param message raw message text
+     * @return the same output as MessageFormatter.format(message)
+     */
+    public String format(String message) {
+        if (message.length() > ServerConfig.INSTANCE.getFormatCacheMaxMessageLength()) {
+            bypasses.increment();
+            return MessageFormatter.format(message);
+        }
+        lock.lock();
+        try {
+            String cached = entries.get(message);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+        String formatted = MessageFormatter.format(message);
+        put(message, formatted);
+        return formatted;
+    }
+
+    private void put(String message, String formatted) {
+        long maxBytes = ServerConfig.INSTANCE.getFormatCacheMaxBytes();
+        long weight = weigh(message, formatted);
+        if (weight > maxBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            String previous = entries.put(message, formatted);
+            if (previous != null) {
+                // another thread formatted the same text first
+                sizeBytes -= weigh(message, previous);
+            }
+            sizeBytes += weight;
+            Iterator<Map.Entry<String, String>> eldest = entries.entrySet().iterator();
+            while (sizeBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, String> entry = eldest.next();
+                sizeBytes -= weigh(entry.getKey(), entry.getValue());
+                eldest.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long weigh(String message, String formatted) {
+        return ENTRY_OVERHEAD_BYTES + 2L * (message.length() + formatted.length());
+    }
+
+    /**
+     * Drops every entry (counters are kept)
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            sizeBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return messages that skipped the cache for being too long
+     */
+    public long getBypasses() {
+        return bypasses.sum();
+    }
+
+    /**
+     * @return entries currently cached
+     */
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return estimated bytes held by the cached entries
+     */
+    public long getSizeBytes() {
+        lock.lock();
+        try {
+            return sizeBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MessageFormatCache[entries=%s, bytes=%s, hits=%s, misses=%s, evictions=%s, bypasses=%s]",
+                getEntryCount(), getSizeBytes(), getHits(), getMisses(), getEvictions(), getBypasses());
+    }
+}
@@ -0,0 +1,122 @@
+package Project.Server;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Differential check of MessageFormatter against the regex implementation it
+ * replaced (kept here as {@link #legacyFormat(String)}).
+ * <p>
+ * Generates random messages from an alphabet heavy in markup characters,
+ * line breaks and replacement-string specials, and fails (exit code 1) on the
+ * first input where the two give different output, or where only one of them
+ * throws (or they throw different exception types).
+ * </p>
+ *
+ * <pre>
+ * java Project.Server.MessageFormatFuzz [iterations] [seed]
+ * </pre>
+ */
+public class MessageFormatFuzz {
+    private static final String ALPHABET = "***__##rgb  aAfF09xZ$\\\n\r\u2028<>\u00e9";
+    private static final String[] FRAGMENTS = { "**", "#r ", " r#", "#g ", " g#", "#b ", " b#", "#ff8800 ",
+            " ff8800#", "#ABCDEF ", " ABCDEF#", "$1", "$2", "$0", "$12", "$3", "${x}", "\\$" };
+
+    public static void main(String[] args) {
+        long iterations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000L;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        Random random = new Random(seed);
+        System.out.println(String.format("iterations=%s seed=%s", iterations, seed));
+
+        long legacyErrors = 0;
+        for (long i = 0; i < iterations; i++) {
+            String input = randomMessage(random);
+            String expected = null;
+            String actual = null;
+            RuntimeException expectedError = null;
+            RuntimeException actualError = null;
+            try {
+                expected = legacyFormat(input);
+            } catch (RuntimeException e) {
+                expectedError = e;
+                legacyErrors++;
+            }
+            try {
+                actual = MessageFormatter.format(input);
+            } catch (RuntimeException e) {
+                actualError = e;
+            }
+            boolean same = expectedError == null
+                    ? actualError == null && expected.equals(actual)
+                    : actualError != null && expectedError.getClass() == actualError.getClass();
+            if (!same) {
+                System.out.println("FAIL on input: " + escape(input));
+                System.out.println("  legacy:    " + (expectedError != null ? expectedError : escape(expected)));
+                System.out.println("  formatter: " + (actualError != null ? actualError : escape(actual)));
+                System.exit(1);
+            }
+        }
+        System.out.println(String.format("PASS (%s inputs made both throw)", legacyErrors));
+    }
+
+    private static String randomMessage(Random random) {
+        int length = random.nextInt(80);
+        StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) {
+            if (random.nextInt(4) == 0) {
+                sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            } else {
+                sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r").replace("\u2028", "\\u2028");
+    }
+
+    /**
+     * The original Room.processMessageFormat(), verbatim
+     *
+     * @param message
+     * @return formatted message
+     */
+    static String legacyFormat(String message) {
+        String boldPattern = "\\*\\*(.*?)\\*\\*";
+        String italicPattern = "\\*(.*?)\\*";
+        String underlinePattern = "_(.*?)_";
+        String colorPattern = "#(r|g|b|[0-9a-fA-F]{6}) (.*?) \\1#";
+
+        message = message.replaceAll(boldPattern, "<b>$1</b>");
+        message = message.replaceAll(italicPattern, "<i>$1</i>");
+        message = message.replaceAll(underlinePattern, "<u>$1</u>");
+
+        Pattern pattern = Pattern.compile(colorPattern);
+        Matcher matcher = pattern.matcher(message);
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            String colorCode = matcher.group(1);
+            String coloredText = matcher.group(2);
+            String colorTag;
+            switch (colorCode.toLowerCase()) {
+                case "r":
+                    colorTag = "red";
+                    break;
+                case "g":
+                    colorTag = "green";
+                    break;
+                case "b":
+                    colorTag = "blue";
+                    break;
+                default:
+                    colorTag = "#" + colorCode;
+                    break;
+            }
+            matcher.appendReplacement(sb, "<span style=\"color:" + colorTag + "\">" + coloredText + "</span>");
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,246 @@
+package Project.Server;
+
+/**
+ * Turns chat markup into the HTML the clients render:
+ * {@code **bold**}, {@code *italic*}, {@code _underline_} and
+ * {@code #r red r#} / {@code #g ...g#} / {@code #b ...b#} /
+ * {@code #ff8800 any hex ff8800#}.
+ * <p>
+ * Replaces the old regex version in Room (three replaceAll calls, each
+ * compiling its pattern, plus a Matcher for colors). The output is identical
+ * to it, quirks included:
+ * </p>
+ * <ul>
+ * <li>the markups are applied in that order, each on the previous one's
+ * output, so e.g. {@code **a*b**c*} yields crossed
+ * {@code <b>a<i>b</b>c</i>}</li>
+ * <li>a marker never pairs across a line break (regex {@code .})</li>
+ * <li>{@code $n} and {@code \} inside colored text are expanded like
+ * Matcher.appendReplacement() does, and throw in the same cases</li>
+ * </ul>
+ * <p>
+ * Each markup is one hand-written left-to-right scan, and is skipped outright
+ * when its marker character doesn't appear, so plain messages cost a few
+ * indexOf calls. The fully fused single scan isn't possible without changing
+ * output, because of the first point above.
+ * </p>
+ */
+public abstract class MessageFormatter {
+
+    /**
+     * @param message raw message text
+     * @return the message with markup converted to HTML
+     */
+    public static String format(String message) {
+        message = pair(message, "**", "<b>", "</b>");
+        message = pair(message, "*", "<i>", "</i>");
+        message = pair(message, "_", "<u>", "</u>");
+        return color(message);
+    }
+
+    /**
+     * Same as replaceAll(quote(marker) + "(.*?)" + quote(marker), open + "$1" +
+     * close)
+     */
+    private static String pair(String s, String marker, String open, String close) {
+        int i = s.indexOf(marker);
+        if (i < 0) {
+            return s;
+        }
+        int m = marker.length();
+        int n = s.length();
+        StringBuilder sb = new StringBuilder(n + 16);
+        sb.append(s, 0, i);
+        while (i < n) {
+            if (!s.startsWith(marker, i)) {
+                int next = s.indexOf(marker, i);
+                int stop = next < 0 ? n : next;
+                sb.append(s, i, stop);
+                i = stop;
+                continue;
+            }
+            int end = findOnLine(s, marker, i + m);
+            if (end >= 0) {
+                sb.append(open).append(s, i + m, end).append(close);
+                i = end + m;
+            } else {
+                // no closing marker on this line, so no later opening one on it
+                // can pair up either; copy through to the line break
+                int lineEnd = lineEnd(s, i);
+                sb.append(s, i, lineEnd);
+                i = lineEnd;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Same as the Matcher loop over "#(r|g|b|[0-9a-fA-F]{6}) (.*?) \\1#"
+     */
+    private static String color(String s) {
+        int i = s.indexOf('#');
+        if (i < 0) {
+            return s;
+        }
+        int n = s.length();
+        StringBuilder sb = null;
+        int copied = 0; // everything before this is already in sb
+        while (i >= 0 && i < n) {
+            int codeLength = colorCodeLength(s, i + 1);
+            if (codeLength > 0) {
+                String code = s.substring(i + 1, i + 1 + codeLength);
+                int textStart = i + 2 + codeLength;
+                int end = findOnLine(s, " " + code + "#", textStart);
+                if (end >= 0) {
+                    if (sb == null) {
+                        sb = new StringBuilder(n + 32);
+                    }
+                    int matchEnd = end + codeLength + 2;
+                    sb.append(s, copied, i);
+                    sb.append("<span style=\"color:").append(colorTag(code)).append("\">");
+                    appendExpanded(sb, s, i, matchEnd, code, s.substring(textStart, end));
+                    copied = matchEnd;
+                    i = s.indexOf('#', matchEnd);
+                    continue;
+                }
+            }
+            i = s.indexOf('#', i + 1);
+        }
+        if (sb == null) {
+            return s;
+        }
+        return sb.append(s, copied, n).toString();
+    }
+
+    /**
+     * @return length of the color code at i if it's followed by a space
+     *         (1 for r/g/b, 6 for hex), otherwise 0
+     */
+    private static int colorCodeLength(String s, int i) {
+        if (i + 1 < s.length() && s.charAt(i + 1) == ' ') {
+            char c = s.charAt(i);
+            if (c == 'r' || c == 'g' || c == 'b') {
+                return 1;
+            }
+        }
+        if (i + 6 < s.length() && s.charAt(i + 6) == ' ') {
+            for (int k = i; k < i + 6; k++) {
+                char c = s.charAt(k);
+                if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                    return 0;
+                }
+            }
+            return 6;
+        }
+        return 0;
+    }
+
+    private static String colorTag(String code) {
+        switch (code.toLowerCase()) {
+            case "r":
+                return "red";
+            case "g":
+                return "green";
+            case "b":
+                return "blue";
+            default:
+                return "#" + code;
+        }
+    }
+
+    /**
+     * Appends colored text plus the closing tag the way
+     * Matcher.appendReplacement() treats the replacement string: backslash
+     * escapes the next char, $n inserts a group (0 = whole match, 1 = code,
+     * 2 = text). The closing tag is part of that string, so a trailing
+     * backslash in the text eats its '<'.
+     */
+    private static void appendExpanded(StringBuilder sb, String s, int matchStart, int matchEnd, String code,
+            String text) {
+        if (text.indexOf('$') < 0 && text.indexOf('\\') < 0) {
+            sb.append(text).append("</span>");
+            return;
+        }
+        String replacement = text + "</span>"; // never ends in '\\' or '$'
+        int cursor = 0;
+        int length = replacement.length();
+        while (cursor < length) {
+            char c = replacement.charAt(cursor);
+            if (c == '\\') {
+                cursor++;
+                sb.append(replacement.charAt(cursor++));
+            } else if (c == '$') {
+                cursor++;
+                char next = replacement.charAt(cursor);
+                if (next == '{') {
+                    // the pattern has no named groups
+                    throw new IllegalArgumentException("Illegal group reference");
+                }
+                int group = next - '0';
+                if (group < 0 || group > 9) {
+                    throw new IllegalArgumentException("Illegal group reference");
+                }
+                cursor++;
+                // like Matcher, take a second digit only while it stays a valid group (there are 2)
+                while (cursor < length) {
+                    int digit = replacement.charAt(cursor) - '0';
+                    if (digit < 0 || digit > 9 || group * 10 + digit > 2) {
+                        break;
+                    }
+                    group = group * 10 + digit;
+                    cursor++;
+                }
+                switch (group) {
+                    case 0:
+                        sb.append(s, matchStart, matchEnd);
+                        break;
+                    case 1:
+                        sb.append(code);
+                        break;
+                    case 2:
+                        sb.append(text);
+                        break;
+                    default:
+                        throw new IndexOutOfBoundsException("No group " + group);
+                }
+            } else {
+                sb.append(c);
+                cursor++;
+            }
+        }
+    }
+
+    /**
+     * @return index of the first target at or after from that doesn't cross a
+     *         line break, or -1
+     */
+    private static int findOnLine(String s, String target, int from) {
+        int found = s.indexOf(target, from);
+        if (found < 0) {
+            return -1;
+        }
+        for (int k = from; k < found; k++) {
+            if (isLineTerminator(s.charAt(k))) {
+                return -1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return index of the first line break at or after from, or the length
+     */
+    private static int lineEnd(String s, int from) {
+        for (int k = from; k < s.length(); k++) {
+            if (isLineTerminator(s.charAt(k))) {
+                return k;
+            }
+        }
+        return s.length();
+    }
+
+    // the characters regex '.' doesn't match by default
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
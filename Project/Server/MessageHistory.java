@@ -0,0 +1,320 @@
+package Project.Server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import Project.Common.HistoryPayload;
+
+/**
+ * A room's most recent messages in a fixed-capacity ring buffer.
+ * <p>
+ * Slots are parallel arrays allocated once, when the room gets its first
+ * message (most rooms in a big server are idle, so they don't pay for
+ * them), and overwritten in place after that; appending never resizes or
+ * allocates beyond the entry's own strings. Every message gets the room's
+ * next sequence number, even with a capacity of 0; numbering starts where
+ * the MessageJournal left off for the room, or at 1.
+ * </p>
+ * <p>
+ * The memory held is charged to the server-wide {@link HistoryBudget}.
+ * Slots are reserved from it up front, and when it can't spare a full
+ * ring the room gets a shorter one, or keeps nothing (messages are still
+ * numbered) until it can. When messages take it over its limit a room
+ * holding more than its fair share gives up its own oldest messages, so
+ * busy rooms pay for their traffic; one holding less asks the budget to
+ * trim the rooms that hold more.
+ * </p>
+ */
+public class MessageHistory {
+    // rough cost of one slot across the arrays, and of an entry's String beyond its chars
+    private static final int SLOT_BYTES = 3 * Long.BYTES + Integer.BYTES + 2 * 4;
+    private static final int STRING_OVERHEAD_BYTES = 48;
+
+    private final String room;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock
+    private long[] sequences;
+    private long[] timestamps;
+    private long[] clientIds;
+    private int[] userIds;
+    private String[] names;
+    private String[] messages;
+    private int slots = 0; // length of the arrays, at most capacity
+    private int head = 0; // slot the next message goes in
+    private int count = 0;
+    private long nextSequence;
+    private volatile long sizeBytes = 0; // read without lock by HistoryBudget
+    private boolean isClosed = false;
+
+    /**
+     * @param room     name of the room, for the entries
+     * @param capacity most messages kept; 0 keeps none
+     */
+    public MessageHistory(String room, int capacity) {
+        this(room, capacity, 1);
+    }
+
+    /**
+     * @param room          name of the room, for the entries
+     * @param capacity      most messages kept; 0 keeps none
+     * @param firstSequence sequence number of the first message appended
+     */
+    public MessageHistory(String room, int capacity, long firstSequence) {
+        this.room = room;
+        this.capacity = Math.max(0, capacity);
+        this.nextSequence = Math.max(1, firstSequence);
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Lock for callers that need a message's append and their own roster
+     * read to be atomic with respect to a join (see Room)
+     */
+    ReentrantLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Records a message, overwriting the oldest one once the buffer is full
+     *
+     * @param clientId  sender's client id, -1 for the room itself
+     * @param userId    sender's UserIds number, for filtering by mutes
+     * @param name      sender's name, null for the room itself
+     * @param message   formatted message text
+     * @param timestamp epoch millis
+     * @return the message's sequence number, or 0 if closed
+     */
+    public long append(long clientId, int userId, String name, String message, long timestamp) {
+        long weight = weigh(name, message);
+        boolean overBudget;
+        long sequence;
+        lock.lock();
+        try {
+            if (isClosed) {
+                return 0;
+            }
+            if (capacity == 0) {
+                return nextSequence++; // numbered for the journal, not kept
+            }
+            if (messages == null && !allocate()) {
+                return nextSequence++; // the budget has no slots to spare; numbered, not kept
+            }
+            long freed = count == slots ? evictOldest() : 0;
+            sequence = nextSequence++;
+            sequences[head] = sequence;
+            timestamps[head] = timestamp;
+            clientIds[head] = clientId;
+            userIds[head] = userId;
+            names[head] = name;
+            messages[head] = message;
+            head = (head + 1) % slots;
+            count++;
+            sizeBytes += weight;
+            overBudget = HistoryBudget.INSTANCE.charge(weight - freed);
+            long fairShare = HistoryBudget.INSTANCE.getFairShare();
+            while (overBudget && count > 1 && sizeBytes > fairShare) {
+                overBudget = HistoryBudget.INSTANCE.charge(-evictOldest());
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (overBudget) {
+            HistoryBudget.INSTANCE.trim(this);
+        }
+        return sequence;
+    }
+
+    /**
+     * Gets up to limit of the newest messages, skipping senders the reader
+     * muted
+     *
+     * @param limit most entries to return
+     * @param mutes the reader's mutes
+     * @return entries, oldest first
+     */
+    public List<HistoryPayload.Entry> recent(int limit, MuteSet mutes) {
+        lock.lock();
+        try {
+            int n = Math.min(limit, count);
+            List<HistoryPayload.Entry> entries = new ArrayList<>(n);
+            // walk back from the newest so muted senders don't use up the limit
+            for (int i = 1; i <= count && entries.size() < n; i++) {
+                int slot = (head - i + slots) % slots;
+                if (!mutes.contains(userIds[slot])) {
+                    entries.add(new HistoryPayload.Entry(sequences[slot], timestamps[slot], clientIds[slot],
+                            names[slot], messages[slot]));
+                }
+            }
+            // reversed in place to oldest first
+            for (int i = 0, j = entries.size() - 1; i < j; i++, j--) {
+                entries.set(i, entries.set(j, entries.get(i)));
+            }
+            return entries;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets up to limit of the newest messages before a sequence number,
+     * skipping senders the reader muted
+     *
+     * @param before first sequence not wanted
+     * @param limit  most entries to add
+     * @param mutes  the reader's mutes
+     * @param into   gets the entries, oldest first
+     * @return where older messages should be looked for: the oldest
+     *         sequence looked at, or before if none were
+     */
+    public long page(long before, int limit, MuteSet mutes, List<HistoryPayload.Entry> into) {
+        lock.lock();
+        try {
+            int start = into.size();
+            long next = before;
+            for (int i = 1; i <= count && into.size() - start < limit; i++) {
+                int slot = (head - i + slots) % slots;
+                if (sequences[slot] >= before) {
+                    continue;
+                }
+                next = sequences[slot];
+                if (!mutes.contains(userIds[slot])) {
+                    into.add(new HistoryPayload.Entry(sequences[slot], timestamps[slot], clientIds[slot],
+                            names[slot], messages[slot]));
+                }
+            }
+            // reversed in place to oldest first
+            for (int i = start, j = into.size() - 1; i < j; i++, j--) {
+                into.set(i, into.set(j, into.get(i)));
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return estimated bytes held by messages; slots are reserved from the
+     *         budget separately
+     */
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * @return messages currently held
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the sequence number of the newest message, 0 if there's none
+     */
+    public long getLastSequence() {
+        lock.lock();
+        try {
+            return nextSequence - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops everything held and returns the memory to the budget; later
+     * appends are ignored
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            HistoryBudget.INSTANCE.charge(-sizeBytes);
+            HistoryBudget.INSTANCE.releaseSlots((long) slots * SLOT_BYTES);
+            HistoryBudget.INSTANCE.unregister(this);
+            sequences = timestamps = clientIds = null;
+            userIds = null;
+            names = messages = null;
+            slots = 0;
+            count = 0;
+            sizeBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives up the oldest message; called by the budget to make room for
+     * another room's. Skipped if this room is busy, so a room trimming others
+     * while holding its own lock can't deadlock with one doing the same.
+     *
+     * @return bytes freed, 0 if there was nothing to give up
+     */
+    long trimOldest() {
+        if (!lock.tryLock()) {
+            return 0;
+        }
+        try {
+            if (count == 0 || isClosed) {
+                return 0;
+            }
+            long freed = evictOldest();
+            HistoryBudget.INSTANCE.charge(-freed);
+            return freed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // only called while holding lock
+
+    /**
+     * @return false if the budget couldn't spare a single slot
+     */
+    private boolean allocate() {
+        slots = HistoryBudget.INSTANCE.reserveSlots(capacity, SLOT_BYTES);
+        if (slots == 0) {
+            return false;
+        }
+        sequences = new long[slots];
+        timestamps = new long[slots];
+        clientIds = new long[slots];
+        userIds = new int[slots];
+        names = new String[slots];
+        messages = new String[slots];
+        HistoryBudget.INSTANCE.register(this);
+        return true;
+    }
+
+    /**
+     * @return bytes freed (not yet returned to the budget)
+     */
+    private long evictOldest() {
+        int tail = (head - count + slots) % slots;
+        long weight = weigh(names[tail], messages[tail]);
+        names[tail] = null;
+        messages[tail] = null;
+        count--;
+        sizeBytes -= weight;
+        return weight;
+    }
+
+    private static long weigh(String name, String message) {
+        return STRING_OVERHEAD_BYTES * 2 + 2L * ((name == null ? 0 : name.length()) + message.length());
+    }
+}
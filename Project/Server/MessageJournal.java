@@ -0,0 +1,934 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32C;
+
+import Project.Common.HistoryPayload;
+import Project.Common.LoggerUtil;
+
+/**
+ * Durable, append-only record of every room message, so history survives a
+ * restart.
+ * <p>
+ * Off unless ServerConfig names a directory. On disk it's a directory of
+ * fixed-size segment files ({@code <id>.seg}, ids counting up), each
+ * preallocated and memory-mapped. Records go at the end of the newest
+ * segment, and a new one is started when a record doesn't fit (rollover).
+ * A record is a length and a CRC32C of the rest, then the room's hash, the
+ * message's sequence number in its room, timestamp, sender id, and the
+ * room, sender name and message text. A zero length marks the end of what's
+ * written; a record whose CRC doesn't match (a crash mid-write) is treated
+ * as the end too and overwritten.
+ * </p>
+ * <p>
+ * Broadcasts only queue a record (Room does it with the sequence number its
+ * MessageHistory assigned). A single writer thread copies records into the
+ * mapping and forces it to disk once enough records or enough time has
+ * built up (fsync batching), so a broadcast never waits on the disk, and a
+ * crash loses at most the unforced batch. A full queue drops records and
+ * counts them rather than blocking the sender.
+ * </p>
+ * <p>
+ * A sparse index in memory keeps, per room, a (sequence, timestamp,
+ * position) point for every Nth record, for the room's first record in each
+ * segment, and whenever the journal has grown by a set number of bytes since
+ * the room's last point. Seeking by sequence or timestamp is a binary search
+ * over those points plus a short forward scan, and paging back (see
+ * {@link #readBefore}) scans forward from successively earlier points. The
+ * index is rebuilt by one pass over the segments at startup. Once there are
+ * more segments than configured, or the oldest is past the retention period,
+ * the oldest are deleted.
+ * </p>
+ * <p>
+ * Reads go straight to the mapped pages: no read calls or intermediate
+ * buffers, and other rooms' records are skipped by comparing the room in
+ * place, so only the records returned are decoded. Segments before the
+ * active one are mapped read-only on demand, and only a few of the most
+ * recently read stay mapped (an LRU); the others are left for the GC to
+ * unmap, so a long journal doesn't keep all of itself mapped. A read can
+ * still fault in a cold page, so Room hands history requests to a few
+ * reader threads here (see {@link #submitRead}) rather than reading on a
+ * connection's thread, which in NIO mode is the selector loop.
+ * </p>
+ */
+public enum MessageJournal {
+    INSTANCE;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int HEADER_BYTES = 2 * Integer.BYTES; // length, crc
+    // room hash, sequence, timestamp, client id, then three length-prefixed strings
+    private static final int FIXED_BODY_BYTES = Integer.BYTES + 3 * Long.BYTES + 3 * Integer.BYTES;
+    private static final int ROOM_OFFSET = Integer.BYTES + 3 * Long.BYTES;
+    private static final int MAX_BATCH = 4096;
+    private static final long IDLE_CHECK_MILLIS = 1000;
+    private static final int MIN_PAGE_SCAN = 1024; // records looked at per page before giving up on filling it
+    private static final int READ_QUEUE_CAPACITY = 1024; // history requests waiting for a reader
+
+    /**
+     * One segment file's mapping
+     */
+    static class Segment {
+        final long id;
+        final Path path;
+        // writable mapping while active (or being scanned at startup), null once sealed (see mapping())
+        volatile MappedByteBuffer buffer;
+        volatile int limit = 0; // end of the complete records; readers stay below it
+        volatile long lastTimestamp = 0;
+
+        Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Where one of a room's records is
+     */
+    private static class IndexPoint {
+        final long sequence;
+        final long timestamp;
+        final Segment segment;
+        final int offset;
+
+        IndexPoint(long sequence, long timestamp, Segment segment, int offset) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * A room's index points and counters
+     */
+    private static class RoomState {
+        final String key;
+        final byte[] keyBytes;
+        final int hash;
+        final AtomicLong lastQueued = new AtomicLong(); // highest sequence handed to append()
+        final List<IndexPoint> points = new ArrayList<>(); // guarded by indexLock
+        // writer thread only
+        long lastSequence = 0;
+        long lastTimestamp = 0;
+        int sinceLastPoint = 0;
+        long bytesAtLastPoint = 0;
+
+        RoomState(String key) {
+            this.key = key;
+            this.keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            this.hash = key.hashCode();
+        }
+    }
+
+    private static class Pending {
+        final RoomState room;
+        final long sequence;
+        final long timestamp;
+        final long clientId;
+        final String name;
+        final String message;
+
+        Pending(RoomState room, long sequence, long timestamp, long clientId, String name, String message) {
+            this.room = room;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.clientId = clientId;
+            this.name = name;
+            this.message = message;
+        }
+    }
+
+    private static final Pending CLOSE = new Pending(null, 0, 0, 0, null, null);
+
+    /**
+     * Gets told about each of a room's records in order; returns false to stop
+     */
+    @FunctionalInterface
+    private interface Visitor {
+        boolean visit(HistoryPayload.Entry entry);
+    }
+
+    private final ReentrantLock openLock = new ReentrantLock();
+    private volatile boolean isOpen = false;
+    private Path dir;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, RoomState> rooms = new ConcurrentHashMap<>();
+    // the write lock is held by the writer to add index points, or to drop a deleted segment's
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    // read mappings of sealed segments by id, least recently used first; guarded by cacheLock
+    private final LinkedHashMap<Long, MappedByteBuffer> cached = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock cacheLock = new ReentrantLock();
+    private volatile LinkedBlockingQueue<Pending> queue;
+    private Thread writer;
+    private volatile ThreadPoolExecutor readers; // history requests, see submitRead
+    // writer thread only
+    private Segment active;
+    private int forcedLimit = 0; // how much of the active segment is on disk
+    private long writtenBytes = 0; // since the startup scan, for spacing index points
+    private byte[] scratch = new byte[1024];
+    private final CRC32C crc = new CRC32C();
+    private final AtomicLong queued = new AtomicLong();
+    private long durable = 0; // guarded by commitLock
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Condition durableAdvanced = commitLock.newCondition();
+
+    /**
+     * Opens the journal in ServerConfig's directory, rebuilding the index from
+     * what's there, and starts the writer
+     *
+     * @return false if the journal is turned off (no directory configured)
+     * @throws IOException if the directory or a segment can't be opened
+     */
+    public boolean open() throws IOException {
+        openLock.lock();
+        try {
+            if (isOpen) {
+                return true;
+            }
+            String configured = ServerConfig.INSTANCE.getJournalDir();
+            if (configured == null || configured.isBlank()) {
+                return false;
+            }
+            dir = Path.of(configured);
+            Files.createDirectories(dir);
+            segments.clear();
+            rooms.clear();
+            writtenBytes = 0;
+            long started = System.nanoTime();
+            List<Long> ids = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    try {
+                        ids.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        LoggerUtil.INSTANCE.warning("Ignoring " + file + " in the message journal");
+                    }
+                }
+            }
+            Collections.sort(ids);
+            for (long id : ids) {
+                Segment segment = map(id, false);
+                segments.put(id, segment);
+                scan(segment);
+            }
+            active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+            if (active == null) {
+                active = map(1, true);
+                segments.put(active.id, active);
+            }
+            for (Segment segment : segments.headMap(active.id).values()) {
+                seal(segment);
+            }
+            forcedLimit = active.limit;
+            queue = new LinkedBlockingQueue<>(ServerConfig.INSTANCE.getJournalQueueCapacity());
+            writer = Thread.ofPlatform().name("message-journal-writer").daemon(true).start(this::writeLoop);
+            int readerThreads = Math.max(1, ServerConfig.INSTANCE.getJournalReaderThreads());
+            readers = new ThreadPoolExecutor(readerThreads, readerThreads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(READ_QUEUE_CAPACITY),
+                    Thread.ofPlatform().name("message-journal-reader-", 1).daemon(true).factory());
+            isOpen = true;
+            LoggerUtil.INSTANCE.info("Message journal %s: %s segments, %s rooms, scanned in %sms", dir,
+                    segments.size(), rooms.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            return true;
+        } finally {
+            openLock.unlock();
+        }
+    }
+
+    public boolean isOpen() {
+        return isOpen;
+    }
+
+    /**
+     * Queues a message to be journaled; returns at once. Calls for one room
+     * must come in sequence order (Room makes them under its history lock).
+     *
+     * @param room      room name
+     * @param sequence  the message's number in the room, from 1
+     * @param timestamp epoch millis
+     * @param clientId  sender's client id, -1 for the room itself
+     * @param name      sender's name, null for the room itself
+     * @param message   formatted message text
+     */
+    public void append(String room, long sequence, long timestamp, long clientId, String name, String message) {
+        if (!isOpen || sequence <= 0) {
+            return;
+        }
+        RoomState state = rooms.computeIfAbsent(key(room), RoomState::new);
+        state.lastQueued.accumulateAndGet(sequence, Math::max);
+        if (queue.offer(new Pending(state, sequence, timestamp, clientId, name, message))) {
+            queued.incrementAndGet();
+        } else {
+            ServerMetrics.JOURNAL_DROPPED.increment();
+        }
+    }
+
+    /**
+     * @param room room name
+     * @return the newest sequence number journaled (or queued) for the room,
+     *         0 if none; a room's numbering continues from here
+     */
+    public long getLastSequence(String room) {
+        RoomState state = rooms.get(key(room));
+        return state == null ? 0 : state.lastQueued.get();
+    }
+
+    /**
+     * Reads a room's messages from a sequence number on
+     *
+     * @param room         room name
+     * @param fromSequence first sequence wanted; older ones that were deleted
+     *                     are skipped
+     * @param limit        most messages to return
+     * @return the messages in sequence order; only what's already written
+     */
+    public List<HistoryPayload.Entry> read(String room, long fromSequence, int limit) {
+        List<HistoryPayload.Entry> entries = new ArrayList<>(Math.min(Math.max(limit, 0), 256));
+        if (limit <= 0) {
+            return entries;
+        }
+        scanFrom(room, p -> p.sequence, fromSequence, entry -> {
+            if (entry.getSequence() >= fromSequence) {
+                entries.add(entry);
+            }
+            return entries.size() < limit;
+        });
+        return entries;
+    }
+
+    /**
+     * Reads the page of a room's messages just before a sequence number,
+     * going back through the index a point at a time until the page is full
+     *
+     * @param room    room name
+     * @param before  first sequence not wanted
+     * @param limit   most messages to add
+     * @param include which messages count towards the page
+     * @param into    gets the messages, oldest first
+     * @return where the next older page ends: the oldest sequence added if
+     *         the page is full, 0 if there's nothing older, or where the scan
+     *         stopped if it looked at too many records without filling the
+     *         page
+     */
+    public long readBefore(String room, long before, int limit, Predicate<HistoryPayload.Entry> include,
+            List<HistoryPayload.Entry> into) {
+        RoomState state = rooms.get(key(room));
+        if (state == null || limit <= 0) {
+            return state == null ? 0 : before;
+        }
+        List<HistoryPayload.Entry> newestFirst = new ArrayList<>(Math.min(limit, 256));
+        List<HistoryPayload.Entry> chunk = new ArrayList<>();
+        int[] looked = { 0 };
+        int budget = Math.max(MIN_PAGE_SCAN, 4 * limit);
+        long end = before;
+        while (newestFirst.size() < limit) {
+            if (looked[0] >= budget) {
+                return finishPage(newestFirst, into, end);
+            }
+            IndexPoint start;
+            indexLock.readLock().lock();
+            try {
+                start = floor(state.points, p -> p.sequence, end - 1);
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            if (start == null || start.sequence >= end) {
+                return finishPage(newestFirst, into, 0);
+            }
+            long chunkEnd = end;
+            chunk.clear();
+            scanFrom(start, state, entry -> {
+                if (entry.getSequence() >= chunkEnd) {
+                    return false;
+                }
+                looked[0]++;
+                if (include.test(entry)) {
+                    chunk.add(entry);
+                }
+                return true;
+            });
+            for (int i = chunk.size() - 1; i >= 0 && newestFirst.size() < limit; i--) {
+                newestFirst.add(chunk.get(i));
+            }
+            end = start.sequence;
+        }
+        return finishPage(newestFirst, into, newestFirst.get(newestFirst.size() - 1).getSequence());
+    }
+
+    private static long finishPage(List<HistoryPayload.Entry> newestFirst, List<HistoryPayload.Entry> into,
+            long next) {
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            into.add(newestFirst.get(i));
+        }
+        return next;
+    }
+
+    /**
+     * Finds a room's first message at or after a point in time
+     *
+     * @param room      room name
+     * @param timestamp epoch millis
+     * @return its sequence number, or one past the newest written if there's
+     *         none that late
+     */
+    public long findSequence(String room, long timestamp) {
+        long[] found = { -1 };
+        long[] last = { 0 };
+        // from a point strictly earlier, so records sharing the timestamp aren't skipped
+        scanFrom(room, p -> p.timestamp, timestamp - 1, entry -> {
+            last[0] = entry.getSequence();
+            if (entry.getTimestamp() >= timestamp) {
+                found[0] = entry.getSequence();
+                return false;
+            }
+            return true;
+        });
+        return found[0] >= 0 ? found[0] : last[0] + 1;
+    }
+
+    /**
+     * Waits until every message queued before the call is forced to disk
+     *
+     * @param timeout
+     * @param unit
+     * @return true if it was in time
+     * @throws InterruptedException
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long target = queued.get();
+        long remaining = unit.toNanos(timeout);
+        commitLock.lock();
+        try {
+            while (durable < target) {
+                if (remaining <= 0 || !isOpen) {
+                    return durable >= target;
+                }
+                remaining = durableAdvanced.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Runs a history read on one of the journal's reader threads
+     *
+     * @param read reads from the journal and sends the result itself
+     * @return false if the journal isn't open or the readers are this far
+     *         behind; the caller should do the read itself then (which also
+     *         slows down whoever is sending that many requests)
+     */
+    public boolean submitRead(Runnable read) {
+        ThreadPoolExecutor readers = this.readers;
+        if (!isOpen || readers == null) {
+            return false;
+        }
+        try {
+            readers.execute(read);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finishes the history reads already handed over, writes and forces
+     * anything queued, then stops the writer
+     */
+    public void close() {
+        openLock.lock();
+        try {
+            if (!isOpen) {
+                return;
+            }
+            isOpen = false; // appends from here on are ignored
+            readers.shutdown();
+            readers.awaitTermination(5, TimeUnit.SECONDS); // before the mappings go away
+            queue.put(CLOSE);
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+            segments.clear();
+            active = null;
+            cacheLock.lock();
+            try {
+                cached.clear();
+            } finally {
+                cacheLock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            openLock.unlock();
+        }
+        commitLock.lock();
+        try {
+            durableAdvanced.signalAll();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private static String key(String room) {
+        return room.toLowerCase();
+    }
+
+    // reading
+
+    /**
+     * Visits a room's records starting from the index point at or before the
+     * target (by sequence or timestamp), or from its oldest point if the
+     * target is older than that
+     */
+    private void scanFrom(String room, ToLongFunction<IndexPoint> by, long target, Visitor visitor) {
+        RoomState state = rooms.get(key(room));
+        if (state == null) {
+            return;
+        }
+        IndexPoint start;
+        indexLock.readLock().lock();
+        try {
+            start = floor(state.points, by, target);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        if (start != null) {
+            scanFrom(start, state, visitor);
+        }
+    }
+
+    private void scanFrom(IndexPoint start, RoomState state, Visitor visitor) {
+        if (!scan(start.segment, start.offset, state, visitor)) {
+            return;
+        }
+        for (Segment segment : segments.tailMap(start.segment.id, false).values()) {
+            if (!scan(segment, 0, state, visitor)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the last point at or before target (points are ordered by
+     *         both keys), the first point if none is, null if there are none
+     */
+    private static IndexPoint floor(List<IndexPoint> points, ToLongFunction<IndexPoint> by, long target) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        int low = 0;
+        int high = points.size() - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (by.applyAsLong(points.get(mid)) <= target) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return points.get(found);
+    }
+
+    /**
+     * @return false if the visitor stopped
+     */
+    private boolean scan(Segment segment, int from, RoomState state, Visitor visitor) {
+        int limit = segment.limit; // read first; any mapping of the segment covers at least this
+        ByteBuffer buffer = mapping(segment);
+        if (buffer == null) {
+            return true; // deleted meanwhile
+        }
+        int position = from;
+        while (position < limit) {
+            int length = buffer.getInt(position);
+            int body = position + HEADER_BYTES;
+            int roomAt = body + ROOM_OFFSET;
+            if (buffer.getInt(body) == state.hash && isRoom(buffer, roomAt, state.keyBytes)) {
+                int nameAt = roomAt + Integer.BYTES + state.keyBytes.length;
+                int messageAt = nameAt + Integer.BYTES + stringLength(buffer, nameAt);
+                HistoryPayload.Entry entry = new HistoryPayload.Entry(buffer.getLong(body + Integer.BYTES),
+                        buffer.getLong(body + Integer.BYTES + Long.BYTES),
+                        buffer.getLong(body + Integer.BYTES + 2 * Long.BYTES), readString(buffer, nameAt),
+                        readString(buffer, messageAt));
+                if (!visitor.visit(entry)) {
+                    return false;
+                }
+            }
+            position = body + length;
+        }
+        return true;
+    }
+
+    /**
+     * Compares the length-prefixed room at the position with the key without
+     * decoding it
+     */
+    private static boolean isRoom(ByteBuffer buffer, int at, byte[] key) {
+        if (buffer.getInt(at) != key.length) {
+            return false;
+        }
+        int from = at + Integer.BYTES;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(from + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets a mapping to read the segment through: the active segment's own,
+     * or a cached read-only one, mapping it again if it was evicted
+     *
+     * @return null if the segment was deleted or can't be mapped
+     */
+    private MappedByteBuffer mapping(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        if (buffer != null) {
+            return buffer;
+        }
+        cacheLock.lock();
+        try {
+            buffer = cached.get(segment.id);
+            if (buffer == null && segments.get(segment.id) == segment) {
+                try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.limit);
+                    cache(segment.id, buffer);
+                } catch (IOException e) {
+                    LoggerUtil.INSTANCE.warning("Message journal: couldn't map " + segment.path, e);
+                }
+            }
+            return buffer;
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    // only called while holding cacheLock
+    private void cache(long id, MappedByteBuffer buffer) {
+        cached.put(id, buffer);
+        int extra = cached.size() - Math.max(0, ServerConfig.INSTANCE.getJournalCachedSegments());
+        Iterator<MappedByteBuffer> eldest = cached.values().iterator();
+        for (; extra > 0; extra--) {
+            eldest.next();
+            eldest.remove(); // unmapped once collected
+        }
+    }
+
+    /**
+     * Stops writing to the segment; its mapping moves to the read cache
+     */
+    private void seal(Segment segment) {
+        cacheLock.lock();
+        try {
+            cache(segment.id, segment.buffer);
+            segment.buffer = null;
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    private static int stringLength(ByteBuffer buffer, int at) {
+        return Math.max(0, buffer.getInt(at));
+    }
+
+    private static String readString(ByteBuffer buffer, int at) {
+        int length = buffer.getInt(at);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(at + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // startup
+
+    private Segment map(long id, boolean create) throws IOException {
+        Path path = dir.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX));
+        try (FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // existing segments keep their size; the mapping outlives the channel
+            long size = create ? ServerConfig.INSTANCE.getJournalSegmentBytes() : channel.size();
+            return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * Finds where the segment's records end and indexes them; a torn record
+     * is zeroed so it reads as the end
+     */
+    private void scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int capacity = buffer.capacity();
+        int position = 0;
+        while (position + HEADER_BYTES <= capacity) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            int body = position + HEADER_BYTES;
+            boolean isValid = length >= FIXED_BODY_BYTES && length <= capacity - body;
+            if (isValid) {
+                crc.reset();
+                crc.update(buffer.slice(body, length));
+                isValid = (int) crc.getValue() == buffer.getInt(position + Integer.BYTES);
+            }
+            if (!isValid) {
+                int end = length > 0 && length <= capacity - body ? body + length : capacity;
+                LoggerUtil.INSTANCE.warning("Message journal %s: dropping an incomplete record at %s",
+                        segment.path, position);
+                for (int i = position; i < end; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                buffer.force(position, end - position);
+                break;
+            }
+            String room = readString(buffer, body + ROOM_OFFSET);
+            RoomState state = rooms.computeIfAbsent(room, RoomState::new);
+            long sequence = buffer.getLong(body + Integer.BYTES);
+            long timestamp = buffer.getLong(body + Integer.BYTES + Long.BYTES);
+            index(state, sequence, timestamp, segment, position);
+            state.lastQueued.set(sequence);
+            segment.lastTimestamp = Math.max(segment.lastTimestamp, timestamp);
+            position = body + length;
+            writtenBytes += HEADER_BYTES + length;
+        }
+        segment.limit = position;
+    }
+
+    // writer thread
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        long lastForce = System.nanoTime();
+        int unforced = 0;
+        boolean isClosing = false;
+        while (!isClosing) {
+            long intervalNanos = TimeUnit.MILLISECONDS.toNanos(ServerConfig.INSTANCE.getJournalFsyncIntervalMillis());
+            try {
+                // with unforced records, wake up in time to force them
+                long waitNanos = unforced > 0 ? Math.max(0, lastForce + intervalNanos - System.nanoTime())
+                        : TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_MILLIS);
+                Pending first = queue.poll(waitNanos, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH);
+                }
+            } catch (InterruptedException e) {
+                isClosing = true;
+            }
+            for (Pending pending : batch) {
+                if (pending == CLOSE) {
+                    isClosing = true;
+                } else {
+                    write(pending);
+                    unforced++;
+                }
+            }
+            batch.clear();
+            if (unforced > 0 && (isClosing || unforced >= ServerConfig.INSTANCE.getJournalFsyncBatchRecords()
+                    || System.nanoTime() - lastForce >= intervalNanos)) {
+                force();
+                markDurable(unforced);
+                unforced = 0;
+                lastForce = System.nanoTime();
+            }
+            applyRetention();
+        }
+    }
+
+    private void markDurable(int count) {
+        commitLock.lock();
+        try {
+            durable += count;
+            durableAdvanced.signalAll();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private void write(Pending pending) {
+        RoomState state = pending.room;
+        if (pending.sequence <= state.lastSequence) {
+            return; // already journaled
+        }
+        // seeking by time assumes a room's timestamps don't go backwards
+        long timestamp = Math.max(pending.timestamp, state.lastTimestamp);
+        int length = encode(pending, timestamp);
+        int total = HEADER_BYTES + length;
+        try {
+            if (active.limit + total > active.buffer.capacity()) {
+                if (total > ServerConfig.INSTANCE.getJournalSegmentBytes()) {
+                    LoggerUtil.INSTANCE.warning("Message journal: %s byte message in %s is larger than a segment",
+                            length, state.key);
+                    ServerMetrics.JOURNAL_DROPPED.increment();
+                    return;
+                }
+                roll();
+            }
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.severe("Message journal: couldn't start a new segment", e);
+            ServerMetrics.JOURNAL_DROPPED.increment();
+            return;
+        }
+        MappedByteBuffer buffer = active.buffer;
+        int position = active.limit;
+        crc.reset();
+        crc.update(scratch, 0, length);
+        buffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+        buffer.put(position + HEADER_BYTES, scratch, 0, length);
+        buffer.putInt(position, length);
+        active.lastTimestamp = Math.max(active.lastTimestamp, timestamp);
+        active.limit = position + total; // publishes the record to readers
+        indexLock.writeLock().lock();
+        try {
+            index(state, pending.sequence, timestamp, active, position);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+        writtenBytes += total;
+    }
+
+    /**
+     * Adds an index point for the record if it's due one (writer thread or
+     * startup scan)
+     */
+    private void index(RoomState state, long sequence, long timestamp, Segment segment, int offset) {
+        List<IndexPoint> points = state.points;
+        if (points.isEmpty() || points.get(points.size() - 1).segment != segment
+                || state.sinceLastPoint >= ServerConfig.INSTANCE.getJournalIndexInterval()
+                || writtenBytes - state.bytesAtLastPoint >= ServerConfig.INSTANCE.getJournalIndexBytes()) {
+            points.add(new IndexPoint(sequence, timestamp, segment, offset));
+            state.sinceLastPoint = 1;
+            state.bytesAtLastPoint = writtenBytes;
+        } else {
+            state.sinceLastPoint++;
+        }
+        state.lastSequence = sequence;
+        state.lastTimestamp = timestamp;
+    }
+
+    /**
+     * Encodes the record body into scratch
+     *
+     * @return its length
+     */
+    private int encode(Pending pending, long timestamp) {
+        byte[] room = pending.room.key.getBytes(StandardCharsets.UTF_8);
+        byte[] name = pending.name == null ? null : pending.name.getBytes(StandardCharsets.UTF_8);
+        byte[] message = pending.message.getBytes(StandardCharsets.UTF_8);
+        int length = FIXED_BODY_BYTES + room.length + (name == null ? 0 : name.length) + message.length;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        ByteBuffer body = ByteBuffer.wrap(scratch, 0, length);
+        body.putInt(pending.room.hash);
+        body.putLong(pending.sequence);
+        body.putLong(timestamp);
+        body.putLong(pending.clientId);
+        body.putInt(room.length).put(room);
+        if (name == null) {
+            body.putInt(-1);
+        } else {
+            body.putInt(name.length).put(name);
+        }
+        body.putInt(message.length).put(message);
+        return length;
+    }
+
+    private void force() {
+        int limit = active.limit;
+        if (limit > forcedLimit) {
+            long start = System.nanoTime();
+            active.buffer.force(forcedLimit, limit - forcedLimit);
+            ServerMetrics.JOURNAL_FSYNC_DURATION.recordSince(start);
+            forcedLimit = limit;
+        }
+    }
+
+    private void roll() throws IOException {
+        force();
+        Segment next = map(active.id + 1, true);
+        segments.put(next.id, next);
+        seal(active);
+        active = next;
+        forcedLimit = 0;
+        LoggerUtil.INSTANCE.info("Message journal: started segment %s", next.path);
+    }
+
+    /**
+     * Deletes the oldest segments while there are too many or they're past
+     * the retention period; the active one always stays
+     */
+    private void applyRetention() {
+        int maxSegments = ServerConfig.INSTANCE.getJournalMaxSegments();
+        long retentionMillis = TimeUnit.HOURS.toMillis(ServerConfig.INSTANCE.getJournalRetentionHours());
+        long now = System.currentTimeMillis();
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            boolean isTooMany = maxSegments > 0 && segments.size() > maxSegments;
+            boolean isExpired = retentionMillis > 0 && oldest.lastTimestamp < now - retentionMillis;
+            if (oldest == active || (!isTooMany && !isExpired)) {
+                return;
+            }
+            segments.remove(oldest.id);
+            cacheLock.lock();
+            try {
+                cached.remove(oldest.id);
+            } finally {
+                cacheLock.unlock();
+            }
+            indexLock.writeLock().lock();
+            try {
+                for (RoomState state : rooms.values()) {
+                    List<IndexPoint> points = state.points;
+                    int stale = 0;
+                    while (stale < points.size() && points.get(stale).segment.id <= oldest.id) {
+                        stale++;
+                    }
+                    points.subList(0, stale).clear();
+                }
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+            try {
+                Files.deleteIfExists(oldest.path);
+                LoggerUtil.INSTANCE.info("Message journal: deleted segment %s", oldest.path);
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.warning("Message journal: couldn't delete " + oldest.path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package Project.Server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The names one user muted, kept both as names (what {@link MuteStore}
+ * persists) and as a sorted array of their {@link UserIds} numbers (what
+ * broadcasts test).
+ * <p>
+ * The array is immutable and replaced on every change (copy-on-write), like
+ * Room's roster: a fan-out reads it once per recipient without locking and
+ * binary-searches it, while changes, which are rare, are applied one at a
+ * time under {@link #lock}. It only holds the muted numbers, so a set costs
+ * what its user muted whatever the server's highest number, and most users
+ * (who mute nobody) share the empty array.
+ * </p>
+ * <p>
+ * A name nobody has logged in with yet has no number, and muting it doesn't
+ * give it one (anything can follow /mute). It's kept as a name until
+ * someone logs in with it: tests look for the newly interned names whenever
+ * UserIds has grown since they last did.
+ * </p>
+ */
+public class MuteSet {
+    private static final int[] NO_IDS = new int[0];
+    private static final String[] NO_NAMES = new String[0];
+
+    /**
+     * Mutes of nobody; for clients that aren't logged in yet. Never modified.
+     */
+    public static final MuteSet EMPTY = new MuteSet();
+
+    private final Set<String> names = ConcurrentHashMap.newKeySet();
+    private volatile int[] ids = NO_IDS; // sorted
+    // muted names without a number yet, and UserIds.size() when they were last looked up; changed under lock
+    private volatile String[] unresolved = NO_NAMES;
+    private volatile int resolvedAt = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param userId a {@link UserIds} number
+     * @return true if that user is muted; always false for UserIds.NONE
+     */
+    public boolean contains(int userId) {
+        if (unresolved.length > 0 && resolvedAt != UserIds.INSTANCE.size()) {
+            resolve();
+        }
+        return Arrays.binarySearch(ids, userId) >= 0;
+    }
+
+    /**
+     * @param name client name, may be null
+     * @return true if that name is muted
+     */
+    public boolean contains(String name) {
+        return name != null && names.contains(name); // concurrent sets don't take null
+    }
+
+    /**
+     * @param name client name to mute
+     * @return true if it wasn't muted before
+     */
+    public boolean add(String name) {
+        lock.lock();
+        try {
+            if (!names.add(name)) {
+                return false;
+            }
+            int userId = UserIds.INSTANCE.find(name);
+            if (userId == UserIds.NONE) {
+                String[] updated = Arrays.copyOf(unresolved, unresolved.length + 1);
+                updated[updated.length - 1] = name;
+                unresolved = updated;
+            } else {
+                ids = with(ids, userId);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param name client name to unmute
+     * @return true if it was muted
+     */
+    public boolean remove(String name) {
+        lock.lock();
+        try {
+            if (!names.remove(name)) {
+                return false;
+            }
+            int at = Arrays.asList(unresolved).indexOf(name);
+            if (at >= 0) {
+                unresolved = without(unresolved, at);
+                return true;
+            }
+            int index = Arrays.binarySearch(ids, UserIds.INSTANCE.find(name));
+            if (index >= 0) {
+                int[] updated = new int[ids.length - 1];
+                System.arraycopy(ids, 0, updated, 0, index);
+                System.arraycopy(ids, index + 1, updated, index, updated.length - index);
+                ids = updated.length == 0 ? NO_IDS : updated;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the muted names (read-only view)
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(names);
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Moves muted names that have been given a number since the last look into
+     * the array
+     */
+    private void resolve() {
+        lock.lock();
+        try {
+            int size = UserIds.INSTANCE.size(); // read first, so a name interned meanwhile is looked for again
+            int[] updated = ids;
+            String[] remaining = unresolved;
+            for (int i = remaining.length - 1; i >= 0; i--) {
+                int userId = UserIds.INSTANCE.find(remaining[i]);
+                if (userId != UserIds.NONE) {
+                    updated = with(updated, userId);
+                    remaining = without(remaining, i);
+                }
+            }
+            ids = updated;
+            unresolved = remaining;
+            resolvedAt = size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int[] with(int[] sorted, int value) {
+        int index = Arrays.binarySearch(sorted, value);
+        if (index >= 0) {
+            return sorted;
+        }
+        index = -index - 1;
+        int[] updated = new int[sorted.length + 1];
+        System.arraycopy(sorted, 0, updated, 0, index);
+        updated[index] = value;
+        System.arraycopy(sorted, index, updated, index + 1, sorted.length - index);
+        return updated;
+    }
+
+    private static String[] without(String[] values, int index) {
+        if (values.length == 1) {
+            return NO_NAMES;
+        }
+        String[] updated = new String[values.length - 1];
+        System.arraycopy(values, 0, updated, 0, index);
+        System.arraycopy(values, index + 1, updated, index, updated.length - index);
+        return updated;
+    }
+}
@@ -0,0 +1,700 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Server-wide store of who muted whom, replacing one {@code <name>.txt} file
+ * per user rewritten on every toggle.
+ * <p>
+ * On disk it's a single append-only log of {@code +owner<TAB>target} and
+ * {@code -owner<TAB>target} lines (tabs, newlines and backslashes escaped).
+ * In memory there's an index from each owner to where their records are,
+ * built by one sequential scan when the store is opened, and the mute sets
+ * of users who are connected. A login gets its set at once and the writer
+ * thread reads that user's records into it (most users never mute anyone
+ * and have none), so the connection's thread never waits on the disk;
+ * until then the set is empty and lets everything through. The set is
+ * dropped when the user's last connection closes.
+ * </p>
+ * <p>
+ * Toggles update the in-memory set at once and queue a record. A single
+ * writer thread appends everything queued within the commit delay in one
+ * write and one fsync (group commit), so the caller never waits on the disk;
+ * a batch that fails to write is retried with the next one. Once the log
+ * has grown to twice its size after the last compaction (and past a
+ * minimum), the writer rewrites it with only the current mutes.
+ * </p>
+ */
+public enum MuteStore {
+    INSTANCE;
+
+    private static final String LEGACY_SUFFIX = ".txt";
+    private static final long IDLE_CHECK_MILLIS = 1000; // also how soon a failed batch is retried
+
+    /**
+     * Where one record sits in the log
+     */
+    private static class Span {
+        final long offset;
+        final int length;
+
+        Span(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Record {
+        final boolean isMute;
+        final String owner;
+        final String target; // null for a request to load the owner's set
+
+        Record(boolean isMute, String owner, String target) {
+            this.isMute = isMute;
+            this.owner = owner;
+            this.target = target;
+        }
+    }
+
+    private static final Record CLOSE = new Record(false, null, null);
+
+    /**
+     * A connected user's mutes
+     */
+    private static class Owner {
+        final MuteSet mutes = new MuteSet(); // live; ServerThreads read it directly
+        // guarded by toggleLock
+        int connections = 0;
+        Set<String> touched = new HashSet<>(); // names toggled while loading; null once loaded
+    }
+
+    // users with at least one connection
+    private final ConcurrentHashMap<String, Owner> loaded = new ConcurrentHashMap<>();
+    // keeps a user's set change and its queued record in the same order
+    private final ReentrantLock toggleLock = new ReentrantLock();
+    private final ReentrantLock openLock = new ReentrantLock();
+    private volatile boolean isOpen = false;
+    private boolean isUnavailable = false; // couldn't open; mutes are kept in memory only
+    // the write lock is only held to swap in a compacted log and index, or to add a batch to the index
+    private final ReentrantReadWriteLock logLock = new ReentrantReadWriteLock();
+    private Path file;
+    private FileChannel channel;
+    private final Map<String, List<Span>> index = new HashMap<>();
+    // writer thread only
+    private long logSize = 0;
+    private long records = 0;
+    private long recordsAfterCompaction = 0;
+    private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private final AtomicLong queued = new AtomicLong();
+    private long committed = 0; // guarded by commitLock
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Condition commitAdvanced = commitLock.newCondition();
+
+    /**
+     * Opens the log and builds the index now rather than on first use
+     *
+     * @return false if the log can't be opened; mutes are kept in memory only
+     */
+    public boolean open() {
+        return ensureOpen();
+    }
+
+    /**
+     * Gets a user's mute set for one of their connections; the first
+     * connection's set is empty until the writer thread has read it in
+     *
+     * @param owner client name
+     * @return live set of who the owner muted; don't modify it directly
+     */
+    public MuteSet acquire(String owner) {
+        boolean isOpen = ensureOpen();
+        toggleLock.lock();
+        try {
+            Owner state = loaded.get(owner);
+            if (state == null) {
+                state = new Owner();
+                loaded.put(owner, state);
+                if (isOpen) {
+                    queue.add(new Record(false, owner, null));
+                } else {
+                    state.touched = null; // nothing to read
+                }
+            }
+            state.connections++;
+            return state.mutes;
+        } finally {
+            toggleLock.unlock();
+        }
+    }
+
+    /**
+     * Tells the store one of the user's connections closed; their set is
+     * dropped after the last one
+     *
+     * @param owner client name passed to {@link #acquire(String)}
+     */
+    public void release(String owner) {
+        toggleLock.lock();
+        try {
+            Owner state = loaded.get(owner);
+            if (state != null && --state.connections <= 0) {
+                loaded.remove(owner);
+            }
+        } finally {
+            toggleLock.unlock();
+        }
+    }
+
+    /**
+     * Mutes or unmutes target for owner; persisted in the background
+     *
+     * @param owner  client name, with a connection from {@link #acquire(String)}
+     * @param target
+     * @param isMute
+     * @return true if this changed the owner's mutes (always, while they're
+     *         still being read in)
+     */
+    public boolean setMuted(String owner, String target, boolean isMute) {
+        toggleLock.lock();
+        try {
+            Owner state = loaded.get(owner);
+            if (state == null) {
+                return false; // not connected
+            }
+            boolean changed = isMute ? state.mutes.add(target) : state.mutes.remove(target);
+            if (state.touched != null) {
+                // the log may say otherwise until it's read; record it either way, and the load mustn't undo it
+                state.touched.add(target);
+                changed = true;
+            }
+            if (changed) {
+                enqueue(new Record(isMute, owner, target));
+            }
+            return changed;
+        } finally {
+            toggleLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every toggle made before the call is on disk
+     *
+     * @param timeout
+     * @param unit
+     * @return true if it was written in time
+     * @throws InterruptedException
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long target = queued.get();
+        long remaining = unit.toNanos(timeout);
+        commitLock.lock();
+        try {
+            while (committed < target) {
+                if (remaining <= 0 || !isOpen) {
+                    return committed >= target;
+                }
+                remaining = commitAdvanced.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Writes anything queued and closes the log; the next use reopens it
+     */
+    public void close() {
+        openLock.lock();
+        try {
+            if (!isOpen) {
+                return;
+            }
+            queue.add(CLOSE);
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+            isOpen = false;
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("Error closing mute store", e);
+        } finally {
+            openLock.unlock();
+        }
+        commitLock.lock();
+        try {
+            commitAdvanced.signalAll();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private void enqueue(Record record) {
+        if (!ensureOpen()) {
+            return;
+        }
+        queued.incrementAndGet();
+        queue.add(record);
+    }
+
+    /**
+     * @return false if the log can't be opened (logged once)
+     */
+    private boolean ensureOpen() {
+        if (isOpen) {
+            return true;
+        }
+        openLock.lock();
+        try {
+            if (isOpen || isUnavailable) {
+                return isOpen;
+            }
+            file = Path.of(ServerConfig.INSTANCE.getMuteStoreFile());
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            scan();
+            recordsAfterCompaction = records;
+            writer = Thread.ofPlatform().name("mute-store-writer").daemon(true).start(this::writeLoop);
+            isOpen = true;
+            LoggerUtil.INSTANCE.info("Mute store %s: %s records for %s users", file, records, index.size());
+            return true;
+        } catch (IOException e) {
+            // mutes still work for this run, they just won't be saved
+            LoggerUtil.INSTANCE.severe("Couldn't open mute store " + file + ", mutes won't be saved", e);
+            isUnavailable = true;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closeError) {
+                    // already failing
+                }
+            }
+            return false;
+        } finally {
+            openLock.unlock();
+        }
+    }
+
+    /**
+     * Builds the index from the log; a partial last line (a crash mid-write) is
+     * cut off
+     */
+    private void scan() throws IOException {
+        index.clear();
+        records = 0;
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        byte[] line = new byte[256];
+        int lineLength = 0;
+        long lineStart = 0;
+        long position = 0;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n') {
+                    Record record = decode(line, lineLength);
+                    if (record != null) {
+                        addToIndex(index, record.owner, new Span(lineStart, lineLength + 1));
+                        records++;
+                    }
+                    lineStart = position + i + 1;
+                    lineLength = 0;
+                } else {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+            position += read;
+        }
+        if (lineStart < size) {
+            LoggerUtil.INSTANCE.warning("Mute store %s: dropping %s bytes of an incomplete record", file,
+                    size - lineStart);
+            channel.truncate(lineStart);
+        }
+        logSize = lineStart;
+    }
+
+    private static void addToIndex(Map<String, List<Span>> index, String owner, Span span) {
+        index.computeIfAbsent(owner, k -> new ArrayList<>(2)).add(span);
+    }
+
+    private MuteSet read(String owner) {
+        MuteSet mutes = new MuteSet();
+        logLock.readLock().lock();
+        try {
+            List<Span> spans = index.get(owner);
+            if (spans == null) {
+                importLegacy(owner, mutes);
+                return mutes;
+            }
+            for (Span span : spans) {
+                ByteBuffer buffer = ByteBuffer.allocate(span.length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, span.offset + buffer.position()) < 0) {
+                        throw new IOException("Mute store is shorter than its index");
+                    }
+                }
+                Record record = decode(buffer.array(), span.length - 1);
+                if (record != null) {
+                    apply(mutes, record);
+                }
+            }
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.severe("Error reading mutes for " + owner, e);
+        } finally {
+            logLock.readLock().unlock();
+        }
+        return mutes;
+    }
+
+    private static void apply(MuteSet mutes, Record record) {
+        if (record.isMute) {
+            mutes.add(record.target);
+        } else {
+            mutes.remove(record.target);
+        }
+    }
+
+    /**
+     * Brings in a mute list saved by older versions as {@code <owner>.txt};
+     * only looked for while the owner has nothing in the store
+     */
+    private void importLegacy(String owner, MuteSet mutes) throws IOException {
+        if (!ServerConfig.INSTANCE.isMuteStoreImportLegacy() || owner.isEmpty() || owner.startsWith(".")
+                || owner.contains("/") || owner.contains("\\")) {
+            return;
+        }
+        Path legacy = Path.of(owner + LEGACY_SUFFIX);
+        if (!Files.isRegularFile(legacy)) {
+            return;
+        }
+        for (String line : Files.readAllLines(legacy, StandardCharsets.UTF_8)) {
+            if (!line.isEmpty() && mutes.add(line)) {
+                enqueue(new Record(true, owner, line));
+            }
+        }
+        LoggerUtil.INSTANCE.info("Imported %s mutes for %s from %s", mutes.size(), owner, legacy);
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(); // still holds a batch that failed to write
+        List<String> loads = new ArrayList<>();
+        long commitDelayNanos = TimeUnit.MILLISECONDS.toNanos(ServerConfig.INSTANCE.getMuteStoreCommitDelayMillis());
+        boolean isClosing = false;
+        while (!isClosing) {
+            try {
+                Record first = queue.poll(IDLE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    // group commit: let toggles arriving meanwhile share this write and fsync
+                    long deadline = System.nanoTime() + commitDelayNanos;
+                    Record next;
+                    while ((next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null) {
+                        batch.add(next);
+                        queue.drainTo(batch);
+                    }
+                    isClosing = batch.remove(CLOSE);
+                    for (Iterator<Record> i = batch.iterator(); i.hasNext();) {
+                        Record record = i.next();
+                        if (record.target == null) {
+                            loads.add(record.owner);
+                            i.remove();
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    if (append(batch)) {
+                        markCommitted(batch.size());
+                        batch.clear();
+                    } else if (isClosing) {
+                        LoggerUtil.INSTANCE.severe("Mute store %s: %s mute changes weren't saved", file, batch.size());
+                    }
+                }
+                // after the append, so the log has everything queued before the login
+                for (String owner : loads) {
+                    load(owner);
+                }
+                loads.clear();
+                if (batch.isEmpty()) {
+                    maybeCompact();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads a newly connected user's records into their set (writer thread)
+     */
+    private void load(String owner) {
+        Owner state = loaded.get(owner);
+        if (state == null) {
+            return; // gone again already
+        }
+        MuteSet saved = read(owner);
+        toggleLock.lock();
+        try {
+            if (loaded.get(owner) != state) {
+                return;
+            }
+            // what was toggled since the login is newer than the log
+            for (String target : saved.names()) {
+                if (!state.touched.contains(target)) {
+                    state.mutes.add(target);
+                }
+            }
+            state.touched = null;
+        } finally {
+            toggleLock.unlock();
+        }
+    }
+
+    private void markCommitted(int count) {
+        commitLock.lock();
+        try {
+            committed += count;
+            commitAdvanced.signalAll();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * @return true once the batch is written and forced
+     */
+    private boolean append(List<Record> batch) {
+        List<byte[]> lines = new ArrayList<>(batch.size());
+        int total = 0;
+        for (Record record : batch) {
+            byte[] line = encode(record);
+            lines.add(line);
+            total += line.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        lines.forEach(buffer::put);
+        buffer.flip();
+        try {
+            long position = logSize;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // the sets in memory are still right; only a restart would lose these
+            LoggerUtil.INSTANCE.severe("Error writing " + batch.size() + " mute records", e);
+            return false;
+        }
+        logLock.writeLock().lock();
+        try {
+            long offset = logSize;
+            for (int i = 0; i < batch.size(); i++) {
+                addToIndex(index, batch.get(i).owner, new Span(offset, lines.get(i).length));
+                offset += lines.get(i).length;
+            }
+            logSize = offset;
+            records += batch.size();
+        } finally {
+            logLock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    private void maybeCompact() {
+        if (records < 2 * Math.max(ServerConfig.INSTANCE.getMuteStoreCompactMinRecords(), recordsAfterCompaction)) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.severe("Error compacting mute store " + file, e);
+            recordsAfterCompaction = records; // don't retry on every pass
+        }
+    }
+
+    /**
+     * Rewrites the log with one + record per current mute. Runs on the writer
+     * thread, so nothing is appended meanwhile; toggles made during it are
+     * queued and appended to the new log afterwards.
+     */
+    private void compact() throws IOException {
+        long started = System.nanoTime();
+        long before = records;
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        Map<String, List<Span>> compacted = new HashMap<>();
+        long written = 0;
+        long offset = 0;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<String> owners;
+            logLock.readLock().lock();
+            try {
+                owners = new ArrayList<>(index.keySet());
+            } finally {
+                logLock.readLock().unlock();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (String owner : owners) {
+                MuteSet mutes = currentMutes(owner);
+                for (String target : (mutes != null ? mutes : read(owner)).names()) {
+                    byte[] line = encode(new Record(true, owner, target));
+                    if (buffer.remaining() < line.length) {
+                        offset += drain(out, buffer, offset);
+                        if (buffer.capacity() < line.length) {
+                            buffer = ByteBuffer.allocate(line.length);
+                        }
+                    }
+                    addToIndex(compacted, owner, new Span(offset + buffer.position(), line.length));
+                    buffer.put(line);
+                    written++;
+                }
+            }
+            offset += drain(out, buffer, offset);
+            out.force(false);
+        }
+        logLock.writeLock().lock();
+        try {
+            channel.close();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            index.clear();
+            index.putAll(compacted);
+            logSize = offset;
+            records = written;
+            recordsAfterCompaction = written;
+        } finally {
+            logLock.writeLock().unlock();
+        }
+        LoggerUtil.INSTANCE.info("Compacted mute store %s: %s records to %s in %sms", file, before, written,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    /**
+     * @return the connected owner's set if it's been loaded, else null
+     */
+    private MuteSet currentMutes(String owner) {
+        toggleLock.lock();
+        try {
+            Owner state = loaded.get(owner);
+            return state != null && state.touched == null ? state.mutes : null;
+        } finally {
+            toggleLock.unlock();
+        }
+    }
+
+    private static long drain(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        long start = position;
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+        buffer.clear();
+        return position - start;
+    }
+
+    private static byte[] encode(Record record) {
+        StringBuilder sb = new StringBuilder(record.owner.length() + record.target.length() + 3);
+        sb.append(record.isMute ? '+' : '-');
+        escape(sb, record.owner);
+        sb.append('\t');
+        escape(sb, record.target);
+        sb.append('\n');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param line   record bytes without the trailing newline
+     * @param length
+     * @return the record, or null if the line isn't one (logged)
+     */
+    private Record decode(byte[] line, int length) {
+        String text = new String(line, 0, length, StandardCharsets.UTF_8);
+        int tab = -1;
+        for (int i = 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '\t') {
+                tab = i;
+                break;
+            }
+        }
+        if (text.isEmpty() || (text.charAt(0) != '+' && text.charAt(0) != '-') || tab < 0) {
+            LoggerUtil.INSTANCE.warning("Mute store %s: skipping malformed record [%s]", file, text);
+            return null;
+        }
+        return new Record(text.charAt(0) == '+', unescape(text.substring(1, tab)), unescape(text.substring(tab + 1)));
+    }
+
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char escaped = value.charAt(++i);
+                sb.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,459 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import Project.Common.FrameCodec;
+import Project.Common.LoggerUtil;
+import Project.Common.Payload;
+import Project.Common.WireFormat;
+
+/**
+ * Selector-based alternative to one blocking ServerThread per client.
+ * <p>
+ * A fixed set of event loops (one per core by default) owns accept, read and
+ * write for every connection. Inbound bytes are split into frames
+ * ({@link FrameCodec}) and each fully decoded Payload is handed to the
+ * existing ServerThread.processPayload() logic on the loop thread.
+ * </p>
+ * <p>
+ * Legacy clients that speak a raw ObjectOutputStream can't be decoded without
+ * blocking, so they're detected on their first byte and handed off to a
+ * regular blocking ServerThread.
+ * </p>
+ */
+public class NioServerEngine implements AutoCloseable {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_GATHER = 64; // frames per gathering write
+
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final Consumer<ServerThread> onClientInitialized;
+    private final ThreadFactory legacyThreads = ConnectionMode.NIO.newThreadFactory();
+    private int nextLoop = 0;
+    private volatile boolean isRunning = false;
+
+    /**
+     * @param port                port to listen on
+     * @param loopCount           number of selector threads
+     * @param onClientInitialized callback passed to every ServerThread created
+     * @throws IOException
+     */
+    public NioServerEngine(int port, int loopCount, Consumer<ServerThread> onClientInitialized) throws IOException {
+        this.onClientInitialized = onClientInitialized;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        // the first loop doubles as the acceptor
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Starts all event loop threads
+     */
+    public void start() {
+        isRunning = true;
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+        LoggerUtil.INSTANCE.info(String.format("NioServerEngine started with %s event loops", loops.length));
+    }
+
+    /**
+     * Blocks until every event loop has exited
+     *
+     * @throws InterruptedException
+     */
+    public void join() throws InterruptedException {
+        for (EventLoop loop : loops) {
+            loop.join();
+        }
+    }
+
+    @Override
+    public void close() {
+        isRunning = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.info("Error closing server channel", e);
+        }
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            ServerMetrics.CONNECTIONS_ACCEPTED.increment();
+            LoggerUtil.INSTANCE.info("Client connected");
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            EventLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            final SocketChannel accepted = channel;
+            loop.execute(() -> loop.register(accepted));
+        }
+    }
+
+    /**
+     * A single selector thread and the connections registered to it
+     */
+    private class EventLoop extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException {
+            super("nio-loop-" + index);
+            selector = Selector.open();
+        }
+
+        /**
+         * Queues work to run on this loop's thread
+         *
+         * @param task
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(this, channel, key));
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.warning("Failed to register client channel", e);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (isRunning) {
+                    selector.select();
+                    Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                    while (iter.hasNext()) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        handle(key);
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            // a bad task mustn't take down every connection on this loop
+                            LoggerUtil.INSTANCE.severe("Event loop task failed", e);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                LoggerUtil.INSTANCE.severe("Event loop failed", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+                LoggerUtil.INSTANCE.info(getName() + " stopped");
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                if (key.isAcceptable()) {
+                    accept();
+                    return;
+                }
+                Connection connection = (Connection) key.attachment();
+                if (key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException e) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                } else {
+                    LoggerUtil.INSTANCE.severe("Error accepting connection", e);
+                }
+            } catch (RuntimeException e) {
+                // e.g. a malformed payload; drop just this connection (as a blocking
+                // ServerThread would) and keep the loop, and with loop 0 the acceptor, running
+                if (key.attachment() instanceof Connection) {
+                    LoggerUtil.INSTANCE.severe("Error handling client, closing its connection", e);
+                    ((Connection) key.attachment()).close();
+                } else {
+                    LoggerUtil.INSTANCE.severe("Error accepting connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-client state owned by one EventLoop.
+     * write() is safe to call from any thread; everything else runs on the
+     * loop thread.
+     */
+    public class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final OutboundQueue<ByteBuffer> outbound = new OutboundQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+        // frames taken off outbound for the current gathering write, loop thread only
+        private final ByteBuffer[] batch = new ByteBuffer[MAX_GATHER];
+        private int batchStart = 0;
+        private int batchEnd = 0;
+        private volatile boolean closeAfterFlush = false;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private ServerThread session; // created once the first byte identifies the protocol
+        private WireFormat wireFormat;
+        private volatile boolean isOpen = true;
+
+        private Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        public Socket getSocket() {
+            return channel.socket();
+        }
+
+        /**
+         * Queues an encoded frame and schedules a flush on the owning loop.
+         * The frame bytes may be shared with other connections; each gets its
+         * own ByteBuffer view.
+         *
+         * @param frame
+         * @return false if the client is too far behind and should be dropped
+         * @throws IOException if the connection is already closed
+         */
+        public boolean write(byte[] frame) throws IOException {
+            if (!isOpen) {
+                throw new IOException("Connection closed");
+            }
+            if (!outbound.offer(ByteBuffer.wrap(frame))) {
+                return false;
+            }
+            scheduleFlush();
+            return true;
+        }
+
+        /**
+         * @return frames waiting to be written (excluding a partially written
+         *         batch)
+         */
+        public int getOutboundDepth() {
+            return outbound.depth();
+        }
+
+        /**
+         * Closes the connection once everything already queued is written
+         */
+        void closeAfterFlush() {
+            closeAfterFlush = true;
+            flushScheduled.set(true);
+            loop.execute(this::flushQuietly);
+        }
+
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(this::flushQuietly);
+            }
+        }
+
+        private void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Writes queued frames, coalescing up to MAX_GATHER frames (or the
+         * configured batch size) into one gathering write per syscall
+         */
+        private void flush() throws IOException {
+            if (!isOpen) {
+                return;
+            }
+            while (batchStart < batchEnd || fillBatch()) {
+                channel.write(batch, batchStart, batchEnd - batchStart);
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    batch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    // socket buffer is full, wait until the selector says it's writable again
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            if (closeAfterFlush) {
+                close();
+                return;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            flushScheduled.set(false);
+            // a writer may have queued data after the final peek but before the flag cleared
+            if (!outbound.isEmpty() && flushScheduled.compareAndSet(false, true)) {
+                flush();
+            }
+        }
+
+        private boolean fillBatch() {
+            int batchBytes = ServerConfig.INSTANCE.getOutboundBatchBytes();
+            batchStart = 0;
+            batchEnd = 0;
+            long bytes = 0;
+            ByteBuffer next;
+            // always take at least one frame so a batch size of 0 degrades to one write per frame
+            while (batchEnd < batch.length && (batchEnd == 0 || bytes < batchBytes)
+                    && (next = outbound.poll()) != null) {
+                batch[batchEnd++] = next;
+                bytes += next.remaining();
+            }
+            return batchEnd > 0;
+        }
+
+        private void onReadable() throws IOException {
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            if (session == null) {
+                if (!readBuffer.hasRemaining()) {
+                    readBuffer.compact();
+                    return;
+                }
+                wireFormat = WireFormat.detect(readBuffer.get(0));
+                if (wireFormat == WireFormat.OBJECT_STREAM) {
+                    handOffLegacy();
+                    return;
+                }
+                if (wireFormat.hasHandshake()) {
+                    readBuffer.get(); // consume the handshake byte
+                }
+                session = new ServerThread(getSocket(), onClientInitialized);
+                session.attach(this, wireFormat);
+            }
+            decodeFrames();
+            readBuffer.compact();
+        }
+
+        private void decodeFrames() throws IOException {
+            while (isOpen && readBuffer.remaining() >= FrameCodec.HEADER_SIZE) {
+                int length = FrameCodec.checkLength(readBuffer.getInt(readBuffer.position()));
+                int frameSize = FrameCodec.HEADER_SIZE + length;
+                if (readBuffer.remaining() < frameSize) {
+                    if (readBuffer.capacity() < frameSize) {
+                        // grow so the rest of this frame fits on the next read
+                        ByteBuffer bigger = ByteBuffer.allocate(frameSize);
+                        bigger.put(readBuffer);
+                        bigger.flip();
+                        readBuffer = bigger;
+                    }
+                    return;
+                }
+                int start = readBuffer.position() + FrameCodec.HEADER_SIZE;
+                readBuffer.position(readBuffer.position() + frameSize);
+                Payload payload;
+                try {
+                    payload = FrameCodec.decode(readBuffer.array(), start, length, wireFormat);
+                } catch (ClassNotFoundException | ClassCastException e) {
+                    LoggerUtil.INSTANCE.severe("Error reading object as specified type: ", e);
+                    continue;
+                }
+                session.receive(payload);
+            }
+        }
+
+        /**
+         * Moves a legacy ObjectOutputStream client onto a blocking ServerThread,
+         * replaying whatever was already read
+         */
+        private void handOffLegacy() {
+            byte[] preRead = Arrays.copyOfRange(readBuffer.array(), readBuffer.position(), readBuffer.limit());
+            isOpen = false; // the channel now belongs to the blocking thread
+            key.cancel();
+            // deferred so the next selection deregisters the cancelled key before
+            // the channel switches back to blocking mode
+            loop.execute(() -> {
+                try {
+                    selector().selectNow();
+                    channel.configureBlocking(true);
+                    ServerThread legacy = new ServerThread(getSocket(), onClientInitialized);
+                    legacy.setPreRead(preRead);
+                    legacy.start(legacyThreads);
+                    LoggerUtil.INSTANCE.info("Handed legacy client off to a blocking ServerThread");
+                } catch (IOException e) {
+                    LoggerUtil.INSTANCE.warning("Failed to hand off legacy client", e);
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+        }
+
+        private Selector selector() {
+            return loop.selector;
+        }
+
+        /**
+         * Closes the channel and lets the session clean itself up
+         */
+        void close() {
+            if (!isOpen) {
+                return;
+            }
+            isOpen = false;
+            key.cancel();
+            outbound.clear();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            if (session != null && session.isRunning) {
+                session.isRunning = false;
+                session.cleanup();
+            }
+        }
+    }
+}
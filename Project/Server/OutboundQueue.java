@@ -0,0 +1,170 @@
+package Project.Server;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded per-connection queue of outbound data with slow-consumer detection.
+ * <p>
+ * Producers (usually a Room broadcast) only ever enqueue, so one client with a
+ * full TCP window no longer stalls everyone else; the connection's writer
+ * drains at whatever pace the socket allows.
+ * </p>
+ * <p>
+ * {@link #offer(Object)} refuses new data once the queue has stayed at or above
+ * the high-water mark for longer than the grace period, or immediately when the
+ * hard capacity is hit. The caller then treats the client as failed and the
+ * usual Room.disconnect() path removes it.
+ * </p>
+ * 
+ * @param <T> queued item type
+ */
+public class OutboundQueue<T> {
+    private static final AtomicLong totalDepth = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private final LinkedBlockingQueue<T> queue;
+    private final int highWaterMark;
+    private final long graceNanos;
+    private volatile long aboveHighWaterSince = 0; // 0 while below the mark
+
+    public OutboundQueue() {
+        this(ServerConfig.INSTANCE.getOutboundHighWaterMark(), ServerConfig.INSTANCE.getOutboundCapacity(),
+                ServerConfig.INSTANCE.getSlowConsumerGraceMillis());
+    }
+
+    public OutboundQueue(int highWaterMark, int capacity, long graceMillis) {
+        this.queue = new LinkedBlockingQueue<>(Math.max(capacity, highWaterMark));
+        this.highWaterMark = highWaterMark;
+        this.graceNanos = graceMillis * 1_000_000L;
+    }
+
+    /**
+     * Enqueues an item unless the consumer has fallen too far behind
+     * 
+     * @param item
+     * @return false if the consumer should be evicted
+     */
+    public boolean offer(T item) {
+        if (queue.size() >= highWaterMark) {
+            long now = System.nanoTime();
+            long since = aboveHighWaterSince;
+            if (since == 0) {
+                aboveHighWaterSince = now;
+            } else if (now - since > graceNanos) {
+                evictions.incrementAndGet();
+                return false;
+            }
+        } else if (aboveHighWaterSince != 0) {
+            aboveHighWaterSince = 0;
+        }
+        if (!queue.offer(item)) {
+            evictions.incrementAndGet();
+            return false;
+        }
+        totalDepth.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Enqueues without applying the limits, used for the final item before a
+     * graceful close
+     * 
+     * @param item
+     * @return false only if the hard capacity is reached
+     */
+    public boolean offerFinal(T item) {
+        if (!queue.offer(item)) {
+            return false;
+        }
+        totalDepth.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return the head without removing it, or null if empty
+     */
+    public T peek() {
+        return queue.peek();
+    }
+
+    /**
+     * @return the head, or null if empty
+     */
+    public T poll() {
+        T item = queue.poll();
+        if (item != null) {
+            totalDepth.decrementAndGet();
+        }
+        return item;
+    }
+
+    /**
+     * Waits up to the timeout for the next item
+     * 
+     * @param timeout zero or less doesn't wait
+     * @param unit
+     * @return the head, or null if nothing arrived in time
+     * @throws InterruptedException
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        T item = queue.poll(timeout, unit);
+        if (item != null) {
+            totalDepth.decrementAndGet();
+        }
+        return item;
+    }
+
+    /**
+     * Waits for the next item
+     * 
+     * @return the head
+     * @throws InterruptedException
+     */
+    public T take() throws InterruptedException {
+        T item = queue.take();
+        totalDepth.decrementAndGet();
+        return item;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Drops everything still queued (connection closed)
+     */
+    public void clear() {
+        while (poll() != null) {
+        }
+    }
+
+    /**
+     * @return items currently queued on this connection
+     */
+    public int depth() {
+        return queue.size();
+    }
+
+    /**
+     * @return true if currently at or above the high-water mark
+     */
+    public boolean isAboveHighWaterMark() {
+        return queue.size() >= highWaterMark;
+    }
+
+    /**
+     * @return items queued across every connection
+     */
+    public static long getTotalDepth() {
+        return totalDepth.get();
+    }
+
+    /**
+     * @return number of times a consumer was refused for being too slow
+     */
+    public static long getEvictions() {
+        return evictions.get();
+    }
+}
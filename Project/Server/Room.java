@@ -1,29 +1,73 @@
 package Project.Server;
 
 import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 
+import Project.Common.EncodedPayload;
 import Project.Common.FlipPayload;
+import Project.Common.Gauge;
+import Project.Common.HistoryPayload;
 import Project.Common.LoggerUtil;
 import Project.Common.Payload;
 import Project.Common.RollPayload;
+import Project.Common.RoomResultsPayload;
 
+/**
+ * A named group of clients that receive each other's messages.
+ * <p>
+ * Membership is an immutable array replaced on every join/leave
+ * (copy-on-write). Broadcasts read the current array once and iterate it
+ * without locking, so senders in a busy room never wait on each other. Joins
+ * and leaves take {@link #lock} so they're applied one at a time: a joiner is
+ * published before its join status goes out (so it sees its own join) and a
+ * leaver is only removed after its leave status went out.
+ * </p>
+ * <p>
+ * Messages are also kept in a {@link MessageHistory} and the newest ones
+ * are sent to each joiner in a single HISTORY payload (except legacy
+ * OBJECT_STREAM clients, which can't read one). A broadcast only holds
+ * the history's lock to record the message and read the roster, not while
+ * sending. Older pages are served on request (see
+ * {@link #handleHistory(ServerThread, HistoryPayload)}), from the
+ * MessageHistory while it still holds them and from the MessageJournal
+ * after that.
+ * </p>
+ */
 public class Room implements AutoCloseable {
+    private static final ServerThread[] EMPTY = new ServerThread[0];
     private String name; // unique name of the Room
     protected volatile boolean isRunning = false;
-    private ConcurrentHashMap<Long, ServerThread> clientsInRoom = new ConcurrentHashMap<>();
+    // current roster, never modified in place; replaced under lock
+    private volatile ServerThread[] clientsInRoom = EMPTY;
+    // serializes roster changes only; broadcasts don't take it
+    // (ReentrantLock instead of synchronized so virtual threads don't pin their carrier while sending)
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Gauge memberCount; // see ServerMetrics
+    private final MessageHistory history; // recent messages, replayed to joiners
 
     public final static String LOBBY = "lobby";
 
     private void info(String message) {
-        LoggerUtil.INSTANCE.info(String.format("Room[%s]: %s", name, message));
+        LoggerUtil.INSTANCE.info("Room[%s]: %s", name, message);
+    }
+
+    // per-message call sites use this so nothing is formatted when INFO is off
+    private void info(String format, Object... args) {
+        if (LoggerUtil.INSTANCE.isLoggable(Level.INFO)) {
+            info(String.format(format, args));
+        }
     }
 
     public Room(String name) {
         this.name = name;
         isRunning = true;
+        memberCount = ServerMetrics.roomMembers(name, this::getClientCount);
+        history = new MessageHistory(name, ServerConfig.INSTANCE.getHistoryCapacity(name),
+                MessageJournal.INSTANCE.getLastSequence(name) + 1);
         info("created");
     }
 
@@ -31,128 +75,239 @@ public class Room implements AutoCloseable {
         return this.name;
     }
 
-    protected synchronized void addClient(ServerThread client) {
-        if (!isRunning) { // block action if Room isn't running
-            return;
-        }
-        if (clientsInRoom.containsKey(client.getClientId())) {
-            info("Attempting to add a client that already exists in the room");
-            return;
-        }
-        clientsInRoom.put(client.getClientId(), client);
-        client.setCurrentRoom(this);
+    /**
+     * @return the number of clients in the room at the time of the call
+     */
+    public int getClientCount() {
+        return clientsInRoom.length;
+    }
+
+    /**
+     * @return the clients in the room at the time of the call
+     */
+    protected List<ServerThread> getClients() {
+        return List.of(clientsInRoom);
+    }
 
-        // notify clients of someone joining
-        sendRoomStatus(client.getClientId(), client.getClientName(), true);
-        // sync room state to joiner
-        syncRoomList(client);
+    // roster helpers, only called while holding lock
 
-        info(String.format("%s[%s] joined the Room[%s]", client.getClientName(), client.getClientId(), getName()));
+    private int indexOf(long clientId) {
+        ServerThread[] members = clientsInRoom;
+        for (int i = 0; i < members.length; i++) {
+            if (members[i].getClientId() == clientId) {
+                return i;
+            }
+        }
+        return -1;
     }
 
-    protected synchronized void removedClient(ServerThread client) {
-        if (!isRunning) { // block action if Room isn't running
-            return;
+    private void publishAdd(ServerThread client) {
+        ServerThread[] members = clientsInRoom;
+        ServerThread[] updated = Arrays.copyOf(members, members.length + 1);
+        updated[members.length] = client;
+        clientsInRoom = updated;
+    }
+
+    private boolean publishRemove(ServerThread client) {
+        ServerThread[] members = clientsInRoom;
+        int index = -1;
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] == client) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return false;
         }
-        // notify remaining clients of someone leaving
-        // happen before removal so leaving client gets the data
-        sendRoomStatus(client.getClientId(), client.getClientName(), false);
-        clientsInRoom.remove(client.getClientId());
-        LoggerUtil.INSTANCE.fine("Clients remaining in Room: " + clientsInRoom.size());
+        if (members.length == 1) {
+            clientsInRoom = EMPTY;
+            return true;
+        }
+        ServerThread[] updated = new ServerThread[members.length - 1];
+        System.arraycopy(members, 0, updated, 0, index);
+        System.arraycopy(members, index + 1, updated, index, members.length - index - 1);
+        clientsInRoom = updated;
+        return true;
+    }
 
-        info(String.format("%s[%s] left the room", client.getClientName(), client.getClientId(), getName()));
+    protected void addClient(ServerThread client) {
+        lock.lock();
+        try {
+            if (!isRunning) { // block action if Room isn't running
+                return;
+            }
+            if (indexOf(client.getClientId()) >= 0) {
+                info("Attempting to add a client that already exists in the room");
+                return;
+            }
+            // published before the status goes out so the joiner receives its own join;
+            // and together with the history snapshot, so each message reaches the joiner
+            // exactly once: in the snapshot, or live (see sendMessage())
+            List<HistoryPayload.Entry> recent;
+            history.getLock().lock();
+            try {
+                publishAdd(client);
+                recent = history.recent(ServerConfig.INSTANCE.getHistoryReplayCount(), client.getMutedClients());
+            } finally {
+                history.getLock().unlock();
+            }
+            client.setCurrentRoom(this);
+
+            // notify clients of someone joining
+            sendRoomStatus(client.getClientId(), client.getClientName(), true);
+            // sync room state to joiner
+            syncRoomList(client);
+            if (!recent.isEmpty()) {
+                client.sendHistory(getName(), recent);
+            }
 
-        autoCleanup();
+            info("%s[%s] joined the Room[%s]", client.getClientName(), client.getClientId(), getName());
+        } finally {
+            lock.unlock();
+        }
     }
 
-    protected synchronized void disconnect(ServerThread client) {
-        if (!isRunning) { // block action if Room isn't running
-            return;
+    protected void removedClient(ServerThread client) {
+        lock.lock();
+        try {
+            if (!isRunning) { // block action if Room isn't running
+                return;
+            }
+            // notify remaining clients of someone leaving
+            // happen before removal so leaving client gets the data
+            sendRoomStatus(client.getClientId(), client.getClientName(), false);
+            publishRemove(client);
+            LoggerUtil.INSTANCE.fine("Clients remaining in Room: %s", clientsInRoom.length);
+
+            info("%s[%s] left the room", client.getClientName(), client.getClientId());
+
+            autoCleanup();
+        } finally {
+            lock.unlock();
         }
-        long id = client.getClientId();
-        sendDisconnect(client);
-        client.disconnect();
-        clientsInRoom.remove(client.getClientId());
-        LoggerUtil.INSTANCE.fine("Clients remaining in Room: " + clientsInRoom.size());
+    }
 
-        // Improved logging with user data
-        info(String.format("%s[%s] disconnected", client.getClientName(), id));
-        autoCleanup();
+    protected void disconnect(ServerThread client) {
+        lock.lock();
+        try {
+            if (!isRunning) { // block action if Room isn't running
+                return;
+            }
+            // concurrent broadcasts can all fail on the same client; only the first one
+            // through the lock announces the disconnect
+            if (indexOf(client.getClientId()) < 0) {
+                client.disconnect();
+                return;
+            }
+            long id = client.getClientId();
+            sendDisconnect(client);
+            client.disconnect();
+            publishRemove(client);
+            LoggerUtil.INSTANCE.fine("Clients remaining in Room: %s", clientsInRoom.length);
+
+            // Improved logging with user data
+            info("%s[%s] disconnected", client.getClientName(), id);
+            autoCleanup();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    protected synchronized void disconnectAll() {
-        info("Disconnect All triggered");
-        if (!isRunning) {
-            return;
+    protected void disconnectAll() {
+        lock.lock();
+        try {
+            info("Disconnect All triggered");
+            if (!isRunning) {
+                return;
+            }
+            for (ServerThread client : clientsInRoom) {
+                disconnect(client);
+            }
+            info("Disconnect All finished");
+            autoCleanup();
+        } finally {
+            lock.unlock();
         }
-        clientsInRoom.values().removeIf(client -> {
-            disconnect(client);
-            return true;
-        });
-        info("Disconnect All finished");
-        autoCleanup();
     }
 
     private void autoCleanup() {
-        if (!Room.LOBBY.equalsIgnoreCase(name) && clientsInRoom.isEmpty()) {
+        if (isRunning && !Room.LOBBY.equalsIgnoreCase(name) && clientsInRoom.length == 0) {
             close();
         }
     }
 
     public void close() {
-        if (!clientsInRoom.isEmpty()) {
-            sendMessage(null, "Room is shutting down, migrating to lobby");
-            info(String.format("migrating %s clients", clientsInRoom.size()));
-            clientsInRoom.values().removeIf(client -> {
-                Server.INSTANCE.joinRoom(Room.LOBBY, client);
-                return true;
-            });
-        }
-        Server.INSTANCE.removeRoom(this);
-        isRunning = false;
-        clientsInRoom.clear();
-        info("closed");
+        lock.lock();
+        try {
+            ServerThread[] members = clientsInRoom;
+            if (members.length > 0) {
+                sendMessage(null, "Room is shutting down, migrating to lobby");
+                info("migrating %s clients", members.length);
+                for (ServerThread client : members) {
+                    Server.INSTANCE.joinRoom(Room.LOBBY, client);
+                }
+            }
+            Server.INSTANCE.removeRoom(this);
+            isRunning = false;
+            clientsInRoom = EMPTY;
+            history.close();
+            ServerMetrics.remove(memberCount);
+            info("closed");
+        } finally {
+            lock.unlock();
+        }
     }
 
-    protected synchronized void sendDisconnect(ServerThread client) {
-        info(String.format("sending disconnect status to %s recipients", clientsInRoom.size()));
-        clientsInRoom.values().removeIf(clientInRoom -> {
-            boolean failedToSend = !clientInRoom.sendDisconnect(client.getClientId(), client.getClientName());
-            if (failedToSend) {
-                info(String.format("Removing disconnected client[%s] from list", client.getClientId()));
-                disconnect(client);
+    // Broadcasts below iterate a snapshot of the roster without holding lock.
+    // A failed send hands the client to disconnect(), which does take it.
+
+    protected void sendDisconnect(ServerThread client) {
+        ServerThread[] members = clientsInRoom;
+        info("sending disconnect status to %s recipients", members.length);
+        // encoded once, the same bytes go to every recipient
+        EncodedPayload disconnect = EncodedPayload.forBroadcast(
+                ServerThread.buildDisconnect(client.getClientId(), client.getClientName()));
+        for (ServerThread clientInRoom : members) {
+            boolean failedToSend = !clientInRoom.sendEncoded(disconnect);
+            // the client being disconnected is already on its way out; cascading
+            // into disconnect() for it again would recurse forever
+            if (failedToSend && clientInRoom != client) {
+                info("Removing disconnected client[%s] from list", clientInRoom.getClientId());
+                disconnect(clientInRoom);
             }
-            return failedToSend;
-        });
+        }
     }
 
-    protected synchronized void syncRoomList(ServerThread client) {
-        clientsInRoom.values().forEach(clientInRoom -> {
+    protected void syncRoomList(ServerThread client) {
+        for (ServerThread clientInRoom : clientsInRoom) {
             if (clientInRoom.getClientId() != client.getClientId()) {
                 client.sendClientSync(clientInRoom.getClientId(), clientInRoom.getClientName());
             }
-        });
+        }
     }
 
-    protected synchronized void sendRoomStatus(long clientId, String clientName, boolean isConnect) {
-        info(String.format("sending room status to %s recipients", clientsInRoom.size()));
-        clientsInRoom.values().removeIf(client -> {
-            boolean failedToSend = !client.sendRoomAction(clientId, clientName, getName(), isConnect);
+    protected void sendRoomStatus(long clientId, String clientName, boolean isConnect) {
+        ServerThread[] members = clientsInRoom;
+        info("sending room status to %s recipients", members.length);
+        EncodedPayload roomAction = EncodedPayload.forBroadcast(
+                ServerThread.buildRoomAction(clientId, clientName, getName(), isConnect));
+        for (ServerThread client : members) {
+            boolean failedToSend = !client.sendEncoded(roomAction);
             if (failedToSend) {
-                info(String.format("Removing disconnected client[%s] from list", client.getClientId()));
+                info("Removing disconnected client[%s] from list", client.getClientId());
                 disconnect(client);
             }
-            return failedToSend;
-        });
+        }
     }
 
-    protected synchronized void sendMessage(ServerThread sender, String message) {
+    protected void sendMessage(ServerThread sender, String message) {
         if (!isRunning) {
             return;
         }
-    
+
         long senderId = sender == null ? ServerThread.DEFAULT_CLIENT_ID : sender.getClientId();
-    
+
         if (message.startsWith("/mute ") || message.startsWith("/unmute ")) {
             // Handle mute/unmute command
             String[] parts = message.split(" ", 2);
@@ -165,65 +320,60 @@ public class Room implements AutoCloseable {
     
         final String formattedMessage = processMessageFormat(message);
     
-        if (sender != null && sender.isClientMuted(sender.getClientName())) {
-            LoggerUtil.INSTANCE.info("Message from " + sender.getClientName() + " was skipped due to being muted.");
+        // mutes are tested by UserIds number: a lookup in a small sorted array per direction per recipient
+        int senderUser = sender == null ? UserIds.NONE : sender.getUserId();
+        MuteSet senderMutes = sender == null ? MuteSet.EMPTY : sender.getMutedClients();
+        if (senderMutes.contains(senderUser)) {
+            LoggerUtil.INSTANCE.info("Message from %s was skipped due to being muted.", sender.getClientName());
             return;
         }
-    
-        info(String.format("sending message to %s recipients", getName()));
-        clientsInRoom.values().removeIf(client -> {
-            if ((sender != null && client.isClientMuted(sender.getClientName())) ||
-                (sender != null && sender.isClientMuted(client.getClientName()))) {
-                return false;
+
+        long start = System.nanoTime();
+        ServerThread[] members;
+        long sequence;
+        // recorded and the roster read as one step with respect to joins (see addClient());
+        // journaled under the same lock so the journal gets each room's messages in sequence
+        // order, but that's only a queue offer, the writes happen on the journal's thread
+        history.getLock().lock();
+        try {
+            String senderName = sender == null ? null : sender.getClientName();
+            long timestamp = System.currentTimeMillis();
+            sequence = history.append(senderId, senderUser, senderName, formattedMessage, timestamp);
+            MessageJournal.INSTANCE.append(name, sequence, timestamp, senderId, senderName, formattedMessage);
+            members = clientsInRoom;
+        } finally {
+            history.getLock().unlock();
+        }
+        info("sending message to %s recipients", members.length);
+        // legacy clients don't have MessagePayload, they get the plain MESSAGE they always did
+        EncodedPayload encodedMessage = EncodedPayload.forBroadcast(
+                ServerThread.buildMessage(senderId, formattedMessage, sequence),
+                ServerThread.buildMessage(senderId, formattedMessage));
+        for (ServerThread client : members) {
+            if (client.getMutedClients().contains(senderUser) | senderMutes.contains(client.getUserId())) {
+                continue;
             }
-            boolean failedToSend = !client.sendMessage(senderId, formattedMessage);
+            boolean failedToSend = !client.sendEncoded(encodedMessage);
             if (failedToSend) {
-                info(String.format("Removing disconnected client[%s] from list", client.getClientId()));
+                info("Removing disconnected client[%s] from list", client.getClientId());
                 disconnect(client);
             }
-            return failedToSend;
-        });
+        }
+        ServerMetrics.BROADCAST_DURATION.recordSince(start);
+        ServerMetrics.BROADCAST_RECIPIENTS.record(members.length);
     }
     
     public ServerThread getClientById(long clientId) {
-        return clientsInRoom.get(clientId);
+        for (ServerThread client : clientsInRoom) {
+            if (client.getClientId() == clientId) {
+                return client;
+            }
+        }
+        return null;
     }
 
     private String processMessageFormat(String message) {
-        String boldPattern = "\\*\\*(.*?)\\*\\*";
-        String italicPattern = "\\*(.*?)\\*";
-        String underlinePattern = "_(.*?)_";
-        String colorPattern = "#(r|g|b|[0-9a-fA-F]{6}) (.*?) \\1#";
-
-        message = message.replaceAll(boldPattern, "<b>$1</b>");
-        message = message.replaceAll(italicPattern, "<i>$1</i>");
-        message = message.replaceAll(underlinePattern, "<u>$1</u>");
-
-        Pattern pattern = Pattern.compile(colorPattern);
-        Matcher matcher = pattern.matcher(message);
-        StringBuffer sb = new StringBuffer();
-        while (matcher.find()) {
-            String colorCode = matcher.group(1);
-            String coloredText = matcher.group(2);
-            String colorTag;
-            switch (colorCode.toLowerCase()) {
-                case "r":
-                    colorTag = "red";
-                    break;
-                case "g":
-                    colorTag = "green";
-                    break;
-                case "b":
-                    colorTag = "blue";
-                    break;
-                default:
-                    colorTag = "#" + colorCode;
-                    break;
-            }
-            matcher.appendReplacement(sb, "<span style=\"color:" + colorTag + "\">" + coloredText + "</span>");
-        }
-        matcher.appendTail(sb);
-        return sb.toString();
+        return MessageFormatCache.INSTANCE.format(message);
     }
 
     public void sendPrivateMessage(long targetId, String message, ServerThread sender) throws IOException {
@@ -233,7 +383,8 @@ public class Room implements AutoCloseable {
             // Check if the sender is muted by the target client
             if (targetClient.isClientMuted(sender.getClientName())) {
                 // Log the message skip and notify the sender
-                LoggerUtil.INSTANCE.info("Private message from " + sender.getClientName() + " to " + targetId + " was skipped due to being muted.");
+                LoggerUtil.INSTANCE.info("Private message from %s to %s was skipped due to being muted.",
+                        sender.getClientName(), targetId);
                 sender.sendMessage("Private message to client ID " + targetId + " was skipped because you are muted by them.");
             } else {
                 // Send the private message to the target client
@@ -255,7 +406,7 @@ public class Room implements AutoCloseable {
             changed = sender.removeMutedClient(targetClientName);
         }
         if (changed) {
-            LoggerUtil.INSTANCE.info("User " + sender.getClientId() + (isMute ? " muted " : " unmuted ") + targetClientName);
+            LoggerUtil.INSTANCE.info("User %s %s %s", sender.getClientId(), isMute ? "muted" : "unmuted", targetClientName);
         }
         return changed;
     }
@@ -292,8 +443,88 @@ public class Room implements AutoCloseable {
         }
     }
 
-    protected void handleListRooms(ServerThread sender, String roomQuery) {
-        sender.sendRooms(Server.INSTANCE.listRooms(roomQuery));
+    /**
+     * Answers a room search with one page; a plain Payload (older clients)
+     * gets the first page at the default size
+     * 
+     * @param sender
+     * @param request
+     */
+    protected void handleListRooms(ServerThread sender, Payload request) {
+        String query = request.getMessage() == null ? "" : request.getMessage().trim();
+        String cursor = null;
+        int pageSize = ServerConfig.INSTANCE.getRoomListLimit();
+        if (request instanceof RoomResultsPayload) {
+            RoomResultsPayload rrp = (RoomResultsPayload) request;
+            cursor = rrp.getCursor();
+            if (rrp.getPageSize() > 0) {
+                pageSize = Math.min(pageSize, rrp.getPageSize());
+            }
+        }
+        // one extra tells us whether there's a next page
+        List<String> rooms = Server.INSTANCE.listRooms(query, cursor, pageSize + 1);
+        String nextCursor = null;
+        if (rooms.size() > pageSize) {
+            rooms = new ArrayList<>(rooms.subList(0, pageSize));
+            nextCursor = rooms.get(pageSize - 1);
+        }
+        long total = -1;
+        boolean isTotalCapped = false;
+        if (cursor == null) {
+            // one past the limit tells us there are more than we'll report
+            long countLimit = ServerConfig.INSTANCE.getRoomCountLimit();
+            total = Server.INSTANCE.countRooms(query, countLimit + 1);
+            if (total > countLimit) {
+                total = countLimit;
+                isTotalCapped = true;
+            }
+        }
+        sender.sendRoomPage(query, rooms, nextCursor, total, isTotalCapped);
+    }
+
+    /**
+     * Answers a request for the page of this room's messages before a
+     * sequence number, without the senders the requester muted
+     */
+    protected void handleHistory(ServerThread sender, HistoryPayload request) {
+        int limit = ServerConfig.INSTANCE.getHistoryPageLimit();
+        if (request.getLimit() > 0) {
+            limit = Math.min(limit, request.getLimit());
+        }
+        // only the room the client is in; the room it asked about may be one it just left
+        if (!getName().equalsIgnoreCase(request.getRoom())) {
+            sender.sendHistoryPage(request.getRoom(), new ArrayList<>(), 0, limit);
+            return;
+        }
+        int pageLimit = limit;
+        // the journal may have to page a segment in; that happens on its reader threads, not this one
+        // (the selector loop in NIO mode)
+        if (!MessageJournal.INSTANCE.submitRead(() -> sendHistoryPage(sender, request, pageLimit))) {
+            sendHistoryPage(sender, request, pageLimit);
+        }
+    }
+
+    /**
+     * Reads a page of history older than the request's sequence and sends it
+     */
+    private void sendHistoryPage(ServerThread sender, HistoryPayload request, int limit) {
+        MuteSet mutes = sender.getMutedClients();
+        long before = request.getBeforeSequence() > 0 ? request.getBeforeSequence() : Long.MAX_VALUE;
+        List<HistoryPayload.Entry> page = new ArrayList<>(Math.min(limit, 256));
+        // the newest in memory (some may not be written to the journal yet), the rest from the journal
+        long next = history.page(before, limit, mutes, page);
+        if (page.size() < limit) {
+            if (MessageJournal.INSTANCE.isOpen()) {
+                List<HistoryPayload.Entry> older = new ArrayList<>(limit);
+                next = MessageJournal.INSTANCE.readBefore(getName(), next, limit - page.size(),
+                        entry -> !mutes.contains(entry.getClientName()), older);
+                older.addAll(page);
+                page = older;
+            } else {
+                next = 0; // nothing further back is kept
+            }
+        }
+        sender.sendHistoryPage(getName(), page, next, limit);
     }
 
     protected void clientDisconnect(ServerThread sender) {
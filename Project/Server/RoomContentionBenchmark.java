@@ -0,0 +1,125 @@
+package Project.Server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Broadcast throughput of a single busy Room as the number of concurrent
+ * senders grows.
+ * <p>
+ * Members are InMemoryClients that just count deliveries, so the numbers
+ * reflect Room's own cost (roster access, formatting, per-recipient mute
+ * checks) rather than socket I/O. Each sender count is run twice: once
+ * as-is, and once with every sendMessage() wrapped in one shared lock to
+ * approximate the old room-wide monitor. A background thread keeps joining
+ * and leaving the room throughout to exercise roster changes under load.
+ * </p>
+ *
+ * <pre>
+ * java Project.Server.RoomContentionBenchmark [members] [seconds per run]
+ * </pre>
+ */
+public class RoomContentionBenchmark {
+    private static final int[] SENDERS = { 1, 2, 4, 8, 16 };
+
+    public static void main(String[] args) throws Exception {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 3;
+
+        // keep logging out of the measurement
+        LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
+        config.setLogLocation("benchmark.log");
+        config.setFileLogLevel(Level.OFF);
+        config.setConsoleLogLevel(Level.OFF);
+        LoggerUtil.INSTANCE.setConfig(config);
+
+        run(members, 1, 1, null); // JIT warmup, discarded
+        System.out.println(String.format("members=%s, %ss per run, join/leave churn in the background", members,
+                seconds));
+        System.out.println(String.format("%-10s %18s %18s %10s", "senders", "lock-free msg/s", "serialized msg/s",
+                "speedup"));
+        for (int senders : SENDERS) {
+            double lockFree = run(members, senders, seconds, null);
+            double serialized = run(members, senders, seconds, new ReentrantLock());
+            System.out.println(String.format("%-10s %18.0f %18.0f %9.2fx", senders, lockFree, serialized,
+                    lockFree / serialized));
+        }
+    }
+
+    /**
+     * @param roomLock if not null every sendMessage() holds it, like the old
+     *                 synchronized Room methods
+     * @return messages broadcast per second across all senders
+     */
+    private static double run(int members, int senders, long seconds, ReentrantLock roomLock)
+            throws InterruptedException {
+        Room room = new Room(Room.LOBBY); // the lobby never auto-closes, so no Server is needed
+        LongAdder delivered = new LongAdder();
+        List<InMemoryClient> clients = new ArrayList<>(members);
+        for (int i = 0; i < members; i++) {
+            InMemoryClient client = new InMemoryClient(i + 1, delivered);
+            client.setClientName("member" + i);
+            clients.add(client);
+            room.addClient(client);
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder sent = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(senders + 1);
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < senders; s++) {
+            InMemoryClient sender = clients.get(s % members);
+            threads.add(Thread.ofPlatform().name("sender-" + s).start(() -> {
+                ready.countDown();
+                while (running.get()) {
+                    if (roomLock == null) {
+                        room.sendMessage(sender, "hello **everyone** in the room");
+                    } else {
+                        roomLock.lock();
+                        try {
+                            room.sendMessage(sender, "hello **everyone** in the room");
+                        } finally {
+                            roomLock.unlock();
+                        }
+                    }
+                    sent.increment();
+                }
+            }));
+        }
+        threads.add(Thread.ofPlatform().name("churn").start(() -> {
+            ready.countDown();
+            long id = members + 1;
+            while (running.get()) {
+                InMemoryClient joiner = new InMemoryClient(id++, delivered);
+                joiner.setClientName("joiner");
+                room.addClient(joiner);
+                room.removedClient(joiner);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }));
+
+        ready.await();
+        Thread.sleep(500); // warmup
+        long startSent = sent.sum();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000);
+        long elapsed = System.nanoTime() - start;
+        long count = sent.sum() - startSent;
+        running.set(false);
+        for (Thread t : threads) {
+            t.join();
+        }
+        return count / (elapsed / 1e9);
+    }
+}
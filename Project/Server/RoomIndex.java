@@ -0,0 +1,177 @@
+package Project.Server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Substring search over room names, for Server.listRooms().
+ * <p>
+ * Rooms are kept sorted by lowercase name (so pages are stable and a page is
+ * addressed by the last name of the previous one) plus a trigram index: for
+ * every three-character window of a name, the sorted names containing it.
+ * A query of three or more characters walks only its rarest trigram's names;
+ * shorter ones walk every name. Either walk is in page order and stops once
+ * the page is full, so a common query is cheap because matches come quickly
+ * and a rare one because there's little to walk. The worst case is a one or
+ * two character query that matches almost nothing.
+ * </p>
+ * <p>
+ * Both structures are concurrent. Server calls {@link #add(Room)} and
+ * {@link #remove(Room)} while holding the rooms map entry for that name, so
+ * updates for one name never interleave; a search running meanwhile may or
+ * may not see the room.
+ * </p>
+ */
+class RoomIndex {
+    private static final int GRAM = 3;
+    private final ConcurrentSkipListMap<String, Room> sorted = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Posting> postings = new ConcurrentHashMap<>();
+
+    /**
+     * The names containing one trigram, sorted. Only changed inside
+     * postings.compute() for its trigram, so size can be a plain counter.
+     */
+    private static class Posting {
+        final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+        volatile int size = 0; // a skip list's own size() walks every entry
+    }
+
+    private static String key(Room room) {
+        return room.getName().toLowerCase();
+    }
+
+    void add(Room room) {
+        String key = key(room);
+        sorted.put(key, room);
+        for (String gram : grams(key)) {
+            postings.compute(gram, (g, posting) -> {
+                if (posting == null) {
+                    posting = new Posting();
+                }
+                if (posting.names.add(key)) {
+                    posting.size++;
+                }
+                return posting;
+            });
+        }
+    }
+
+    void remove(Room room) {
+        String key = key(room);
+        if (!sorted.remove(key, room)) {
+            return;
+        }
+        for (String gram : grams(key)) {
+            postings.computeIfPresent(gram, (g, posting) -> {
+                if (posting.names.remove(key)) {
+                    posting.size--;
+                }
+                return posting.size == 0 ? null : posting;
+            });
+        }
+    }
+
+    int size() {
+        return sorted.size();
+    }
+
+    /**
+     * Finds rooms whose name contains the query, ignoring case
+     *
+     * @param query empty or null matches every room
+     * @param after only names sorting after this one (the last name of the
+     *              previous page), or null for the first page
+     * @param limit most names to return
+     * @return matching room names in case-insensitive order
+     */
+    List<String> search(String query, String after, int limit) {
+        String q = query == null ? "" : query.toLowerCase();
+        String from = after == null ? null : after.toLowerCase();
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        NavigableSet<String> keys = sorted.navigableKeySet();
+        if (q.length() >= GRAM) {
+            keys = rarestPosting(q);
+            if (keys == null) {
+                return Collections.emptyList(); // some trigram of the query is in no name
+            }
+        }
+        return walk(from == null ? keys : keys.tailSet(from, false), q, limit);
+    }
+
+    /**
+     * Counts rooms whose name contains the query, ignoring case; walks the
+     * candidates until it has found limit of them, so only worth doing once per
+     * search
+     *
+     * @param query empty or null matches every room
+     * @param limit stop counting here
+     * @return matching rooms, at most limit
+     */
+    long count(String query, long limit) {
+        String q = query == null ? "" : query.toLowerCase();
+        NavigableSet<String> keys = sorted.navigableKeySet();
+        if (q.length() >= GRAM) {
+            keys = rarestPosting(q);
+            if (keys == null) {
+                return 0;
+            }
+        }
+        long count = 0;
+        for (String key : keys) {
+            if (count >= limit) {
+                break;
+            }
+            if (key.contains(q)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private NavigableSet<String> rarestPosting(String q) {
+        Posting rarest = null;
+        for (String gram : grams(q)) {
+            Posting posting = postings.get(gram);
+            if (posting == null) {
+                return null;
+            }
+            if (rarest == null || posting.size < rarest.size) {
+                rarest = posting;
+            }
+        }
+        return rarest.names;
+    }
+
+    private List<String> walk(NavigableSet<String> keys, String q, int limit) {
+        List<String> names = new ArrayList<>();
+        for (String key : keys) {
+            if (key.contains(q)) {
+                Room room = sorted.get(key);
+                if (room != null) { // removed since we read its posting
+                    names.add(room.getName());
+                    if (names.size() == limit) {
+                        break;
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    private static Set<String> grams(String key) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= key.length(); i++) {
+            grams.add(key.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+}
@@ -3,9 +3,11 @@ package Project.Server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadFactory;
 
 import Project.Common.LoggerUtil;
 
@@ -18,39 +20,56 @@ public enum Server {
         config.setFileSizeLimit(2048 * 1024); // 2MB
         config.setFileCount(1);
         config.setLogLocation("server.log");
+        // hot paths log per payload; keep the file/console I/O off those threads
+        config.setAsync(ServerConfig.INSTANCE.isAsyncLogging());
+        config.setOverflowPolicy(ServerConfig.INSTANCE.getLogOverflowPolicy());
         // Set the logger configuration
         LoggerUtil.INSTANCE.setConfig(config);
     }
     private int port = 3000;
     // Use ConcurrentHashMap for thread-safe room management
     private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    // name search for listRooms(), updated under the rooms entry it mirrors
+    private final RoomIndex roomIndex = new RoomIndex();
     private boolean isRunning = true;
-    private long nextClientId = 1;
+    private final ClientIdAllocator clientIds = newClientIdAllocator();
+    private NioServerEngine nioEngine; // only used in ConnectionMode.NIO
+    private DiagnosticsHttpServer diagnostics; // only if ServerConfig has a metrics port
 
     private Server() {
+        ServerMetrics.roomCount(rooms::size);
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             LoggerUtil.INSTANCE.info("JVM is shutting down. Perform cleanup tasks.");
             shutdown();
         }));
     }
 
-    private void start(int port) {
+    private void start(int port, ConnectionMode mode) {
+        startDiagnostics();
+        openJournal(); // before any room, so their numbering continues from it
+        MuteStore.INSTANCE.open(); // scans the log now rather than on the first login
+        if (mode == ConnectionMode.NIO) {
+            startNio(port);
+            return;
+        }
         this.port = port;
+        ThreadFactory clientThreads = mode.newThreadFactory();
         // server listening
-        LoggerUtil.INSTANCE.info("Listening on port " + this.port);
+        LoggerUtil.INSTANCE.info("Listening on port " + this.port + " (" + mode + ")");
         // Simplified client connection loop
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             createRoom(Room.LOBBY);// create the first room
             while (isRunning) {
                 LoggerUtil.INSTANCE.info("Waiting for next client");
                 Socket incomingClient = serverSocket.accept(); // blocking action, waits for a client connection
+                ServerMetrics.CONNECTIONS_ACCEPTED.increment();
                 LoggerUtil.INSTANCE.info("Client connected");
                 // wrap socket in a ServerThread, pass a callback to notify the Server they're
                 // initialized
                 ServerThread sClient = new ServerThread(incomingClient, this::onClientInitialized);
                 // start the thread (typically an external entity manages the lifecycle and we
                 // don't have the thread start itself)
-                sClient.start();
+                sClient.start(clientThreads);
             }
         } catch (IOException e) {
             LoggerUtil.INSTANCE.severe("Error accepting connection", e);
@@ -60,6 +79,66 @@ public enum Server {
         }
     }
 
+    /**
+     * Alternative to start() where a few selector threads handle every client
+     * 
+     * @param port
+     */
+    private void startNio(int port) {
+        this.port = port;
+        LoggerUtil.INSTANCE.info("Listening on port " + this.port + " (nio)");
+        try {
+            nioEngine = new NioServerEngine(port, Runtime.getRuntime().availableProcessors(),
+                    this::onClientInitialized);
+            createRoom(Room.LOBBY);// create the first room
+            nioEngine.start();
+            nioEngine.join();
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.severe("Error starting nio engine", e);
+        } catch (InterruptedException e) {
+            LoggerUtil.INSTANCE.info("Interrupted while waiting for nio engine");
+        } finally {
+            shutdown();
+            LoggerUtil.INSTANCE.info("Closing server channel");
+        }
+    }
+
+    private static ClientIdAllocator newClientIdAllocator() {
+        String store = ServerConfig.INSTANCE.getClientIdStore();
+        if (store == null || store.isBlank()) {
+            return new ClientIdAllocator();
+        }
+        try {
+            return new ClientIdAllocator(Path.of(store), ServerConfig.INSTANCE.getClientIdBlockSize());
+        } catch (IOException e) {
+            // refusing to start beats handing out ids a previous run already used
+            throw new IllegalStateException("Can't read client id store " + store, e);
+        }
+    }
+
+    private void openJournal() {
+        try {
+            MessageJournal.INSTANCE.open();
+        } catch (IOException e) {
+            // chat keeps working, the history just won't outlive this run
+            LoggerUtil.INSTANCE.severe("Couldn't open the message journal, messages won't be saved", e);
+        }
+    }
+
+    private void startDiagnostics() {
+        int metricsPort = ServerConfig.INSTANCE.getMetricsPort();
+        if (metricsPort < 0) {
+            return;
+        }
+        try {
+            diagnostics = new DiagnosticsHttpServer(metricsPort);
+            diagnostics.start();
+        } catch (IOException e) {
+            // chat keeps working without it
+            LoggerUtil.INSTANCE.warning("Couldn't start diagnostics on port " + metricsPort, e);
+        }
+    }
+
     /**
      * Gracefully disconnect clients
      */
@@ -71,11 +150,20 @@ public enum Server {
             // since empty rooms tell the server to remove themselves
             rooms.values().removeIf(room -> {
                 room.disconnectAll();
+                roomIndex.remove(room);
                 return true;
             });
         } catch (Exception e) {
             LoggerUtil.INSTANCE.info("Error cleaning up rooms", e);
         }
+        if (nioEngine != null) {
+            nioEngine.close();
+        }
+        if (diagnostics != null) {
+            diagnostics.close();
+        }
+        MuteStore.INSTANCE.close(); // writes any queued mute changes
+        MessageJournal.INSTANCE.close(); // writes and syncs any queued messages
     }
 
     /**
@@ -85,11 +173,8 @@ public enum Server {
      * @param sClient
      */
     private void onClientInitialized(ServerThread sClient) {
-        sClient.sendClientId(nextClientId);
-        nextClientId++;
-        if (nextClientId < 0) {
-            nextClientId = 1;
-        }
+        // runs on whichever thread finished the handshake, so ids come from the allocator
+        sClient.sendClientId(clientIds.next());
         // add to lobby room
         LoggerUtil.INSTANCE.info(String.format("Server: *%s[%s] initialized*",
                 sClient.getClientName(), sClient.getClientId()));
@@ -108,16 +193,25 @@ public enum Server {
         if (rooms.containsKey(nameCheck)) {
             return false;
         }
-        Room room = null;
-        if (Room.LOBBY.equalsIgnoreCase(nameCheck)) {
-            room = new Room(name);
-        } else {
-            // uncomment this if doing chatroom
-            room = new Room(name);
-            // comment this out if doing chatroom
-            // room = new Room(name); // <-- added during Ready Check lesson
+        Room[] created = new Room[1];
+        // atomic per name, so two clients creating the same room can't both win
+        rooms.computeIfAbsent(nameCheck, key -> {
+            Room room = null;
+            if (Room.LOBBY.equalsIgnoreCase(nameCheck)) {
+                room = new Room(name);
+            } else {
+                // uncomment this if doing chatroom
+                room = new Room(name);
+                // comment this out if doing chatroom
+                // room = new Room(name); // <-- added during Ready Check lesson
+            }
+            roomIndex.add(room);
+            created[0] = room;
+            return room;
+        });
+        if (created[0] == null) {
+            return false;
         }
-        rooms.put(nameCheck, room);
         LoggerUtil.INSTANCE.info(String.format("Created new Room %s", name));
         return true;
     }
@@ -143,16 +237,55 @@ public enum Server {
         return true;
     }
 
+    /**
+     * First page of rooms whose name contains the query, ignoring case
+     * 
+     * @param roomQuery
+     * @return up to ServerConfig's room list limit of names, sorted
+     */
     protected List<String> listRooms(String roomQuery) {
-        final String nameCheck = roomQuery.toLowerCase();
-        return rooms.values().stream()
-                .filter(room -> room.getName().toLowerCase().contains(nameCheck))// find partially matched rooms
-                .map(room -> room.getName())// map room to String (name)
-                .collect(Collectors.toList()); // return a mutable list
+        return listRooms(roomQuery, null, ServerConfig.INSTANCE.getRoomListLimit());
+    }
+
+    /**
+     * A page of rooms whose name contains the query, ignoring case
+     * 
+     * @param roomQuery empty matches every room
+     * @param after     last name of the previous page, or null for the first
+     * @param limit     most names to return
+     * @return matching names in case-insensitive order
+     */
+    protected List<String> listRooms(String roomQuery, String after, int limit) {
+        return roomIndex.search(roomQuery, after, limit);
+    }
+
+    /**
+     * @param roomQuery empty matches every room
+     * @param limit     stop counting here
+     * @return how many rooms' names contain the query, ignoring case, at most
+     *         limit
+     */
+    protected long countRooms(String roomQuery, long limit) {
+        return roomQuery == null || roomQuery.isEmpty() ? Math.min(rooms.size(), limit)
+                : roomIndex.count(roomQuery, limit);
+    }
+
+    /**
+     * @return live view of the open rooms
+     */
+    protected Collection<Room> getRooms() {
+        return rooms.values();
     }
 
     protected void removeRoom(Room room) {
-        rooms.remove(room.getName().toLowerCase());
+        // only if it's still this instance; the name may have been reused since
+        rooms.computeIfPresent(room.getName().toLowerCase(), (key, current) -> {
+            if (current != room) {
+                return current;
+            }
+            roomIndex.remove(room);
+            return null;
+        });
         LoggerUtil.INSTANCE.info(String.format("Server removed room %s", room.getName()));
     }
 
@@ -166,7 +299,9 @@ public enum Server {
             // can ignore, will either be index out of bounds or type mismatch
             // will default to the defined value prior to the try/catch
         }
-        server.start(port);
+        // optional second argument picks the connection engine (thread_per_client, virtual_thread or nio)
+        ConnectionMode mode = ConnectionMode.fromArg(args.length > 1 ? args[1] : null);
+        server.start(port, mode);
         LoggerUtil.INSTANCE.info("Server Stopped");
     }
 }
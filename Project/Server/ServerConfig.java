@@ -0,0 +1,756 @@
+package Project.Server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Tunable server settings.
+ * Defaults can be overridden with -D system properties at startup (names are
+ * listed next to each field) or through the setters before the Server starts.
+ */
+public enum ServerConfig {
+    INSTANCE;
+
+    // outbound queue limits per connection (see OutboundQueue)
+    private int outboundHighWaterMark = Integer.getInteger("server.outbound.highWaterMark", 1000);
+    private int outboundCapacity = Integer.getInteger("server.outbound.capacity", 4000);
+    private long slowConsumerGraceMillis = Long.getLong("server.outbound.slowConsumerGraceMillis", 5000L);
+    // write coalescing (see BaseServerThread.writeLoop() and NioServerEngine.Connection.flush())
+    private int outboundBatchBytes = Integer.getInteger("server.outbound.batchBytes", 16 * 1024);
+    private long outboundFlushDelayMicros = Long.getLong("server.outbound.flushDelayMicros", 500L);
+    // legacy ObjectOutputStream resets (see Project.Common.StreamResetPolicy)
+    private int streamResetObjects = Integer.getInteger("server.stream.resetObjects", 256);
+    private long streamResetBytes = Long.getLong("server.stream.resetBytes", 1024 * 1024L);
+    // logging (see LoggerUtil.LoggerConfig)
+    private boolean asyncLogging = Boolean.parseBoolean(System.getProperty("server.log.async", "true"));
+    private LoggerUtil.OverflowPolicy logOverflowPolicy = LoggerUtil.OverflowPolicy
+            .valueOf(System.getProperty("server.log.overflowPolicy", "DROP").toUpperCase());
+    // formatted message cache (see MessageFormatCache)
+    private long formatCacheMaxBytes = Long.getLong("server.formatCache.maxBytes", 4 * 1024 * 1024L);
+    private int formatCacheMaxMessageLength = Integer.getInteger("server.formatCache.maxMessageLength", 512);
+    // most rooms one listRooms() query returns (see RoomIndex)
+    private int roomListLimit = Integer.getInteger("server.roomList.limit", 100);
+    // a search's first page counts matches only up to here and reports more as "limit+"
+    private int roomCountLimit = Integer.getInteger("server.roomList.countLimit", 1000);
+    // client id high-water mark file, empty for ids that restart at 1 (see ClientIdAllocator)
+    private String clientIdStore = System.getProperty("server.clientIds.store", "");
+    private int clientIdBlockSize = Integer.getInteger("server.clientIds.blockSize", 1000);
+    // mute store (see MuteStore)
+    private String muteStoreFile = System.getProperty("server.mutes.file", "mutes.log");
+    private long muteStoreCommitDelayMillis = Long.getLong("server.mutes.commitDelayMillis", 5L);
+    private long muteStoreCompactMinRecords = Long.getLong("server.mutes.compactMinRecords", 10_000L);
+    private boolean muteStoreImportLegacy = Boolean
+            .parseBoolean(System.getProperty("server.mutes.importLegacy", "true"));
+    // per-room message history (see MessageHistory and HistoryBudget); capacities are per room,
+    // overridable for one room with server.history.capacity.<room name, lowercase>
+    private int historyCapacity = Integer.getInteger("server.history.capacity", 100);
+    private final Map<String, Integer> roomHistoryCapacities = new ConcurrentHashMap<>();
+    private int historyReplayCount = Integer.getInteger("server.history.replay", 50);
+    private int historyPageLimit = Integer.getInteger("server.history.pageLimit", 200);
+    private long historyMaxBytes = Long.getLong("server.history.maxBytes", 32 * 1024 * 1024L);
+    // message journal, empty directory for off (see MessageJournal)
+    private String journalDir = System.getProperty("server.journal.dir", "");
+    private long journalSegmentBytes = Long.getLong("server.journal.segmentBytes", 64 * 1024 * 1024L);
+    private long journalFsyncIntervalMillis = Long.getLong("server.journal.fsyncIntervalMillis", 100L);
+    private int journalFsyncBatchRecords = Integer.getInteger("server.journal.fsyncBatchRecords", 1000);
+    private int journalIndexInterval = Integer.getInteger("server.journal.indexInterval", 64);
+    private long journalIndexBytes = Long.getLong("server.journal.indexBytes", 256 * 1024L);
+    private int journalMaxSegments = Integer.getInteger("server.journal.maxSegments", 16);
+    private int journalRetentionHours = Integer.getInteger("server.journal.retentionHours", 0);
+    private int journalQueueCapacity = Integer.getInteger("server.journal.queueCapacity", 64 * 1024);
+    private int journalCachedSegments = Integer.getInteger("server.journal.cachedSegments", 4);
+    private int journalReaderThreads = Integer.getInteger("server.journal.readerThreads", 2);
+    // localhost diagnostics endpoint, -1 for off (see DiagnosticsHttpServer)
+    private int metricsPort = Integer.getInteger("server.metrics.port", -1);
+
+    /**
+     * Gets the queued payload count above which a client is considered behind
+     * 
+     * @return the high-water mark
+     */
+    public int getOutboundHighWaterMark() {
+        return outboundHighWaterMark;
+    }
+
+    /**
+     * Sets the queued payload count above which a client is considered behind
+     * 
+     * @param outboundHighWaterMark
+     */
+    public void setOutboundHighWaterMark(int outboundHighWaterMark) {
+        this.outboundHighWaterMark = outboundHighWaterMark;
+    }
+
+    /**
+     * Gets the hard limit of queued payloads; reaching it evicts immediately
+     * 
+     * @return the capacity
+     */
+    public int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    /**
+     * Sets the hard limit of queued payloads; reaching it evicts immediately
+     * 
+     * @param outboundCapacity
+     */
+    public void setOutboundCapacity(int outboundCapacity) {
+        this.outboundCapacity = outboundCapacity;
+    }
+
+    /**
+     * Gets how long a client may stay above the high-water mark before eviction
+     * 
+     * @return milliseconds
+     */
+    public long getSlowConsumerGraceMillis() {
+        return slowConsumerGraceMillis;
+    }
+
+    /**
+     * Sets how long a client may stay above the high-water mark before eviction
+     * 
+     * @param slowConsumerGraceMillis
+     */
+    public void setSlowConsumerGraceMillis(long slowConsumerGraceMillis) {
+        this.slowConsumerGraceMillis = slowConsumerGraceMillis;
+    }
+
+    /**
+     * Gets how many bytes a writer collects before flushing; 0 flushes after
+     * every payload
+     * 
+     * @return bytes per batch
+     */
+    public int getOutboundBatchBytes() {
+        return outboundBatchBytes;
+    }
+
+    /**
+     * Sets how many bytes a writer collects before flushing; 0 flushes after
+     * every payload
+     * 
+     * @param outboundBatchBytes
+     */
+    public void setOutboundBatchBytes(int outboundBatchBytes) {
+        this.outboundBatchBytes = outboundBatchBytes;
+    }
+
+    /**
+     * Gets how long a writer waits for more payloads before flushing a batch
+     * that isn't full yet
+     * 
+     * @return microseconds
+     */
+    public long getOutboundFlushDelayMicros() {
+        return outboundFlushDelayMicros;
+    }
+
+    /**
+     * Sets how long a writer waits for more payloads before flushing a batch
+     * that isn't full yet
+     * 
+     * @param outboundFlushDelayMicros
+     */
+    public void setOutboundFlushDelayMicros(long outboundFlushDelayMicros) {
+        this.outboundFlushDelayMicros = outboundFlushDelayMicros;
+    }
+
+    /**
+     * Gets how many objects a legacy connection's stream writes between
+     * resets; 0 disables the count
+     * 
+     * @return objects per reset
+     */
+    public int getStreamResetObjects() {
+        return streamResetObjects;
+    }
+
+    /**
+     * Sets how many objects a legacy connection's stream writes between
+     * resets; 0 disables the count
+     * 
+     * @param streamResetObjects
+     */
+    public void setStreamResetObjects(int streamResetObjects) {
+        this.streamResetObjects = streamResetObjects;
+    }
+
+    /**
+     * Gets how many bytes a legacy connection's stream writes between resets;
+     * 0 disables the size check
+     * 
+     * @return bytes per reset
+     */
+    public long getStreamResetBytes() {
+        return streamResetBytes;
+    }
+
+    /**
+     * Sets how many bytes a legacy connection's stream writes between resets;
+     * 0 disables the size check
+     * 
+     * @param streamResetBytes
+     */
+    public void setStreamResetBytes(long streamResetBytes) {
+        this.streamResetBytes = streamResetBytes;
+    }
+
+    /**
+     * Gets the estimated memory the formatted message cache may hold; 0
+     * disables caching
+     * 
+     * @return bytes
+     */
+    public long getFormatCacheMaxBytes() {
+        return formatCacheMaxBytes;
+    }
+
+    /**
+     * Sets the estimated memory the formatted message cache may hold; 0
+     * disables caching
+     * 
+     * @param formatCacheMaxBytes
+     */
+    public void setFormatCacheMaxBytes(long formatCacheMaxBytes) {
+        this.formatCacheMaxBytes = formatCacheMaxBytes;
+    }
+
+    /**
+     * Gets the message length above which formatting bypasses the cache
+     * 
+     * @return chars
+     */
+    public int getFormatCacheMaxMessageLength() {
+        return formatCacheMaxMessageLength;
+    }
+
+    /**
+     * Sets the message length above which formatting bypasses the cache
+     * 
+     * @param formatCacheMaxMessageLength
+     */
+    public void setFormatCacheMaxMessageLength(int formatCacheMaxMessageLength) {
+        this.formatCacheMaxMessageLength = formatCacheMaxMessageLength;
+    }
+
+    /**
+     * Checks whether the server logs on a background thread
+     * 
+     * @return true if logging is asynchronous
+     */
+    public boolean isAsyncLogging() {
+        return asyncLogging;
+    }
+
+    /**
+     * Sets whether the server logs on a background thread; only takes effect
+     * before the logger is configured
+     * 
+     * @param asyncLogging
+     */
+    public void setAsyncLogging(boolean asyncLogging) {
+        this.asyncLogging = asyncLogging;
+    }
+
+    /**
+     * Gets what async logging does when its buffer is full
+     * 
+     * @return the overflow policy
+     */
+    public LoggerUtil.OverflowPolicy getLogOverflowPolicy() {
+        return logOverflowPolicy;
+    }
+
+    /**
+     * Sets what async logging does when its buffer is full; only takes effect
+     * before the logger is configured
+     * 
+     * @param logOverflowPolicy
+     */
+    public void setLogOverflowPolicy(LoggerUtil.OverflowPolicy logOverflowPolicy) {
+        this.logOverflowPolicy = logOverflowPolicy;
+    }
+
+    /**
+     * Gets the most rooms one room list query returns
+     * 
+     * @return the page size
+     */
+    public int getRoomListLimit() {
+        return roomListLimit;
+    }
+
+    /**
+     * Sets the most rooms one room list query returns
+     * 
+     * @param roomListLimit
+     */
+    public void setRoomListLimit(int roomListLimit) {
+        this.roomListLimit = roomListLimit;
+    }
+
+    /**
+     * Gets the most matches a room search counts before it stops and reports
+     * the total as a lower bound
+     * 
+     * @return the cap on the reported total
+     */
+    public int getRoomCountLimit() {
+        return roomCountLimit;
+    }
+
+    /**
+     * Sets the most matches a room search counts; the count walks every
+     * candidate name, so this bounds the work of each first page
+     * 
+     * @param roomCountLimit
+     */
+    public void setRoomCountLimit(int roomCountLimit) {
+        this.roomCountLimit = roomCountLimit;
+    }
+
+    /**
+     * Gets the file client ids are reserved in so they survive restarts
+     * 
+     * @return the path, or an empty string if ids aren't persisted
+     */
+    public String getClientIdStore() {
+        return clientIdStore;
+    }
+
+    /**
+     * Sets the file client ids are reserved in so they survive restarts (empty
+     * to not persist them); only takes effect before the Server is first used
+     * 
+     * @param clientIdStore
+     */
+    public void setClientIdStore(String clientIdStore) {
+        this.clientIdStore = clientIdStore;
+    }
+
+    /**
+     * Gets how many client ids are reserved per write to the store
+     * 
+     * @return the block size
+     */
+    public int getClientIdBlockSize() {
+        return clientIdBlockSize;
+    }
+
+    /**
+     * Sets how many client ids are reserved per write to the store; only takes
+     * effect before the Server is first used
+     * 
+     * @param clientIdBlockSize
+     */
+    public void setClientIdBlockSize(int clientIdBlockSize) {
+        this.clientIdBlockSize = clientIdBlockSize;
+    }
+
+    /**
+     * Gets the mute store's log file
+     * 
+     * @return the path
+     */
+    public String getMuteStoreFile() {
+        return muteStoreFile;
+    }
+
+    /**
+     * Sets the mute store's log file; only takes effect before the store is
+     * first used
+     * 
+     * @param muteStoreFile
+     */
+    public void setMuteStoreFile(String muteStoreFile) {
+        this.muteStoreFile = muteStoreFile;
+    }
+
+    /**
+     * Gets how long the mute store waits for more toggles to write with the
+     * first
+     * 
+     * @return the group commit delay
+     */
+    public long getMuteStoreCommitDelayMillis() {
+        return muteStoreCommitDelayMillis;
+    }
+
+    /**
+     * Sets how long the mute store waits for more toggles to write with the
+     * first; only takes effect before the store is first used
+     * 
+     * @param muteStoreCommitDelayMillis
+     */
+    public void setMuteStoreCommitDelayMillis(long muteStoreCommitDelayMillis) {
+        this.muteStoreCommitDelayMillis = muteStoreCommitDelayMillis;
+    }
+
+    /**
+     * Gets the mute store's log size (in records) below which it's never
+     * compacted
+     * 
+     * @return the minimum
+     */
+    public long getMuteStoreCompactMinRecords() {
+        return muteStoreCompactMinRecords;
+    }
+
+    /**
+     * Sets the mute store's log size (in records) below which it's never
+     * compacted
+     * 
+     * @param muteStoreCompactMinRecords
+     */
+    public void setMuteStoreCompactMinRecords(long muteStoreCompactMinRecords) {
+        this.muteStoreCompactMinRecords = muteStoreCompactMinRecords;
+    }
+
+    /**
+     * Checks whether a user with nothing in the mute store gets their old
+     * {@code <name>.txt} mute list imported
+     * 
+     * @return true if legacy lists are imported
+     */
+    public boolean isMuteStoreImportLegacy() {
+        return muteStoreImportLegacy;
+    }
+
+    /**
+     * Sets whether a user with nothing in the mute store gets their old
+     * {@code <name>.txt} mute list imported
+     * 
+     * @param muteStoreImportLegacy
+     */
+    public void setMuteStoreImportLegacy(boolean muteStoreImportLegacy) {
+        this.muteStoreImportLegacy = muteStoreImportLegacy;
+    }
+
+    /**
+     * Gets how many recent messages a room keeps, unless set for that room
+     * 
+     * @return the default capacity (0 = no history)
+     */
+    public int getHistoryCapacity() {
+        return historyCapacity;
+    }
+
+    /**
+     * Sets how many recent messages a room keeps, unless set for that room;
+     * applies to rooms created afterwards
+     * 
+     * @param historyCapacity
+     */
+    public void setHistoryCapacity(int historyCapacity) {
+        this.historyCapacity = historyCapacity;
+    }
+
+    /**
+     * Gets how many recent messages the named room keeps
+     * 
+     * @param room room name (case-insensitive)
+     * @return its capacity: set for the room, from
+     *         server.history.capacity.&lt;room&gt;, or the default
+     */
+    public int getHistoryCapacity(String room) {
+        String key = room.toLowerCase();
+        Integer capacity = roomHistoryCapacities.get(key);
+        return capacity != null ? capacity : Integer.getInteger("server.history.capacity." + key, historyCapacity);
+    }
+
+    /**
+     * Sets how many recent messages the named room keeps; applies if the room
+     * is created afterwards
+     * 
+     * @param room            room name (case-insensitive)
+     * @param historyCapacity
+     */
+    public void setHistoryCapacity(String room, int historyCapacity) {
+        roomHistoryCapacities.put(room.toLowerCase(), historyCapacity);
+    }
+
+    /**
+     * Gets how many recent messages a client is sent when it joins a room
+     * 
+     * @return the count (0 = none)
+     */
+    public int getHistoryReplayCount() {
+        return historyReplayCount;
+    }
+
+    /**
+     * Sets how many recent messages a client is sent when it joins a room
+     * 
+     * @param historyReplayCount
+     */
+    public void setHistoryReplayCount(int historyReplayCount) {
+        this.historyReplayCount = historyReplayCount;
+    }
+
+    /**
+     * Gets the most messages sent for one request for older history
+     * 
+     * @return the count
+     */
+    public int getHistoryPageLimit() {
+        return historyPageLimit;
+    }
+
+    /**
+     * Sets the most messages sent for one request for older history
+     * 
+     * @param historyPageLimit
+     */
+    public void setHistoryPageLimit(int historyPageLimit) {
+        this.historyPageLimit = historyPageLimit;
+    }
+
+    /**
+     * Gets the estimated memory all rooms' history may hold together
+     * 
+     * @return the limit in bytes
+     */
+    public long getHistoryMaxBytes() {
+        return historyMaxBytes;
+    }
+
+    /**
+     * Sets the estimated memory all rooms' history may hold together
+     * 
+     * @param historyMaxBytes
+     */
+    public void setHistoryMaxBytes(long historyMaxBytes) {
+        this.historyMaxBytes = historyMaxBytes;
+    }
+
+    /**
+     * Gets the directory room messages are journaled to. Off by default: each
+     * segment file is preallocated at the segment size, so the journal takes
+     * up to segmentBytes * maxSegments of disk (1GB at the defaults), the
+     * first segment as soon as the Server starts.
+     * 
+     * @return the path, or an empty string if messages aren't journaled
+     */
+    public String getJournalDir() {
+        return journalDir;
+    }
+
+    /**
+     * Sets the directory room messages are journaled to (empty for none); only
+     * takes effect before the Server starts
+     * 
+     * @param journalDir
+     */
+    public void setJournalDir(String journalDir) {
+        this.journalDir = journalDir;
+    }
+
+    /**
+     * Gets the size new journal segment files are created with
+     * 
+     * @return the size in bytes
+     */
+    public long getJournalSegmentBytes() {
+        return journalSegmentBytes;
+    }
+
+    /**
+     * Sets the size new journal segment files are created with (at most 2GB)
+     * 
+     * @param journalSegmentBytes
+     */
+    public void setJournalSegmentBytes(long journalSegmentBytes) {
+        this.journalSegmentBytes = Math.min(journalSegmentBytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the longest journaled messages wait before being forced to disk
+     * 
+     * @return the interval (0 = after every batch the writer picks up)
+     */
+    public long getJournalFsyncIntervalMillis() {
+        return journalFsyncIntervalMillis;
+    }
+
+    /**
+     * Sets the longest journaled messages wait before being forced to disk
+     * 
+     * @param journalFsyncIntervalMillis
+     */
+    public void setJournalFsyncIntervalMillis(long journalFsyncIntervalMillis) {
+        this.journalFsyncIntervalMillis = journalFsyncIntervalMillis;
+    }
+
+    /**
+     * Gets how many journaled messages force a sync before the interval is up
+     * 
+     * @return the record count
+     */
+    public int getJournalFsyncBatchRecords() {
+        return journalFsyncBatchRecords;
+    }
+
+    /**
+     * Sets how many journaled messages force a sync before the interval is up
+     * 
+     * @param journalFsyncBatchRecords
+     */
+    public void setJournalFsyncBatchRecords(int journalFsyncBatchRecords) {
+        this.journalFsyncBatchRecords = journalFsyncBatchRecords;
+    }
+
+    /**
+     * Gets how many of a room's journaled messages share one index point
+     * 
+     * @return the record count
+     */
+    public int getJournalIndexInterval() {
+        return journalIndexInterval;
+    }
+
+    /**
+     * Sets how many of a room's journaled messages share one index point
+     * 
+     * @param journalIndexInterval
+     */
+    public void setJournalIndexInterval(int journalIndexInterval) {
+        this.journalIndexInterval = journalIndexInterval;
+    }
+
+    /**
+     * Gets how far the journal may grow past a room's last index point before
+     * the room's next message gets one, which bounds a seek's scan
+     * 
+     * @return the distance in bytes
+     */
+    public long getJournalIndexBytes() {
+        return journalIndexBytes;
+    }
+
+    /**
+     * Sets how far the journal may grow past a room's last index point before
+     * the room's next message gets one
+     * 
+     * @param journalIndexBytes
+     */
+    public void setJournalIndexBytes(long journalIndexBytes) {
+        this.journalIndexBytes = journalIndexBytes;
+    }
+
+    /**
+     * Gets how many journal segments are kept before the oldest is deleted
+     * 
+     * @return the count (0 = no limit)
+     */
+    public int getJournalMaxSegments() {
+        return journalMaxSegments;
+    }
+
+    /**
+     * Sets how many journal segments are kept before the oldest is deleted
+     * 
+     * @param journalMaxSegments
+     */
+    public void setJournalMaxSegments(int journalMaxSegments) {
+        this.journalMaxSegments = journalMaxSegments;
+    }
+
+    /**
+     * Gets how long journaled messages are kept
+     * 
+     * @return the age in hours after which a segment's messages are deleted (0 =
+     *         by segment count only)
+     */
+    public int getJournalRetentionHours() {
+        return journalRetentionHours;
+    }
+
+    /**
+     * Sets how long journaled messages are kept
+     * 
+     * @param journalRetentionHours
+     */
+    public void setJournalRetentionHours(int journalRetentionHours) {
+        this.journalRetentionHours = journalRetentionHours;
+    }
+
+    /**
+     * Gets how many messages may wait for the journal writer before new ones
+     * are dropped
+     * 
+     * @return the queue capacity
+     */
+    public int getJournalQueueCapacity() {
+        return journalQueueCapacity;
+    }
+
+    /**
+     * Sets how many messages may wait for the journal writer before new ones
+     * are dropped; only takes effect before the Server starts
+     * 
+     * @param journalQueueCapacity
+     */
+    public void setJournalQueueCapacity(int journalQueueCapacity) {
+        this.journalQueueCapacity = journalQueueCapacity;
+    }
+
+    /**
+     * Gets how many older journal segments stay mapped for reading history
+     * 
+     * @return the count
+     */
+    public int getJournalCachedSegments() {
+        return journalCachedSegments;
+    }
+
+    /**
+     * Sets how many older journal segments stay mapped for reading history
+     * 
+     * @param journalCachedSegments
+     */
+    public void setJournalCachedSegments(int journalCachedSegments) {
+        this.journalCachedSegments = journalCachedSegments;
+    }
+
+    /**
+     * Gets how many threads serve requests for older history from the journal
+     * 
+     * @return the thread count
+     */
+    public int getJournalReaderThreads() {
+        return journalReaderThreads;
+    }
+
+    /**
+     * Sets how many threads serve requests for older history from the
+     * journal; only takes effect before the Server starts
+     * 
+     * @param journalReaderThreads
+     */
+    public void setJournalReaderThreads(int journalReaderThreads) {
+        this.journalReaderThreads = journalReaderThreads;
+    }
+
+    /**
+     * Gets the localhost port the diagnostics endpoint listens on
+     * 
+     * @return the port, or -1 if the endpoint is off
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Sets the localhost port the diagnostics endpoint listens on (-1 for off,
+     * 0 for any free port); only takes effect before the Server starts
+     * 
+     * @param metricsPort
+     */
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+}
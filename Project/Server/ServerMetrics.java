@@ -0,0 +1,74 @@
+package Project.Server;
+
+import java.util.function.LongSupplier;
+
+import Project.Common.Counter;
+import Project.Common.Gauge;
+import Project.Common.Histogram;
+import Project.Common.MetricsRegistry;
+import Project.Common.PayloadType;
+
+/**
+ * The server's metrics, registered in MetricsRegistry once and held here so
+ * hot paths update them without a lookup. Timings are in nanoseconds.
+ */
+public abstract class ServerMetrics {
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.INSTANCE;
+    private static final PayloadType[] TYPES = PayloadType.values();
+    private static final Counter[] RECEIVED = new Counter[TYPES.length];
+    private static final Counter[] SENT = new Counter[TYPES.length];
+    private static final Histogram[] PROCESSING = new Histogram[TYPES.length];
+
+    public static final Counter CONNECTIONS_ACCEPTED = REGISTRY.counter("server_connections_accepted_total",
+            "Client connections accepted");
+    public static final Counter SEND_FAILURES = REGISTRY.counter("server_send_failures_total",
+            "Payloads that couldn't be queued for a client (closed, or dropped as a slow consumer)");
+    public static final Histogram BROADCAST_DURATION = REGISTRY.histogram("server_broadcast_duration_nanoseconds",
+            "Time to hand a room message to every recipient");
+    public static final Histogram BROADCAST_RECIPIENTS = REGISTRY.histogram("server_broadcast_recipients",
+            "Room members a message was broadcast to");
+    public static final Counter JOURNAL_DROPPED = REGISTRY.counter("server_journal_dropped_total",
+            "Messages not journaled (queue full, too large, or a segment couldn't be created)");
+    public static final Histogram JOURNAL_FSYNC_DURATION = REGISTRY.histogram("server_journal_fsync_duration_nanoseconds",
+            "Time to force a batch of journaled messages to disk");
+
+    static {
+        for (PayloadType type : TYPES) {
+            String label = type.name();
+            RECEIVED[type.ordinal()] = REGISTRY.counter("server_payloads_received_total",
+                    "Payloads received from clients", "type", label);
+            SENT[type.ordinal()] = REGISTRY.counter("server_payloads_sent_total",
+                    "Payloads queued for clients", "type", label);
+            PROCESSING[type.ordinal()] = REGISTRY.histogram("server_payload_processing_nanoseconds",
+                    "Time from receiving a payload to its last recipient's send", "type", label);
+        }
+    }
+
+    public static Counter received(PayloadType type) {
+        return RECEIVED[type.ordinal()];
+    }
+
+    public static Counter sent(PayloadType type) {
+        return SENT[type.ordinal()];
+    }
+
+    public static Histogram processing(PayloadType type) {
+        return PROCESSING[type.ordinal()];
+    }
+
+    public static Gauge roomCount(LongSupplier rooms) {
+        return REGISTRY.gauge("server_rooms", "Rooms currently open", rooms);
+    }
+
+    public static Gauge roomMembers(String room, LongSupplier members) {
+        return REGISTRY.gauge("server_room_members", "Clients currently in the room", "room", room, members);
+    }
+
+    public static Gauge historyBytes(LongSupplier bytes) {
+        return REGISTRY.gauge("server_history_bytes", "Estimated memory held by rooms' message history", bytes);
+    }
+
+    public static void remove(Gauge gauge) {
+        REGISTRY.remove(gauge);
+    }
+}
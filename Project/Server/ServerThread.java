@@ -2,13 +2,15 @@ package Project.Server;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 import Project.Common.ConnectionPayload;
+import Project.Common.EncodedPayload;
+import Project.Common.HistoryPayload;
+import Project.Common.MessagePayload;
 import Project.Common.LoggerUtil;
 import Project.Common.Payload;
 import Project.Common.PayloadType;
@@ -16,6 +18,7 @@ import Project.Common.PrivateMessagePayload;
 import Project.Common.RoomResultsPayload;
 import Project.Common.RollPayload;
 import Project.Common.FlipPayload;
+import Project.Common.WireFormat;
 
 /**
  * A server-side representation of a single client.
@@ -27,7 +30,11 @@ public class ServerThread extends BaseServerThread {
     private long clientId;
     private String clientName;
     private Consumer<ServerThread> onInitializationComplete; // callback to inform when this object is ready
-    private Set<String> mutedClients = new HashSet<>();
+    private volatile int userId = UserIds.NONE; // the name's number (see UserIds)
+    private volatile MuteSet mutedClients = MuteSet.EMPTY; // loaded with the name (see MuteStore)
+    private String mutesOwner; // the name mutedClients was acquired for, until released; guarded by mutesLock
+    private boolean isMutesReleased = false; // cleaned up; guarded by mutesLock
+    private final ReentrantLock mutesLock = new ReentrantLock();
 
     /**
      * Wraps the Socket connection and takes a Server reference and a callback
@@ -47,34 +54,69 @@ public class ServerThread extends BaseServerThread {
     }
 
     public boolean addMutedClient(String clientName) {
-        boolean added = mutedClients.add(clientName);
-        if (added) {
-            saveMuteList();
-        }
-        return added;
+        return this.clientName != null && MuteStore.INSTANCE.setMuted(this.clientName, clientName, true);
     }
     
     public boolean removeMutedClient(String clientName) {
-        boolean removed = mutedClients.remove(clientName);
-        if (removed) {
-            saveMuteList();
-        }
-        return removed;
+        return this.clientName != null && MuteStore.INSTANCE.setMuted(this.clientName, clientName, false);
     }
 
     public boolean isClientMuted(String clientName) {
         return mutedClients.contains(clientName);
     }
 
+    /**
+     * @return who this client muted, by name and by UserIds number; empty
+     *         until the name is set
+     */
+    protected MuteSet getMutedClients() {
+        return mutedClients;
+    }
+
     public void setClientName(String name) {
         if (name == null) {
             throw new NullPointerException("Client name can't be null");
         }
         this.clientName = name;
-        loadMuteList();
+        // mutes belong to the name; the store fills the set in without holding up this thread
+        acquireMutes(name);
+        userId = UserIds.INSTANCE.idOf(name);
         onInitialized();
     }
 
+    private void acquireMutes(String name) {
+        String previous;
+        mutesLock.lock();
+        try {
+            if (isMutesReleased) {
+                return; // closed before the name arrived
+            }
+            previous = mutesOwner;
+            mutesOwner = name;
+            mutedClients = MuteStore.INSTANCE.acquire(name);
+        } finally {
+            mutesLock.unlock();
+        }
+        if (previous != null) {
+            MuteStore.INSTANCE.release(previous);
+        }
+    }
+
+    private void releaseMutes() {
+        String owner;
+        mutesLock.lock();
+        try {
+            owner = mutesOwner;
+            mutesOwner = null;
+            isMutesReleased = true;
+        } finally {
+            mutesLock.unlock();
+        }
+        if (owner != null) {
+            MuteStore.INSTANCE.release(owner);
+        }
+    }
+
     public String getClientName() {
         return clientName;
     }
@@ -83,6 +125,13 @@ public class ServerThread extends BaseServerThread {
         return this.clientId;
     }
 
+    /**
+     * @return the client name's UserIds number, or UserIds.NONE before it's set
+     */
+    public int getUserId() {
+        return userId;
+    }
+
     protected Room getCurrentRoom() {
         return this.currentRoom;
     }
@@ -101,12 +150,13 @@ public class ServerThread extends BaseServerThread {
 
     @Override
     protected void info(String message) {
-        LoggerUtil.INSTANCE.info(String.format("ServerThread[%s(%s)]: %s", getClientName(), getClientId(), message));
+        LoggerUtil.INSTANCE.info("ServerThread[%s(%s)]: %s", getClientName(), getClientId(), message);
     }
 
     @Override
     protected void cleanup() {
         currentRoom = null;
+        releaseMutes(); // cleanup() can run more than once; only the first releases
         super.cleanup();
     }
 
@@ -126,11 +176,11 @@ public class ServerThread extends BaseServerThread {
                     setClientName(cp.getClientName());
                     break;
                 case MESSAGE:
-                    info("Received message payload: " + payload.getMessage());
+                    info("Received message payload: %s", payload.getMessage());
                     if (!isClientMuted(payload.getClientName())) {
                         currentRoom.sendMessage(this, payload.getMessage());
                     } else {
-                        LoggerUtil.INSTANCE.info("Message from " + getClientName() + " was skipped due to being muted.");
+                        LoggerUtil.INSTANCE.info("Message from %s was skipped due to being muted.", getClientName());
                     }
                     break;
                 case PRIVATE_MESSAGE:
@@ -144,7 +194,10 @@ public class ServerThread extends BaseServerThread {
                     currentRoom.handleJoinRoom(this, payload.getMessage());
                     break;
                 case ROOM_LIST:
-                    currentRoom.handleListRooms(this, payload.getMessage());
+                    currentRoom.handleListRooms(this, payload);
+                    break;
+                case HISTORY:
+                    currentRoom.handleHistory(this, (HistoryPayload) payload);
                     break;
                 case DISCONNECT:
                     currentRoom.disconnect(this);
@@ -198,6 +251,66 @@ public class ServerThread extends BaseServerThread {
         return send(rrp);
     }
 
+    /**
+     * Sends one page of a room search
+     * 
+     * @param query      what the rooms matched
+     * @param rooms      this page
+     * @param nextCursor where the next page starts, null if this is the last
+     * @param totalCount    all matches, or -1 if not counted
+     * @param isTotalCapped true if counting stopped early and more than
+     *                      totalCount match
+     * @return true if no errors were encountered
+     */
+    public boolean sendRoomPage(String query, List<String> rooms, String nextCursor, long totalCount,
+            boolean isTotalCapped) {
+        RoomResultsPayload rrp = new RoomResultsPayload();
+        rrp.setQuery(query);
+        rrp.setRooms(rooms);
+        rrp.setCursor(nextCursor);
+        rrp.setTotalCount(totalCount);
+        rrp.setTotalCapped(isTotalCapped);
+        return send(rrp);
+    }
+
+    /**
+     * Sends a room's recent messages in one payload; skipped for legacy
+     * OBJECT_STREAM clients
+     * 
+     * @param room    the room they were sent in
+     * @param entries the messages, oldest first
+     * @return true if no errors were encountered
+     */
+    public boolean sendHistory(String room, List<HistoryPayload.Entry> entries) {
+        long oldest = entries.isEmpty() ? 0 : entries.get(0).getSequence();
+        return sendHistoryPage(room, entries, oldest > 1 ? oldest : 0, 0);
+    }
+
+    /**
+     * Sends a page of a room's older messages
+     * 
+     * @param room           the room they were sent in
+     * @param entries        the messages, oldest first
+     * @param beforeSequence where the next older page ends, 0 if there's
+     *                       nothing older
+     * @param limit          most messages the client asked for
+     * @return true if no errors were encountered
+     */
+    public boolean sendHistoryPage(String room, List<HistoryPayload.Entry> entries, long beforeSequence,
+            int limit) {
+        if (wireFormat == WireFormat.OBJECT_STREAM) {
+            // clients from before HISTORY don't have the class, and reading one would drop them; they
+            // never ask for pages either, so this only skips the replay on join
+            return true;
+        }
+        HistoryPayload hp = new HistoryPayload();
+        hp.setRoom(room);
+        hp.setEntries(entries);
+        hp.setBeforeSequence(beforeSequence);
+        hp.setLimit(limit);
+        return send(hp);
+    }
+
     public boolean sendClientSync(long clientId, String clientName) {
         ConnectionPayload cp = new ConnectionPayload();
         cp.setClientId(clientId);
@@ -212,30 +325,62 @@ public class ServerThread extends BaseServerThread {
     }
 
     public boolean sendMessage(long senderId, String message) {
+        return send(buildMessage(senderId, message));
+    }
+
+    public boolean sendRoomAction(long clientId, String clientName, String room, boolean isJoin) {
+        return send(buildRoomAction(clientId, clientName, room, isJoin));
+    }
+
+    public boolean sendDisconnect(long clientId, String clientName) {
+        return send(buildDisconnect(clientId, clientName));
+    }
+
+    /**
+     * Sends a payload shared with other recipients (see Room broadcasts)
+     * 
+     * @param encoded
+     * @return true if no errors were encountered
+     */
+    public boolean sendEncoded(EncodedPayload encoded) {
+        return send(encoded);
+    }
+
+    // Payload builders shared by the single-recipient send methods and Room broadcasts
+
+    protected static Payload buildMessage(long senderId, String message) {
         Payload p = new Payload();
         p.setClientId(senderId);
         p.setMessage(message);
         p.setPayloadType(PayloadType.MESSAGE);
-        return send(p);
+        return p;
     }
 
-    public boolean sendRoomAction(long clientId, String clientName, String room, boolean isJoin) {
+    /**
+     * A room broadcast, numbered by the room's history; for framed clients,
+     * legacy ones get the plain message
+     */
+    protected static Payload buildMessage(long senderId, String message, long sequence) {
+        return new MessagePayload(senderId, message, sequence);
+    }
+
+    protected static ConnectionPayload buildRoomAction(long clientId, String clientName, String room, boolean isJoin) {
         ConnectionPayload cp = new ConnectionPayload();
         cp.setPayloadType(PayloadType.ROOM_JOIN);
         cp.setConnect(isJoin);
         cp.setMessage(room);
         cp.setClientId(clientId);
         cp.setClientName(clientName);
-        return send(cp);
+        return cp;
     }
 
-    public boolean sendDisconnect(long clientId, String clientName) {
+    protected static ConnectionPayload buildDisconnect(long clientId, String clientName) {
         ConnectionPayload cp = new ConnectionPayload();
         cp.setPayloadType(PayloadType.DISCONNECT);
         cp.setConnect(false);
         cp.setClientId(clientId);
         cp.setClientName(clientName);
-        return send(cp);
+        return cp;
     }
 
     public boolean sendClientId(long clientId) {
@@ -245,40 +390,7 @@ public class ServerThread extends BaseServerThread {
         cp.setConnect(true);
         cp.setClientId(clientId);
         cp.setClientName(clientName);
-        return send(cp);
-    }
-
-    // yh68 7/27/24
-    private void saveMuteList() {
-        if (clientName == null) {
-            return;
-        }
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(clientName + ".txt"))) {
-            for (String mutedClient : mutedClients) {
-                writer.write(mutedClient);
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            LoggerUtil.INSTANCE.severe("Error saving mute list for " + clientName, e);
-        }
-    }
-
-    // yh68 7/27/24
-    private void loadMuteList() {
-        if (clientName == null) {
-            return;
-        }
-
-        mutedClients.clear();
-        try (BufferedReader reader = new BufferedReader(new FileReader(clientName + ".txt"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                mutedClients.add(line);
-            }
-        } catch (IOException e) {
-            LoggerUtil.INSTANCE.severe("Error loading mute list for " + clientName, e);
-        }
+        return sendImmediately(cp); // the client can't do anything until it knows its id
     }
 
     public boolean sendMuteUnmuteNotification(String actorName, boolean isMute) {
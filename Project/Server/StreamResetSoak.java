@@ -0,0 +1,114 @@
+package Project.Server;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import Project.Common.LoggerUtil;
+
+/**
+ * Soak check that a long-lived legacy (ObjectOutputStream) connection doesn't
+ * grow the heap with the number of messages sent.
+ * <p>
+ * Sends the requested number of distinct messages from one ServerThread to a
+ * loopback ObjectInputStream client in the same JVM, so the heap covers both
+ * ends' handle tables. Used heap is sampled after a GC every tenth of the run;
+ * the run fails (exit code 1) if it ends more than the allowed number of MB
+ * above the first sample.
+ * </p>
+ *
+ * <pre>
+ * java -Xmx256m Project.Server.StreamResetSoak [messages] [max growth MB]
+ * java -Xmx256m -Dserver.stream.resetObjects=0 -Dserver.stream.resetBytes=0 Project.Server.StreamResetSoak 1000000
+ * </pre>
+ *
+ * The second form disables resets to show the unbounded growth.
+ */
+public class StreamResetSoak {
+    private static final int MAX_IN_FLIGHT = 500;
+
+    public static void main(String[] args) throws Exception {
+        long messages = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+        long maxGrowthMb = args.length > 1 ? Long.parseLong(args[1]) : 16;
+
+        // keep logging out of the measurement
+        LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
+        config.setLogLocation("benchmark.log");
+        config.setFileLogLevel(Level.SEVERE);
+        config.setConsoleLogLevel(Level.SEVERE);
+        LoggerUtil.INSTANCE.setConfig(config);
+
+        System.out.println(String.format("messages=%s resetObjects=%s resetBytes=%s", messages,
+                ServerConfig.INSTANCE.getStreamResetObjects(), ServerConfig.INSTANCE.getStreamResetBytes()));
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket clientSide = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+            ServerThread serverSide = new ServerThread(serverSocket.accept(), s -> {
+            });
+            serverSide.start(Thread.ofPlatform().factory());
+
+            new ObjectOutputStream(clientSide.getOutputStream()).flush(); // stream header picks the legacy format
+            ObjectInputStream in = new ObjectInputStream(clientSide.getInputStream());
+            AtomicLong received = new AtomicLong();
+            Thread reader = Thread.ofPlatform().start(() -> {
+                try {
+                    while (true) {
+                        in.readObject();
+                        received.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    // closed at the end of the run
+                }
+            });
+            while (!serverSide.isRunning) {
+                Thread.sleep(1);
+            }
+
+            long sampleEvery = Math.max(1, messages / 10);
+            long baseline = -1;
+            long used = 0;
+            long start = System.nanoTime();
+            for (long sent = 0; sent < messages; sent++) {
+                while (sent - received.get() >= MAX_IN_FLIGHT) {
+                    Thread.onSpinWait();
+                }
+                serverSide.sendMessage("soak message " + sent); // a new String each time, like real chat
+                if ((sent + 1) % sampleEvery == 0) {
+                    while (received.get() < sent + 1) {
+                        Thread.onSpinWait();
+                    }
+                    used = usedHeapAfterGc();
+                    if (baseline < 0) {
+                        baseline = used;
+                    }
+                    System.out.println(String.format("%,14d sent  heap %7.1f MB  stream: %s objects / %s bytes since reset",
+                            sent + 1, used / 1048576.0, serverSide.getStreamObjectsSinceReset(),
+                            serverSide.getStreamBytesSinceReset()));
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            serverSide.disconnect();
+            clientSide.shutdownInput(); // unblocks the reader; the socket itself closes with the try
+            reader.join();
+
+            double growthMb = (used - baseline) / 1048576.0;
+            System.out.println(String.format("%.0f msg/s, heap growth %.1f MB (limit %s MB)", messages / seconds,
+                    growthMb, maxGrowthMb));
+            if (growthMb > maxGrowthMb) {
+                System.out.println("FAIL: heap grew with the number of messages");
+                System.exit(1);
+            }
+            System.out.println("PASS");
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        System.gc();
+        Thread.sleep(100);
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
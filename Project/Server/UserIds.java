@@ -0,0 +1,70 @@
+package Project.Server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interns client names as small dense integers for the lifetime of the
+ * server, so per-user data (see {@link MuteSet}) can be indexed by number.
+ * <p>
+ * Unlike client ids, which are handed out per connection, a name keeps its
+ * number across reconnects, matching how mutes are keyed. Numbers are never
+ * reused; the table only grows with the distinct names logged in with.
+ * Names that are only muted aren't given one (see MuteSet).
+ * </p>
+ */
+public enum UserIds {
+    INSTANCE;
+
+    /**
+     * Number of no user (not logged in yet, or a server message); never
+     * contained in a MuteSet
+     */
+    public static final int NONE = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger interned = new AtomicInteger(); // counted once find() can see the name
+
+    /**
+     * Gets the name's number, assigning the next one the first time; for
+     * names being logged in with
+     *
+     * @param name client name
+     * @return its number, or NONE for a null name
+     */
+    public int idOf(String name) {
+        if (name == null) {
+            return NONE;
+        }
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        int[] assigned = { NONE };
+        id = ids.computeIfAbsent(name, k -> assigned[0] = next.getAndIncrement());
+        if (assigned[0] != NONE) {
+            interned.incrementAndGet();
+        }
+        return id;
+    }
+
+    /**
+     * Looks up the name's number without assigning one
+     *
+     * @param name client name
+     * @return its number, or NONE if the name was never interned
+     */
+    public int find(String name) {
+        Integer id = name == null ? null : ids.get(name);
+        return id != null ? id : NONE;
+    }
+
+    /**
+     * @return how many names have been interned; once this has changed,
+     *         find() sees the new ones
+     */
+    public int size() {
+        return interned.get();
+    }
+}
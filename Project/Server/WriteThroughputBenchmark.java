@@ -0,0 +1,131 @@
+package Project.Server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import Project.Common.FrameCodec;
+import Project.Common.LoggerUtil;
+import Project.Common.WireFormat;
+
+/**
+ * Messages per second a single connection can push to its client, with the
+ * writer flushing after every payload vs coalescing batches.
+ * <p>
+ * One ServerThread is connected to a loopback client that just reads and
+ * counts. The producer calls sendMessage() as fast as it can while keeping at
+ * most {@link #MAX_IN_FLIGHT} messages unread so the slow-consumer limits
+ * never kick in, which is the same shape as a client catching up on a chatty
+ * room.
+ * </p>
+ *
+ * <pre>
+ * java Project.Server.WriteThroughputBenchmark [seconds per run]
+ * </pre>
+ */
+public class WriteThroughputBenchmark {
+    private static final int MAX_IN_FLIGHT = 500;
+    private static final String MESSAGE = "<b>hello</b> everyone, this is a typical chat line";
+
+    public static void main(String[] args) throws Exception {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 3;
+
+        // keep logging out of the measurement
+        LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
+        config.setLogLocation("benchmark.log");
+        config.setFileLogLevel(Level.SEVERE);
+        config.setConsoleLogLevel(Level.SEVERE);
+        LoggerUtil.INSTANCE.setConfig(config);
+
+        int defaultBatchBytes = ServerConfig.INSTANCE.getOutboundBatchBytes();
+        long defaultFlushDelay = ServerConfig.INSTANCE.getOutboundFlushDelayMicros();
+
+        run(WireFormat.BINARY_FRAMES, 1); // JIT warmup, discarded
+        System.out.println(String.format("%-20s %22s %22s %10s", "format", "flush per msg (msg/s)",
+                "coalesced (msg/s)", "speedup"));
+        for (WireFormat format : new WireFormat[] { WireFormat.BINARY_FRAMES, WireFormat.OBJECT_STREAM }) {
+            ServerConfig.INSTANCE.setOutboundBatchBytes(0);
+            ServerConfig.INSTANCE.setOutboundFlushDelayMicros(0);
+            double perMessage = run(format, seconds);
+
+            ServerConfig.INSTANCE.setOutboundBatchBytes(defaultBatchBytes);
+            ServerConfig.INSTANCE.setOutboundFlushDelayMicros(defaultFlushDelay);
+            double coalesced = run(format, seconds);
+
+            System.out.println(String.format("%-20s %22.0f %22.0f %9.2fx", format, perMessage, coalesced,
+                    coalesced / perMessage));
+        }
+    }
+
+    /**
+     * @return messages received by the client per second
+     */
+    private static double run(WireFormat format, long seconds) throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket clientSide = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+            ServerThread serverSide = new ServerThread(serverSocket.accept(), s -> {
+            });
+            serverSide.start(Thread.ofPlatform().factory());
+
+            AtomicLong received = new AtomicLong();
+            Thread reader;
+            if (format == WireFormat.OBJECT_STREAM) {
+                new ObjectOutputStream(clientSide.getOutputStream()).flush(); // stream header picks the format
+                ObjectInputStream in = new ObjectInputStream(clientSide.getInputStream());
+                reader = Thread.ofPlatform().start(() -> {
+                    try {
+                        while (true) {
+                            in.readObject();
+                            received.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        // closed at the end of the run
+                    }
+                });
+            } else {
+                clientSide.getOutputStream().write(WireFormat.HANDSHAKE_BINARY);
+                InputStream raw = new BufferedInputStream(clientSide.getInputStream());
+                DataInputStream in = new DataInputStream(raw);
+                reader = Thread.ofPlatform().start(() -> {
+                    try {
+                        while (true) {
+                            FrameCodec.read(in, format);
+                            received.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        // closed at the end of the run
+                    }
+                });
+            }
+            while (!serverSide.isRunning) {
+                Thread.sleep(1);
+            }
+
+            long sent = 0;
+            long start = System.nanoTime();
+            long deadline = start + seconds * 1_000_000_000L;
+            while (System.nanoTime() < deadline) {
+                if (sent - received.get() >= MAX_IN_FLIGHT) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                serverSide.sendMessage(MESSAGE);
+                sent++;
+            }
+            long count = received.get();
+            long elapsed = System.nanoTime() - start;
+
+            serverSide.disconnect();
+            clientSide.shutdownInput(); // unblocks the reader; the socket itself closes with the try
+            reader.join();
+            return count / (elapsed / 1e9);
+        }
+    }
+}